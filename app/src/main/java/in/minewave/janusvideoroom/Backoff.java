@@ -0,0 +1,39 @@
+package in.minewave.janusvideoroom;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. The n-th delay is drawn uniformly from
+ * the upper half of {@code min(max, base * 2^n)}, so clients that lost the
+ * same gateway do not reconnect in lockstep, yet no retry is immediate.
+ */
+final class Backoff {
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempts;
+
+    Backoff(long baseMs, long maxMs, Random random) {
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    synchronized long next() {
+        long ceiling = baseMs << Math.min(attempts, 30);
+        if (ceiling <= 0 || ceiling > maxMs) {
+            ceiling = maxMs;
+        }
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half + 1));
+    }
+
+    synchronized int attempts() {
+        return attempts;
+    }
+
+    synchronized void reset() {
+        attempts = 0;
+    }
+}
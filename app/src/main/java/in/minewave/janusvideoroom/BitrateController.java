@@ -0,0 +1,106 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Decides the send bitrate cap for one publisher from its stats and from
+ * the gateway's slow_link reports, so a congested uplink degrades in steps
+ * instead of overshooting and freezing.
+ *
+ * <p>Loss above {@link #HIGH_LOSS_PERCENT}, round-trip time rising
+ * {@link #RTT_RISE_MS} over the lowest seen, or a slow_link cut the cap by
+ * {@link #DECREASE}, at most once per {@link #DECREASE_HOLD_MS}. Only after
+ * {@link #INCREASE_HOLD_MS} without a cut, and with loss under
+ * {@link #LOW_LOSS_PERCENT}, does it grow again by {@link #INCREASE}, and
+ * never beyond half again what is actually being sent. Between the two
+ * loss thresholds it holds. A new cap is only handed out when it moves
+ * far enough from the last one, so small swings are not applied.
+ *
+ * <p>Not thread-safe; the caller keeps it on the publisher's lane. Times
+ * are passed in so it can be driven by tests.
+ */
+final class BitrateController {
+    static final double HIGH_LOSS_PERCENT = 10;
+    static final double LOW_LOSS_PERCENT = 2;
+    static final long RTT_RISE_MS = 150;
+    static final double DECREASE = 0.85;
+    static final double INCREASE = 1.08;
+    static final long DECREASE_HOLD_MS = 1000;
+    static final long INCREASE_HOLD_MS = 4000;
+    // A cap is re-applied only when it moves this far from the applied one.
+    private static final double APPLY_DOWN = 0.05;
+    private static final double APPLY_UP = 0.10;
+    // The RTT floor creeps up by this much per sample, so it follows route changes.
+    private static final double RTT_FLOOR_DRIFT = 1.01;
+
+    private final int minKbps;
+    private final int maxKbps;
+    private double targetKbps;
+    private int appliedKbps;
+    private double rttFloorMs;
+    private long lastDecreaseMs = Long.MIN_VALUE / 2;
+
+    BitrateController(int minKbps, int maxKbps) {
+        this.minKbps = minKbps;
+        this.maxKbps = maxKbps;
+        targetKbps = maxKbps;
+    }
+
+    /** The cap it is aiming for, in kbps. */
+    double target() {
+        return targetKbps;
+    }
+
+    /** The cap last handed out, or 0 if none has been. */
+    int applied() {
+        return appliedKbps;
+    }
+
+    /**
+     * Folds in one stats sample of the sent video. Returns the cap to apply
+     * in kbps, or 0 to leave it as it is.
+     */
+    int onStats(long nowMs, double lossPercent, double rttMs, double sentKbps) {
+        boolean rttHigh = false;
+        if (rttMs > 0) {
+            rttFloorMs = rttFloorMs == 0 ? rttMs : Math.min(rttFloorMs * RTT_FLOOR_DRIFT, rttMs);
+            rttHigh = rttMs > rttFloorMs + RTT_RISE_MS;
+        }
+        if (lossPercent > HIGH_LOSS_PERCENT || rttHigh) {
+            decrease(nowMs, sentKbps);
+        } else if (lossPercent < LOW_LOSS_PERCENT && nowMs - lastDecreaseMs >= INCREASE_HOLD_MS) {
+            double next = targetKbps * INCREASE;
+            if (sentKbps > 0) {
+                // Sending less than the cap already; raising it further would only make room to overshoot.
+                next = Math.min(next, Math.max(targetKbps, sentKbps * 1.5));
+            }
+            targetKbps = Math.min(maxKbps, next);
+        }
+        return apply();
+    }
+
+    /** The gateway reported lost packets on what we send. Returns the cap to apply, or 0. */
+    int onSlowLink(long nowMs, double sentKbps) {
+        decrease(nowMs, sentKbps);
+        return apply();
+    }
+
+    private void decrease(long nowMs, double sentKbps) {
+        if (nowMs - lastDecreaseMs < DECREASE_HOLD_MS) {
+            return;
+        }
+        double base = sentKbps > 0 ? Math.min(targetKbps, sentKbps) : targetKbps;
+        targetKbps = Math.max(minKbps, base * DECREASE);
+        lastDecreaseMs = nowMs;
+    }
+
+    private int apply() {
+        int target = (int) Math.round(targetKbps);
+        int current = appliedKbps == 0 ? maxKbps : appliedKbps;
+        boolean down = target < current * (1 - APPLY_DOWN) || (target == minKbps && current > minKbps);
+        boolean up = target > current * (1 + APPLY_UP) || (target == maxKbps && current < maxKbps);
+        if (!down && !up) {
+            return 0;
+        }
+        appliedKbps = target;
+        return target;
+    }
+}
@@ -0,0 +1,76 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed stats of one peer connection: bandwidth estimates and round-trip
+ * time for the connection as a whole, and a {@link TrackStats} per stream.
+ */
+public final class ConnectionStats {
+    public static final int AVAILABLE_SEND_KBPS = 0;
+    public static final int AVAILABLE_RECEIVE_KBPS = 1;
+    public static final int RTT_MS = 2;
+    static final int METRICS = 3;
+
+    public final long handleId;
+    public long timestampMs;
+    public double availableSendKbps;
+    public double availableReceiveKbps;
+    public double targetEncodeKbps;
+    public double actualEncodeKbps;
+    public double transmitKbps;
+    /** Round-trip time of the active candidate pair. */
+    public double rttMs;
+
+    final LongHashMap<TrackStats> tracks = new LongHashMap<>();
+    // Outbound and inbound streams can share an SSRC value, so they are kept apart.
+    final LongHashMap<TrackStats> inboundTracks = new LongHashMap<>();
+    private final MetricRing[] history;
+
+    ConnectionStats(long handleId, int historySize) {
+        this.handleId = handleId;
+        history = new MetricRing[METRICS];
+        for (int i = 0; i < METRICS; i++) {
+            history[i] = new MetricRing(historySize);
+        }
+    }
+
+    public MetricRing history(int metric) {
+        return history[metric];
+    }
+
+    /** Every stream seen in the latest sample. */
+    public List<TrackStats> tracks() {
+        List<TrackStats> all = new ArrayList<>(tracks.size() + inboundTracks.size());
+        tracks.values(all);
+        inboundTracks.values(all);
+        return all;
+    }
+
+    public TrackStats outbound(long ssrc) {
+        return tracks.get(ssrc);
+    }
+
+    public TrackStats inbound(long ssrc) {
+        return inboundTracks.get(ssrc);
+    }
+
+    /** The first sent or received video stream, or null. */
+    public TrackStats video(boolean outbound) {
+        List<TrackStats> all = new ArrayList<>();
+        (outbound ? tracks : inboundTracks).values(all);
+        for (TrackStats track : all) {
+            if (track.video) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    void record() {
+        history[AVAILABLE_SEND_KBPS].add(availableSendKbps);
+        history[AVAILABLE_RECEIVE_KBPS].add(availableReceiveKbps);
+        history[RTT_MS].add(rttMs);
+    }
+}
@@ -0,0 +1,30 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayDeque;
+
+/**
+ * Tells an SDP observer whether a set that succeeded was of the local or
+ * the remote description. The connection's own descriptions cannot say: on
+ * renegotiation a new offer is set while the previous answer is still in
+ * place. Sets on one peer connection complete in the order they are made,
+ * so each is queued before it is made and taken off when it completes.
+ */
+final class DescriptionSets {
+    private final ArrayDeque<Boolean> pending = new ArrayDeque<>();
+
+    /** Call right before setting the local description. */
+    synchronized void settingLocal() {
+        pending.add(Boolean.TRUE);
+    }
+
+    /** Call right before setting the remote description. */
+    synchronized void settingRemote() {
+        pending.add(Boolean.FALSE);
+    }
+
+    /** The oldest set completed; returns whether it was of the local description. */
+    synchronized boolean completed() {
+        Boolean local = pending.poll();
+        return local != null && local;
+    }
+}
@@ -0,0 +1,50 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread-safe map from Janus ids (session, handle and feed ids, unsigned 64-bit
+ * values carried in a {@code long}) to the objects that track them. Used by
+ * both the signaling and the media layer, so looking up the target of an
+ * inbound event neither parses a BigInteger nor boxes the key.
+ */
+final class HandleRegistry<V> {
+    private final LongHashMap<V> map = new LongHashMap<>();
+
+    synchronized V get(long id) {
+        return map.get(id);
+    }
+
+    synchronized V put(long id, V value) {
+        return map.put(id, value);
+    }
+
+    synchronized V remove(long id) {
+        return map.remove(id);
+    }
+
+    /** Removes the mapping only if {@code id} still maps to {@code value}. */
+    synchronized boolean remove(long id, V value) {
+        if (map.get(id) != value) {
+            return false;
+        }
+        map.remove(id);
+        return true;
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    /** Returns a copy of the current values, safe to iterate without the lock. */
+    synchronized List<V> values() {
+        List<V> values = new ArrayList<>(map.size());
+        map.values(values);
+        return values;
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+}
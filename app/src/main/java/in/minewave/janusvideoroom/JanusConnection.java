@@ -2,16 +2,37 @@ package in.minewave.janusvideoroom;
 
 
 import org.webrtc.PeerConnection;
+import org.webrtc.RtpSender;
 import org.webrtc.SurfaceViewRenderer;
+import org.webrtc.VideoRenderer;
 import org.webrtc.VideoTrack;
 
-import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * One peer connection and its state. Apart from the handle id, fields are
+ * only touched on the connection's own lane in {@link PeerConnectionClient}.
+ */
 public class JanusConnection {
-    public BigInteger handleId;
+    // 0 while the connection waits in the warm pool; set once when a handle takes it.
+    public volatile long handleId;
     public PeerConnection peerConnection;
     public PeerConnectionClient.SDPObserver sdpObserver;
     public VideoTrack videoTrack;
     public SurfaceViewRenderer videoRender;
+    public RtpSender videoSender;
     public boolean type;
+    // Set once the connection has reported an error; it does nothing more after that.
+    public boolean failed;
+    // Publishers only: decides the send bitrate cap.
+    BitrateController bitrateController;
+    // Every remote video track by the mid it arrived on, or by track id if the
+    // offer did not say; videoTrack is the first of them.
+    final Map<String, VideoTrack> remoteTracks = new LinkedHashMap<>();
+    // Track id to mid, from the latest remote offer.
+    Map<String, String> midsByTrack = Collections.emptyMap();
+    // Renderers and the track each is attached to, detached when the track goes.
+    final Map<VideoRenderer, VideoTrack> renderers = new LinkedHashMap<>();
 }
@@ -0,0 +1,266 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+/**
+ * An inbound Janus message. Only {@code janus}, {@code transaction},
+ * {@code session_id} and {@code sender} are decoded by
+ * {@link JanusMessageDecoder}; the remaining members are kept as offsets into
+ * the original frame and decoded on first access. Transactions issued by
+ * {@link JanusTransactionEngine} are numeric and are decoded as a long
+ * without materializing the string.
+ */
+public abstract class JanusEvent {
+
+    public enum Type {
+        SUCCESS("success"),
+        ERROR("error"),
+        ACK("ack"),
+        EVENT("event"),
+        DETACHED("detached"),
+        WEBRTCUP("webrtcup"),
+        MEDIA("media"),
+        SLOWLINK("slowlink"),
+        HANGUP("hangup"),
+        TIMEOUT("timeout"),
+        SERVER_INFO("server_info"),
+        UNKNOWN(null);
+
+        final String wireName;
+
+        Type(String wireName) {
+            this.wireName = wireName;
+        }
+    }
+
+    // Lazily decoded members, as indexes into the span table.
+    static final int DATA = 0;
+    static final int ERROR = 1;
+    static final int PLUGINDATA = 2;
+    static final int JSEP = 3;
+    static final int MEDIA_TYPE = 4;
+    static final int RECEIVING = 5;
+    static final int UPLINK = 6;
+    static final int LOST = 7;
+    static final int REASON = 8;
+    static final int TRANSACTION = 9;
+    static final int SESSION_TIMEOUT = 10;
+    static final int MEMBER_COUNT = 11;
+
+    public final Type type;
+    /** The numeric transaction id, or 0 if the message has none or it is not one of ours. */
+    public final long transactionId;
+    public final long sessionId;
+    public final long sender;
+
+    private final String source;
+    private final int[] spans;
+    private JanusPluginData pluginData;
+
+    JanusEvent(Type type, long transactionId, long sessionId, long sender, String source, int[] spans) {
+        this.type = type;
+        this.transactionId = transactionId;
+        this.sessionId = sessionId;
+        this.sender = sender;
+        this.source = source;
+        this.spans = spans;
+    }
+
+    /** The transaction as sent on the wire, or null if there is none. */
+    public String transaction() throws JSONException {
+        JsonScanner scanner = member(TRANSACTION);
+        return scanner == null ? null : scanner.readString();
+    }
+
+    /** The {@code data.id} carried by replies to create and attach, or 0. */
+    public long dataId() throws JSONException {
+        JsonScanner scanner = member(DATA);
+        if (scanner == null) {
+            return 0;
+        }
+        scanner.beginObject();
+        while (scanner.nextName()) {
+            if (scanner.nameIs("id")) {
+                return scanner.readLong();
+            }
+            scanner.skipValue();
+        }
+        return 0;
+    }
+
+    /** Returns the videoroom {@code plugindata.data} of this message, or null if there is none. */
+    public JanusPluginData pluginData() throws JSONException {
+        if (pluginData == null) {
+            JsonScanner scanner = member(PLUGINDATA);
+            if (scanner != null) {
+                pluginData = JanusPluginData.decode(scanner);
+            }
+        }
+        return pluginData;
+    }
+
+    /** Returns a scanner positioned on the value of the given member, or null if it is absent. */
+    JsonScanner member(int member) {
+        int start = spans[member * 2];
+        if (start < 0) {
+            return null;
+        }
+        return new JsonScanner(source, start, spans[member * 2 + 1]);
+    }
+
+    boolean has(int member) {
+        return spans[member * 2] >= 0;
+    }
+
+    public static final class Success extends JanusEvent {
+        Success(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.SUCCESS, transactionId, sessionId, sender, source, spans);
+        }
+    }
+
+    public static final class Error extends JanusEvent {
+        private int code;
+        private String reason;
+        private boolean decoded;
+
+        Error(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.ERROR, transactionId, sessionId, sender, source, spans);
+        }
+
+        public int code() throws JSONException {
+            decode();
+            return code;
+        }
+
+        public String reason() throws JSONException {
+            decode();
+            return reason;
+        }
+
+        private void decode() throws JSONException {
+            if (decoded) {
+                return;
+            }
+            JsonScanner scanner = member(ERROR);
+            if (scanner != null) {
+                scanner.beginObject();
+                while (scanner.nextName()) {
+                    if (scanner.nameIs("code")) {
+                        code = scanner.readInt();
+                    } else if (scanner.nameIs("reason")) {
+                        reason = scanner.readString();
+                    } else {
+                        scanner.skipValue();
+                    }
+                }
+            }
+            decoded = true;
+        }
+    }
+
+    public static final class Ack extends JanusEvent {
+        Ack(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.ACK, transactionId, sessionId, sender, source, spans);
+        }
+    }
+
+    public static final class Event extends JanusEvent {
+        private JanusJsep jsep;
+
+        Event(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.EVENT, transactionId, sessionId, sender, source, spans);
+        }
+
+        public boolean hasJsep() {
+            return has(JSEP);
+        }
+
+        /** Returns the attached offer or answer, or null if the event carries none. */
+        public JanusJsep jsep() throws JSONException {
+            if (jsep == null) {
+                JsonScanner scanner = member(JSEP);
+                if (scanner != null) {
+                    jsep = JanusJsep.decode(scanner);
+                }
+            }
+            return jsep;
+        }
+    }
+
+    public static final class Detached extends JanusEvent {
+        Detached(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.DETACHED, transactionId, sessionId, sender, source, spans);
+        }
+    }
+
+    public static final class WebRtcUp extends JanusEvent {
+        WebRtcUp(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.WEBRTCUP, transactionId, sessionId, sender, source, spans);
+        }
+    }
+
+    public static final class Media extends JanusEvent {
+        Media(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.MEDIA, transactionId, sessionId, sender, source, spans);
+        }
+
+        /** "audio" or "video". */
+        public String mediaType() throws JSONException {
+            JsonScanner scanner = member(MEDIA_TYPE);
+            return scanner == null ? null : scanner.readString();
+        }
+
+        public boolean receiving() throws JSONException {
+            JsonScanner scanner = member(RECEIVING);
+            return scanner != null && scanner.readBoolean();
+        }
+    }
+
+    public static final class SlowLink extends JanusEvent {
+        SlowLink(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.SLOWLINK, transactionId, sessionId, sender, source, spans);
+        }
+
+        /** True if the gateway is losing packets we send, false if it is losing packets it sends us. */
+        public boolean uplink() throws JSONException {
+            JsonScanner scanner = member(UPLINK);
+            return scanner != null && scanner.readBoolean();
+        }
+
+        public int lost() throws JSONException {
+            JsonScanner scanner = member(LOST);
+            return scanner == null ? 0 : scanner.readInt();
+        }
+    }
+
+    public static final class HangUp extends JanusEvent {
+        HangUp(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.HANGUP, transactionId, sessionId, sender, source, spans);
+        }
+
+        public String reason() throws JSONException {
+            JsonScanner scanner = member(REASON);
+            return scanner == null ? null : scanner.readString();
+        }
+    }
+
+    /** The reply to an {@code info} request. */
+    public static final class ServerInfo extends JanusEvent {
+        ServerInfo(long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(Type.SERVER_INFO, transactionId, sessionId, sender, source, spans);
+        }
+
+        /** Seconds of inactivity after which the gateway drops a session, 0 if it never does. */
+        public int sessionTimeout() throws JSONException {
+            JsonScanner scanner = member(SESSION_TIMEOUT);
+            return scanner == null ? 0 : scanner.readInt();
+        }
+    }
+
+    /** Session timeouts and any verb this client does not know about. */
+    public static final class Other extends JanusEvent {
+        Other(Type type, long transactionId, long sessionId, long sender, String source, int[] spans) {
+            super(type, transactionId, sessionId, sender, source, spans);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * A failed Janus request: either an error reported by the gateway or plugin,
+ * with its error code, or a local failure with one of the negative codes below.
+ */
+public class JanusException extends Exception {
+    /** No reply arrived before the transaction deadline. */
+    public static final int TIMEOUT = -1;
+    /** The session was lost and rebuilt before a reply arrived. */
+    public static final int SESSION_LOST = -2;
+    /**
+     * The connection dropped after the request went out and before its
+     * reply; the gateway may or may not have handled it, so it is not sent
+     * again.
+     */
+    public static final int CONNECTION_LOST = -3;
+    /** The channel was closed before a reply arrived. */
+    public static final int CLOSED = -4;
+
+    public final int code;
+
+    public JanusException(int code, String reason) {
+        super(reason);
+        this.code = code;
+    }
+}
@@ -1,24 +1,33 @@
 package in.minewave.janusvideoroom;
 
-import org.json.JSONObject;
-
-import java.math.BigInteger;
-
 interface OnJoined {
     void onJoined(JanusHandle jh);
 }
 
 interface OnRemoteJsep {
-    void onRemoteJsep(JanusHandle jh, JSONObject jsep);
+    void onRemoteJsep(JanusHandle jh, JanusJsep jsep);
 }
 
 public class JanusHandle {
 
-    public BigInteger handleId;
-    public BigInteger feedId;
+    public long handleId;
+    public long feedId;
     public String display;
+    // Set when the gateway offers this subscriber VP9, whose layers are picked as SVC layers.
+    public boolean svc;
 
     public OnJoined onJoined;
     public OnRemoteJsep onRemoteJsep;
     public OnJoined onLeaving;
+
+    private boolean leaving;
+
+    /** Returns true the first time only; a leaving feed and the detached event both end the handle. */
+    synchronized boolean startLeaving() {
+        if (leaving) {
+            return false;
+        }
+        leaving = true;
+        return true;
+    }
 }
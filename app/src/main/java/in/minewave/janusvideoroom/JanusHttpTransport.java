@@ -0,0 +1,262 @@
+package in.minewave.janusvideoroom;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Janus over its REST interface, for networks that block WebSockets.
+ * Requests are POSTed to {@code /janus[/session[/handle]]} in the order they
+ * are sent, one after the other on a single keep-alive connection, and each
+ * reply body is delivered like a WebSocket frame. Events come from one
+ * long-poll GET per session that asks for up to {@code maxev} events at a
+ * time, so a burst of events costs one round trip instead of one each.
+ *
+ * <p>A session is polled from the first request sent on it until the
+ * gateway answers a poll with an error, as it does once the session is
+ * destroyed or has expired.
+ */
+public class JanusHttpTransport implements JanusTransport {
+    private static final String TAG = "JanusHttpTransport";
+    private static final MediaType JSON = MediaType.parse("application/json");
+    public static final int DEFAULT_MAX_EVENTS = 10;
+    /** Janus holds a long poll for 30 seconds before answering with a keepalive. */
+    static final long POLL_TIMEOUT_MS = 45000;
+    private static final String[] POLL_TYPES = {"keepalive", "error"};
+    private static final int KEEPALIVE = 0;
+    private static final int ERROR = 1;
+
+    private final OkHttpClient client;
+    private final OkHttpClient pollClient;
+    private final int maxEvents;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor();
+    private final LongHashMap<Boolean> polled = new LongHashMap<>();
+    private volatile String baseUrl;
+    private volatile Listener listener;
+    // Bumped on every connect and close; work started under an older value is dropped.
+    private volatile int generation;
+
+    public JanusHttpTransport(OkHttpClient client) {
+        this(client, DEFAULT_MAX_EVENTS);
+    }
+
+    public JanusHttpTransport(OkHttpClient client, int maxEvents) {
+        this.client = client;
+        this.pollClient = client.newBuilder()
+                .readTimeout(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        this.maxEvents = maxEvents;
+    }
+
+    @Override
+    public void connect(String url, final Listener listener) {
+        final int gen;
+        synchronized (this) {
+            gen = ++generation;
+            baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            this.listener = listener;
+            polled.clear();
+        }
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (gen == generation) {
+                    listener.onOpen();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void send(final long sessionId, final long handleId, final String frame) {
+        final int gen = generation;
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                post(gen, sessionId, handleId, frame);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            generation++;
+            listener = null;
+            polled.clear();
+        }
+        sender.shutdown();
+    }
+
+    private void post(int gen, long sessionId, long handleId, String frame) {
+        if (gen != generation) {
+            return;
+        }
+        StringBuilder url = new StringBuilder(baseUrl);
+        if (sessionId != 0) {
+            JanusMessageEncoder.id(url.append('/'), sessionId);
+            if (handleId != 0) {
+                JanusMessageEncoder.id(url.append('/'), handleId);
+            }
+        }
+        Request request = new Request.Builder()
+                .url(url.toString())
+                .post(RequestBody.create(JSON, frame))
+                .build();
+        String body;
+        try {
+            Response response = client.newCall(request).execute();
+            try {
+                body = response.body().string();
+            } finally {
+                response.close();
+            }
+        } catch (IOException e) {
+            fail(gen, e);
+            return;
+        }
+        deliver(gen, body);
+        if (sessionId != 0) {
+            startPolling(gen, sessionId);
+        }
+    }
+
+    private void startPolling(int gen, long sessionId) {
+        synchronized (this) {
+            if (gen != generation || polled.get(sessionId) != null) {
+                return;
+            }
+            polled.put(sessionId, Boolean.TRUE);
+        }
+        poll(gen, sessionId);
+    }
+
+    private void poll(final int gen, final long sessionId) {
+        StringBuilder url = new StringBuilder(baseUrl).append('/');
+        JanusMessageEncoder.id(url, sessionId)
+                .append("?maxev=").append(maxEvents)
+                .append("&rid=").append(System.currentTimeMillis());
+        Request request = new Request.Builder().url(url.toString()).build();
+        pollClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(gen, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                String body;
+                try {
+                    body = response.body().string();
+                } finally {
+                    response.close();
+                }
+                boolean more = response.isSuccessful() && deliverEvents(gen, sessionId, body);
+                synchronized (JanusHttpTransport.this) {
+                    if (gen != generation || polled.get(sessionId) == null) {
+                        return;
+                    }
+                    if (!more) {
+                        polled.remove(sessionId);
+                        return;
+                    }
+                }
+                poll(gen, sessionId);
+            }
+        });
+    }
+
+    /** Delivers one poll's worth of events; returns false if the session should no longer be polled. */
+    private boolean deliverEvents(int gen, long sessionId, String body) {
+        List<String> events = new ArrayList<>();
+        try {
+            split(body, events);
+        } catch (JSONException e) {
+            Log.e(TAG, "Malformed poll response: " + e.getMessage());
+            return true;
+        }
+        for (String event : events) {
+            int type;
+            try {
+                type = pollType(event);
+            } catch (JSONException e) {
+                type = -1;
+            }
+            if (type == KEEPALIVE) {
+                continue;
+            }
+            deliver(gen, event);
+            if (type == ERROR && events.size() == 1) {
+                Log.e(TAG, "Stopped polling session " + sessionId);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** {@link #KEEPALIVE}, {@link #ERROR} or -1 for any other {@code janus} type. */
+    private static int pollType(String frame) throws JSONException {
+        JsonScanner scanner = new JsonScanner(frame);
+        scanner.beginObject();
+        while (scanner.nextName()) {
+            if (scanner.nameIs("janus")) {
+                return scanner.readChoice(POLL_TYPES);
+            }
+            scanner.skipValue();
+        }
+        return -1;
+    }
+
+    /** A poll answers with one object, or with an array of them when {@code maxev} is above 1. */
+    static void split(String body, List<String> out) throws JSONException {
+        JsonScanner scanner = new JsonScanner(body);
+        if (scanner.peek() != '[') {
+            out.add(body.trim());
+            return;
+        }
+        scanner.beginArray();
+        while (scanner.hasNextElement()) {
+            int start = scanner.valueStart();
+            scanner.skipValue();
+            out.add(body.substring(start, scanner.position()));
+        }
+    }
+
+    private void deliver(int gen, String frame) {
+        Listener l = listener;
+        if (gen == generation && l != null && !frame.isEmpty()) {
+            l.onMessage(frame);
+        }
+    }
+
+    private void fail(int gen, Throwable t) {
+        Listener l;
+        synchronized (this) {
+            if (gen != generation) {
+                return;
+            }
+            // Nothing from this connection is delivered once it has failed.
+            generation++;
+            polled.clear();
+            l = listener;
+        }
+        if (l != null) {
+            l.onFailure(t);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+/**
+ * The {@code jsep} member of a Janus event: an offer or answer from the gateway.
+ */
+public final class JanusJsep {
+    public final String type;
+    public final String sdp;
+
+    public JanusJsep(String type, String sdp) {
+        this.type = type;
+        this.sdp = sdp;
+    }
+
+    static JanusJsep decode(JsonScanner scanner) throws JSONException {
+        String type = null;
+        String sdp = null;
+        scanner.beginObject();
+        while (scanner.nextName()) {
+            if (scanner.nameIs("type")) {
+                type = scanner.readString();
+            } else if (scanner.nameIs("sdp")) {
+                sdp = scanner.readString();
+            } else {
+                scanner.skipValue();
+            }
+        }
+        return new JanusJsep(type, sdp);
+    }
+}
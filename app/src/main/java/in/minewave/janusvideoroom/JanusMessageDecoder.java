@@ -0,0 +1,113 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+/**
+ * Decodes inbound Janus frames into {@link JanusEvent}s in a single forward
+ * pass. Object-valued members such as {@code plugindata} and {@code jsep} are
+ * skipped over and only their offsets are recorded.
+ */
+final class JanusMessageDecoder {
+    private static final JanusEvent.Type[] TYPES = JanusEvent.Type.values();
+    private static final String[] TYPE_NAMES = new String[TYPES.length];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_NAMES[i] = TYPES[i].wireName;
+        }
+    }
+
+    private JanusMessageDecoder() {
+    }
+
+    static JanusEvent decode(String text) throws JSONException {
+        JsonScanner scanner = new JsonScanner(text);
+        JanusEvent.Type type = JanusEvent.Type.UNKNOWN;
+        long transactionId = 0;
+        long sessionId = 0;
+        long sender = 0;
+        int[] spans = new int[JanusEvent.MEMBER_COUNT * 2];
+        for (int i = 0; i < spans.length; i += 2) {
+            spans[i] = -1;
+        }
+
+        scanner.beginObject();
+        while (scanner.nextName()) {
+            if (scanner.nameIs("janus")) {
+                type = readType(scanner);
+            } else if (scanner.nameIs("transaction")) {
+                int start = scanner.valueStart();
+                transactionId = scanner.readLong();
+                spans[JanusEvent.TRANSACTION * 2] = start;
+                spans[JanusEvent.TRANSACTION * 2 + 1] = scanner.position();
+            } else if (scanner.nameIs("session_id")) {
+                sessionId = scanner.readLong();
+            } else if (scanner.nameIs("sender")) {
+                sender = scanner.readLong();
+            } else {
+                int member = memberIndex(scanner);
+                int start = scanner.valueStart();
+                scanner.skipValue();
+                if (member >= 0) {
+                    spans[member * 2] = start;
+                    spans[member * 2 + 1] = scanner.position();
+                }
+            }
+        }
+
+        switch (type) {
+            case SUCCESS:
+                return new JanusEvent.Success(transactionId, sessionId, sender, text, spans);
+            case ERROR:
+                return new JanusEvent.Error(transactionId, sessionId, sender, text, spans);
+            case ACK:
+                return new JanusEvent.Ack(transactionId, sessionId, sender, text, spans);
+            case EVENT:
+                return new JanusEvent.Event(transactionId, sessionId, sender, text, spans);
+            case DETACHED:
+                return new JanusEvent.Detached(transactionId, sessionId, sender, text, spans);
+            case WEBRTCUP:
+                return new JanusEvent.WebRtcUp(transactionId, sessionId, sender, text, spans);
+            case MEDIA:
+                return new JanusEvent.Media(transactionId, sessionId, sender, text, spans);
+            case SLOWLINK:
+                return new JanusEvent.SlowLink(transactionId, sessionId, sender, text, spans);
+            case HANGUP:
+                return new JanusEvent.HangUp(transactionId, sessionId, sender, text, spans);
+            case SERVER_INFO:
+                return new JanusEvent.ServerInfo(transactionId, sessionId, sender, text, spans);
+            default:
+                return new JanusEvent.Other(type, transactionId, sessionId, sender, text, spans);
+        }
+    }
+
+    private static JanusEvent.Type readType(JsonScanner scanner) throws JSONException {
+        int index = scanner.readChoice(TYPE_NAMES);
+        return index < 0 ? JanusEvent.Type.UNKNOWN : TYPES[index];
+    }
+
+    private static int memberIndex(JsonScanner scanner) {
+        if (scanner.nameIs("plugindata")) {
+            return JanusEvent.PLUGINDATA;
+        } else if (scanner.nameIs("jsep")) {
+            return JanusEvent.JSEP;
+        } else if (scanner.nameIs("data")) {
+            return JanusEvent.DATA;
+        } else if (scanner.nameIs("error")) {
+            return JanusEvent.ERROR;
+        } else if (scanner.nameIs("type")) {
+            return JanusEvent.MEDIA_TYPE;
+        } else if (scanner.nameIs("receiving")) {
+            return JanusEvent.RECEIVING;
+        } else if (scanner.nameIs("uplink")) {
+            return JanusEvent.UPLINK;
+        } else if (scanner.nameIs("lost")) {
+            return JanusEvent.LOST;
+        } else if (scanner.nameIs("reason")) {
+            return JanusEvent.REASON;
+        } else if (scanner.nameIs("session-timeout")) {
+            return JanusEvent.SESSION_TIMEOUT;
+        }
+        return -1;
+    }
+}
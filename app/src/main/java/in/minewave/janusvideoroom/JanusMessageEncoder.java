@@ -0,0 +1,346 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
+/**
+ * Writes outbound Janus requests into a reusable buffer from precomputed
+ * fragments. Members are emitted in the same order, with the same escaping, as
+ * the org.json objects {@link WebSocketChannel} used to build, so frames are
+ * byte-for-byte identical; the only allocation per request is the String
+ * handed to the socket.
+ */
+final class JanusMessageEncoder {
+    private static final String VIDEOROOM_PLUGIN = "janus.plugin.videoroom";
+    // Buffers that grew beyond this for a large SDP are dropped after use.
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final String CREATE = "{\"janus\":\"create\",\"transaction\":";
+    private static final String ATTACH = "{\"janus\":\"attach\",\"plugin\":\"" + VIDEOROOM_PLUGIN + "\",\"transaction\":";
+    private static final String KEEPALIVE = "{\"janus\":\"keepalive\",\"session_id\":";
+    private static final String INFO = "{\"janus\":\"info\",\"transaction\":";
+    private static final String CLAIM = "{\"janus\":\"claim\",\"session_id\":";
+    private static final String DESTROY = "{\"janus\":\"destroy\",\"session_id\":";
+    private static final String DETACH = "{\"janus\":\"detach\",\"transaction\":";
+    private static final String MESSAGE = "{\"janus\":\"message\",\"body\":";
+    private static final String TRICKLE = "{\"janus\":\"trickle\",\"candidate\":";
+    private static final String TRICKLE_BATCH = "{\"janus\":\"trickle\",\"candidates\":[";
+    private static final String JOIN_PUBLISHER = "{\"request\":\"join\",\"room\":";
+    private static final String PTYPE_PUBLISHER = ",\"ptype\":\"publisher\"";
+    private static final String DISPLAY = ",\"display\":";
+    private static final String PTYPE_LISTENER = ",\"ptype\":\"listener\",\"feed\":";
+    private static final String PTYPE_SUBSCRIBER = ",\"ptype\":\"subscriber\",\"streams\":[";
+    private static final String SUBSCRIBE = "{\"request\":\"subscribe\",\"streams\":[";
+    private static final String UNSUBSCRIBE = "{\"request\":\"unsubscribe\",\"streams\":[";
+    private static final String FEED = "{\"feed\":";
+    private static final String CONFIGURE = "{\"request\":\"configure\",\"audio\":";
+    private static final String VIDEO = ",\"video\":";
+    private static final String CONFIGURE_BITRATE = "{\"request\":\"configure\",\"bitrate\":";
+    private static final String CONFIGURE_SUBSTREAM = "{\"request\":\"configure\",\"substream\":";
+    private static final String TEMPORAL = ",\"temporal\":";
+    private static final String CONFIGURE_SPATIAL = "{\"request\":\"configure\",\"spatial_layer\":";
+    private static final String TEMPORAL_LAYER = ",\"temporal_layer\":";
+    private static final String PAUSE = "{\"request\":\"pause\"}";
+    private static final String RESUME = "{\"request\":\"start\"}";
+    private static final String START = "{\"request\":\"start\",\"room\":";
+    private static final String JSEP_TYPE = ",\"jsep\":{\"type\":";
+    private static final String SDP = ",\"sdp\":";
+    private static final String CANDIDATE = "{\"candidate\":";
+    private static final String SIMULCAST = ",\"simulcast\":true";
+    private static final String SDP_MID = ",\"sdpMid\":";
+    private static final String SDP_MLINE_INDEX = ",\"sdpMLineIndex\":";
+    private static final String COMPLETED = "{\"completed\":true}";
+    private static final String TRANSACTION = ",\"transaction\":";
+    private static final String SESSION_ID = ",\"session_id\":";
+    private static final String HANDLE_ID = ",\"handle_id\":";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private StringBuilder buffer = new StringBuilder(1024);
+
+    synchronized String create(long transaction) {
+        StringBuilder sb = begin(CREATE);
+        transaction(sb, transaction);
+        return end(sb.append('}'));
+    }
+
+    synchronized String attach(long transaction, long sessionId) {
+        StringBuilder sb = begin(ATTACH);
+        transaction(sb, transaction);
+        id(sb.append(SESSION_ID), sessionId);
+        return end(sb.append('}'));
+    }
+
+    synchronized String keepAlive(long transaction, long sessionId) {
+        StringBuilder sb = begin(KEEPALIVE);
+        id(sb, sessionId).append(TRANSACTION);
+        transaction(sb, transaction);
+        return end(sb.append('}'));
+    }
+
+    synchronized String info(long transaction) {
+        StringBuilder sb = begin(INFO);
+        transaction(sb, transaction);
+        return end(sb.append('}'));
+    }
+
+    synchronized String claim(long transaction, long sessionId) {
+        StringBuilder sb = begin(CLAIM);
+        id(sb, sessionId).append(TRANSACTION);
+        transaction(sb, transaction);
+        return end(sb.append('}'));
+    }
+
+    synchronized String destroy(long transaction, long sessionId) {
+        StringBuilder sb = begin(DESTROY);
+        id(sb, sessionId).append(TRANSACTION);
+        transaction(sb, transaction);
+        return end(sb.append('}'));
+    }
+
+    synchronized String detach(long transaction, long sessionId, long handleId) {
+        StringBuilder sb = begin(DETACH);
+        transaction(sb, transaction);
+        return end(ids(sb, sessionId, handleId));
+    }
+
+    synchronized String joinPublisher(long transaction, long sessionId, long handleId, long room,
+                                      String display) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(JOIN_PUBLISHER).append(room).append(PTYPE_PUBLISHER);
+        // Left out when null, as putOpt did.
+        if (display != null) {
+            sb.append(DISPLAY);
+            string(sb, display);
+        }
+        sb.append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    synchronized String joinSubscriber(long transaction, long sessionId, long handleId, long room,
+                                       long feed) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(JOIN_PUBLISHER).append(room).append(PTYPE_LISTENER);
+        id(sb, feed).append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /** Joins as a multistream subscriber receiving every stream of {@code feeds}. */
+    synchronized String joinSubscriberStreams(long transaction, long sessionId, long handleId, long room,
+                                              long[] feeds) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(JOIN_PUBLISHER).append(room).append(PTYPE_SUBSCRIBER);
+        feeds(sb, feeds).append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /** Adds ({@code subscribe}) or removes every stream of {@code feeds} on a multistream subscriber. */
+    synchronized String subscribe(long transaction, long sessionId, long handleId, long[] feeds,
+                                  boolean subscribe) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(subscribe ? SUBSCRIBE : UNSUBSCRIBE);
+        feeds(sb, feeds).append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /** {@code simulcast} tells the gateway the offer carries simulcast ssrcs. */
+    synchronized String configure(long transaction, long sessionId, long handleId, boolean audio,
+                                  boolean video, String jsepType, String sdp, boolean simulcast) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(CONFIGURE).append(audio).append(VIDEO).append(video).append('}');
+        jsep(sb, jsepType, sdp);
+        if (simulcast) {
+            sb.setLength(sb.length() - 1);
+            sb.append(SIMULCAST).append('}');
+        }
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /** Asks the gateway to cap the publisher's bitrate, which it does through REMB. */
+    synchronized String configureBitrate(long transaction, long sessionId, long handleId, int bitrate) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(CONFIGURE_BITRATE).append(bitrate).append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /**
+     * Picks the layers a subscriber receives: the simulcast substream and
+     * temporal layer, or with {@code svc} the VP9 spatial and temporal layer.
+     */
+    synchronized String configureLayers(long transaction, long sessionId, long handleId, int substream,
+                                        int temporal, boolean svc) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(svc ? CONFIGURE_SPATIAL : CONFIGURE_SUBSTREAM).append(substream)
+                .append(svc ? TEMPORAL_LAYER : TEMPORAL).append(temporal).append('}');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /** Stops ({@code paused}) or restarts the media a subscriber receives, leaving its peer connection up. */
+    synchronized String pause(long transaction, long sessionId, long handleId, boolean paused) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(paused ? PAUSE : RESUME);
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    synchronized String start(long transaction, long sessionId, long handleId, long room,
+                              String jsepType, String sdp) {
+        StringBuilder sb = begin(MESSAGE);
+        sb.append(START).append(room).append('}');
+        jsep(sb, jsepType, sdp);
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    synchronized String trickle(long transaction, long sessionId, long handleId, String candidate,
+                                String sdpMid, int sdpMLineIndex) {
+        StringBuilder sb = begin(TRICKLE);
+        candidate(sb, candidate, sdpMid, sdpMLineIndex);
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    /**
+     * Encodes a batch of candidates, optionally terminated by the end-of-candidates
+     * marker. A lone candidate or a lone marker uses the single {@code candidate} form.
+     */
+    synchronized String trickle(long transaction, long sessionId, long handleId,
+                                List<IceCandidate> candidates, boolean completed) {
+        int count = candidates.size();
+        if (count == 0 && completed) {
+            return trickleCompleted(transaction, sessionId, handleId);
+        }
+        if (count == 1 && !completed) {
+            IceCandidate candidate = candidates.get(0);
+            return trickle(transaction, sessionId, handleId, candidate.sdp, candidate.sdpMid,
+                    candidate.sdpMLineIndex);
+        }
+        StringBuilder sb = begin(TRICKLE_BATCH);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            IceCandidate candidate = candidates.get(i);
+            candidate(sb, candidate.sdp, candidate.sdpMid, candidate.sdpMLineIndex);
+        }
+        if (completed) {
+            if (count > 0) {
+                sb.append(',');
+            }
+            sb.append(COMPLETED);
+        }
+        sb.append(']');
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    synchronized String trickleCompleted(long transaction, long sessionId, long handleId) {
+        StringBuilder sb = begin(TRICKLE);
+        sb.append(COMPLETED);
+        return end(tail(sb, transaction, sessionId, handleId));
+    }
+
+    private StringBuilder begin(String prefix) {
+        StringBuilder sb = buffer;
+        sb.setLength(0);
+        return sb.append(prefix);
+    }
+
+    private String end(StringBuilder sb) {
+        String frame = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(1024);
+        }
+        return frame;
+    }
+
+    private static void transaction(StringBuilder sb, long transaction) {
+        sb.append('"').append(transaction).append('"');
+    }
+
+    private static void candidate(StringBuilder sb, String candidate, String sdpMid, int sdpMLineIndex) {
+        sb.append(CANDIDATE);
+        string(sb, candidate);
+        if (sdpMid != null) {
+            sb.append(SDP_MID);
+            string(sb, sdpMid);
+        }
+        sb.append(SDP_MLINE_INDEX).append(sdpMLineIndex).append('}');
+    }
+
+    private static void jsep(StringBuilder sb, String type, String sdp) {
+        sb.append(JSEP_TYPE);
+        string(sb, type);
+        sb.append(SDP);
+        string(sb, sdp);
+        sb.append('}');
+    }
+
+    private static StringBuilder tail(StringBuilder sb, long transaction, long sessionId, long handleId) {
+        sb.append(TRANSACTION);
+        transaction(sb, transaction);
+        return ids(sb, sessionId, handleId);
+    }
+
+    private static StringBuilder ids(StringBuilder sb, long sessionId, long handleId) {
+        id(sb.append(SESSION_ID), sessionId);
+        return id(sb.append(HANDLE_ID), handleId).append('}');
+    }
+
+    /** Appends the stream entries for {@code feeds} and closes the array. */
+    private static StringBuilder feeds(StringBuilder sb, long[] feeds) {
+        for (int i = 0; i < feeds.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            id(sb.append(FEED), feeds[i]).append('}');
+        }
+        return sb.append(']');
+    }
+
+    /** Appends a Janus id, which is an unsigned 64-bit value carried in a long. */
+    static StringBuilder id(StringBuilder sb, long id) {
+        if (id >= 0) {
+            return sb.append(id);
+        }
+        long quotient = (id >>> 1) / 5;
+        return sb.append(quotient).append(id - quotient * 10);
+    }
+
+    /** Appends {@code value} as a JSON string, escaped the way Android's JSONStringer does. */
+    static void string(StringBuilder sb, String value) {
+        sb.append('"');
+        int length = value.length();
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '/') {
+                continue;
+            }
+            sb.append(value, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append('\\').append(c);
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                    break;
+            }
+        }
+        sb.append(value, run, length).append('"');
+    }
+}
@@ -0,0 +1,170 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The videoroom fields of a {@code plugindata.data} object. Numeric members
+ * that are absent or not numeric (such as {@code "leaving": "ok"}) read as 0.
+ */
+public final class JanusPluginData {
+
+    public static final class Publisher {
+        public final long id;
+        public final String display;
+
+        Publisher(long id, String display) {
+            this.id = id;
+            this.display = display;
+        }
+    }
+
+    /** One entry of a multistream subscriber's {@code streams}: which feed a mid carries. */
+    public static final class Stream {
+        public final String mid;
+        public final long feedId;
+        public final String type;
+        public final boolean active;
+
+        Stream(String mid, long feedId, String type, boolean active) {
+            this.mid = mid;
+            this.feedId = feedId;
+            this.type = type;
+            this.active = active;
+        }
+    }
+
+    public final String plugin;
+    public final String videoroom;
+    public final long room;
+    public final long id;
+    public final long leaving;
+    public final long unpublished;
+    public final int errorCode;
+    public final String error;
+    public final List<Publisher> publishers;
+    public final List<Stream> streams;
+
+    private JanusPluginData(String plugin, String videoroom, long room, long id, long leaving,
+                            long unpublished, int errorCode, String error, List<Publisher> publishers,
+                            List<Stream> streams) {
+        this.plugin = plugin;
+        this.videoroom = videoroom;
+        this.room = room;
+        this.id = id;
+        this.leaving = leaving;
+        this.unpublished = unpublished;
+        this.errorCode = errorCode;
+        this.error = error;
+        this.publishers = publishers;
+        this.streams = streams;
+    }
+
+    static JanusPluginData decode(JsonScanner scanner) throws JSONException {
+        String plugin = null;
+        String videoroom = null;
+        long room = 0;
+        long id = 0;
+        long leaving = 0;
+        long unpublished = 0;
+        int errorCode = 0;
+        String error = null;
+        List<Publisher> publishers = Collections.emptyList();
+        List<Stream> streams = Collections.emptyList();
+
+        scanner.beginObject();
+        while (scanner.nextName()) {
+            if (scanner.nameIs("plugin")) {
+                plugin = scanner.readString();
+            } else if (scanner.nameIs("data") && scanner.peek() == '{') {
+                scanner.beginObject();
+                while (scanner.nextName()) {
+                    if (scanner.nameIs("videoroom")) {
+                        videoroom = scanner.readString();
+                    } else if (scanner.nameIs("room")) {
+                        room = scanner.readLong();
+                    } else if (scanner.nameIs("id")) {
+                        id = scanner.readLong();
+                    } else if (scanner.nameIs("leaving")) {
+                        leaving = scanner.readLong();
+                    } else if (scanner.nameIs("unpublished")) {
+                        unpublished = scanner.readLong();
+                    } else if (scanner.nameIs("error_code")) {
+                        errorCode = scanner.readInt();
+                    } else if (scanner.nameIs("error")) {
+                        error = scanner.readString();
+                    } else if (scanner.nameIs("publishers") && scanner.peek() == '[') {
+                        publishers = decodePublishers(scanner);
+                    } else if (scanner.nameIs("streams") && scanner.peek() == '[') {
+                        streams = decodeStreams(scanner);
+                    } else {
+                        scanner.skipValue();
+                    }
+                }
+            } else {
+                scanner.skipValue();
+            }
+        }
+        return new JanusPluginData(plugin, videoroom, room, id, leaving, unpublished, errorCode,
+                error, publishers, streams);
+    }
+
+    private static List<Publisher> decodePublishers(JsonScanner scanner) throws JSONException {
+        List<Publisher> publishers = new ArrayList<>();
+        scanner.beginArray();
+        while (scanner.hasNextElement()) {
+            if (scanner.peek() != '{') {
+                scanner.skipValue();
+                continue;
+            }
+            long id = 0;
+            String display = null;
+            scanner.beginObject();
+            while (scanner.nextName()) {
+                if (scanner.nameIs("id")) {
+                    id = scanner.readLong();
+                } else if (scanner.nameIs("display")) {
+                    display = scanner.readString();
+                } else {
+                    scanner.skipValue();
+                }
+            }
+            publishers.add(new Publisher(id, display));
+        }
+        return Collections.unmodifiableList(publishers);
+    }
+
+    private static List<Stream> decodeStreams(JsonScanner scanner) throws JSONException {
+        List<Stream> streams = new ArrayList<>();
+        scanner.beginArray();
+        while (scanner.hasNextElement()) {
+            if (scanner.peek() != '{') {
+                scanner.skipValue();
+                continue;
+            }
+            String mid = null;
+            long feedId = 0;
+            String type = null;
+            boolean active = true;
+            scanner.beginObject();
+            while (scanner.nextName()) {
+                if (scanner.nameIs("mid")) {
+                    mid = scanner.readString();
+                } else if (scanner.nameIs("feed_id")) {
+                    feedId = scanner.readLong();
+                } else if (scanner.nameIs("type")) {
+                    type = scanner.readString();
+                } else if (scanner.nameIs("active")) {
+                    active = scanner.readBoolean();
+                } else {
+                    scanner.skipValue();
+                }
+            }
+            streams.add(new Stream(mid, feedId, type, active));
+        }
+        return Collections.unmodifiableList(streams);
+    }
+}
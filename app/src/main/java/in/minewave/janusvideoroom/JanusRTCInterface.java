@@ -1,15 +1,19 @@
 package in.minewave.janusvideoroom;
 
 
-import org.json.JSONObject;
-
-import java.math.BigInteger;
+import org.webrtc.SessionDescription;
 
 public interface JanusRTCInterface {
 
-    void onPublisherJoined(BigInteger handleId);
-    void onPublisherRemoteJsep(BigInteger handleId, JSONObject jsep);
-    void subscriberHandleRemoteJsep(BigInteger handleId, JSONObject jsep);
-    void onLeaving(BigInteger handleId);
+    void onPublisherJoined(long handleId);
+    void onPublisherRemoteJsep(long handleId, SessionDescription jsep);
+    void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep);
+    void onLeaving(long handleId);
+
+    /**
+     * The gateway reported {@code lost} packets on the handle's media:
+     * {@code uplink} if it is losing what we send, otherwise what it sends us.
+     */
+    void onSlowLink(long handleId, boolean uplink, int lost);
 
 }
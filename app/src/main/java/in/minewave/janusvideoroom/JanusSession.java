@@ -0,0 +1,602 @@
+package in.minewave.janusvideoroom;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.List;
+
+/**
+ * One Janus session joined to one videoroom, multiplexed with any number of
+ * others over a single {@link WebSocketChannel}. The session owns its
+ * publisher and subscriber handles, its feeds and subscription pacing, and
+ * its keepalive. Remote feeds get a subscriber handle each, or with
+ * {@link #setMultistream} share one; the channel owns the socket, the transactions and the
+ * routing of inbound frames by {@code session_id} and {@code sender}.
+ */
+public class JanusSession {
+    private static final String TAG = "JanusSession";
+
+    public final long room;
+    public final String display;
+
+    private final WebSocketChannel channel;
+    private final JanusRTCInterface delegate;
+    private final HandleRegistry<JanusHandle> handles = new HandleRegistry<>();
+    private final HandleRegistry<JanusHandle> feeds = new HandleRegistry<>();
+    private final SubscriptionScheduler subscriptions;
+    private final KeepAliveScheduler.Sink keepAliveSink = new KeepAliveScheduler.Sink() {
+        @Override
+        public void keepAlive(long sessionId) {
+            JanusSession.this.keepAlive(sessionId);
+        }
+    };
+    private final MultistreamSubscription.Requests multistreamRequests = new MultistreamSubscription.Requests() {
+        @Override
+        public void attach() {
+            multistreamCreateHandle();
+        }
+
+        @Override
+        public void join(long[] feeds) {
+            multistreamRequest("join", feeds, true, true);
+        }
+
+        @Override
+        public void subscribe(long[] feeds) {
+            multistreamRequest("subscribe", feeds, false, true);
+        }
+
+        @Override
+        public void unsubscribe(long[] feeds) {
+            multistreamRequest("unsubscribe", feeds, false, false);
+        }
+    };
+    private volatile MultistreamSubscription multistream;
+    private volatile long mSessionId;
+    private volatile KeepAliveScheduler.Session keepAlive;
+    private volatile boolean destroyed;
+
+    JanusSession(WebSocketChannel channel, long room, String display, JanusRTCInterface delegate) {
+        this.channel = channel;
+        this.room = room;
+        this.display = display;
+        this.delegate = delegate;
+        this.subscriptions = new SubscriptionScheduler(channel.timerWheel, new SubscriptionScheduler.Starter() {
+            @Override
+            public void subscribe(long feedId, String display) {
+                subscriberCreateHandle(feedId, display);
+            }
+        });
+    }
+
+    /** The Janus session id, or 0 until the gateway has created the session. */
+    public long getSessionId() {
+        return mSessionId;
+    }
+
+    /** Sets how many remote feeds may be attaching and negotiating at the same time. */
+    public void setSubscribeWindow(int window) {
+        subscriptions.setWindow(window);
+    }
+
+    public void setSubscriptionListener(SubscriptionScheduler.Listener listener) {
+        subscriptions.setListener(listener);
+    }
+
+    /**
+     * Receives every remote feed on one subscriber handle and peer
+     * connection, renegotiated as feeds come and go, instead of a handle and
+     * connection each. Needs a gateway with multistream videoroom
+     * subscriptions. Call before the room is joined.
+     */
+    public void setMultistream(boolean enable) {
+        multistream = enable ? new MultistreamSubscription(multistreamRequests) : null;
+    }
+
+    /** Starts receiving a published feed again after {@link #unsubscribeFeed}; multistream only. */
+    public void subscribeFeed(long feedId) {
+        MultistreamSubscription subscription = multistream;
+        if (subscription != null) {
+            subscription.add(feedId);
+        }
+    }
+
+    /** Stops receiving a feed without waiting for it to leave; multistream only. */
+    public void unsubscribeFeed(long feedId) {
+        MultistreamSubscription subscription = multistream;
+        if (subscription != null) {
+            subscription.remove(feedId);
+        }
+    }
+
+    /** The feed carried by {@code mid} of the multistream subscriber's connection, or 0. */
+    public long feedForMid(String mid) {
+        MultistreamSubscription subscription = multistream;
+        return subscription == null ? 0 : subscription.feedForMid(mid);
+    }
+
+    /** Time from a remote feed being announced until its subscriber reported webrtcup. */
+    public LatencyHistogram getSubscribeLatency() {
+        return subscriptions.latency();
+    }
+
+    /** Leaves the room by destroying the session; its handles go with it. */
+    public void destroy() {
+        destroyed = true;
+        long sessionId = mSessionId;
+        dropState();
+        channel.onSessionDestroyed(this, sessionId);
+        if (sessionId != 0) {
+            JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.DESTROY);
+            channel.send("destroy", sessionId, 0, jt, channel.encoder.destroy(jt.tid, sessionId));
+        }
+    }
+
+    /** Takes over a session the gateway already has, for replaying captured traffic. */
+    void adopt(long sessionId) {
+        mSessionId = sessionId;
+    }
+
+    /** Takes over an existing handle: a subscriber to {@code feed}, or the publisher if it is 0. */
+    void adoptHandle(long handleId, long feed) {
+        if (feed == 0) {
+            addHandle(publisherHandle(handleId));
+        } else {
+            JanusHandle handle = subscriberHandle(handleId, feed, null);
+            addHandle(handle);
+            feeds.put(feed, handle);
+        }
+    }
+
+    void create() {
+        if (destroyed) {
+            return;
+        }
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.CREATE);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) throws JSONException {
+                mSessionId = jo.dataId();
+                keepAlive = channel.keepAlives.start(mSessionId, keepAliveSink);
+                int sessionTimeout = channel.sessionTimeout;
+                if (sessionTimeout > 0) {
+                    keepAlive.setSessionTimeout(sessionTimeout);
+                }
+                channel.onSessionCreated(JanusSession.this);
+                publisherCreateHandle();
+            }
+        };
+        jt.error = channel.logError;
+        channel.transactions.register(jt);
+        channel.send("create", this, 0, jt, channel.encoder.create(jt.tid));
+    }
+
+    /**
+     * Moves the session onto a new socket. Handles and their peer connections
+     * survive; if the gateway no longer knows the session it is rebuilt.
+     */
+    void claim() {
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.CLAIM);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) {
+                channel.onSessionClaimed(JanusSession.this);
+            }
+        };
+        jt.error = new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                Log.e(TAG, "Claim failed: " + e.code + " " + e.getMessage());
+                rebuild();
+            }
+        };
+        channel.transactions.register(jt);
+        channel.send("claim", this, 0, jt, channel.encoder.claim(jt.tid, mSessionId));
+    }
+
+    /** Drops every handle of the lost session and joins the room again from scratch. */
+    private void rebuild() {
+        final List<JanusHandle> lost = handles.values();
+        long sessionId = mSessionId;
+        dropState();
+        channel.onSessionLost(this, sessionId);
+        channel.dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                for (JanusHandle handle : lost) {
+                    delegate.onLeaving(handle.handleId);
+                }
+            }
+        });
+        create();
+    }
+
+    private void dropState() {
+        channel.keepAlives.stop(mSessionId);
+        keepAlive = null;
+        mSessionId = 0;
+        for (JanusHandle handle : handles.values()) {
+            channel.trickleCoalescer.discard(handle.handleId);
+            channel.layers.remove(handle.handleId);
+            channel.owners.remove(handle.handleId, this);
+        }
+        handles.clear();
+        feeds.clear();
+        subscriptions.clear();
+        MultistreamSubscription subscription = multistream;
+        if (subscription != null) {
+            subscription.reset();
+        }
+    }
+
+    void setSessionTimeout(int seconds) {
+        KeepAliveScheduler.Session session = keepAlive;
+        if (session != null) {
+            session.setSessionTimeout(seconds);
+        }
+    }
+
+    void touch() {
+        KeepAliveScheduler.Session session = keepAlive;
+        if (session != null) {
+            session.touch();
+        }
+    }
+
+    /** Handles an event the channel routed here by {@code session_id}; runs on the sender's lane. */
+    void onEvent(JanusEvent event) throws JSONException {
+        JanusHandle handle = handles.get(event.sender);
+        if (handle == null) {
+            Log.e(TAG, "missing handle");
+        } else if (event.type == JanusEvent.Type.EVENT) {
+            onPluginEvent(handle, (JanusEvent.Event) event);
+        } else if (event.type == JanusEvent.Type.DETACHED) {
+            if (handle.onLeaving != null) {
+                handle.onLeaving.onJoined(handle);
+            }
+        } else if (event.type == JanusEvent.Type.WEBRTCUP && handle.feedId != 0) {
+            subscriptions.onLive(handle.feedId);
+        } else if (event.type == JanusEvent.Type.SLOWLINK) {
+            JanusEvent.SlowLink slowLink = (JanusEvent.SlowLink) event;
+            final boolean uplink = slowLink.uplink();
+            final int lost = slowLink.lost();
+            final long handleId = handle.handleId;
+            if (!uplink && handle.feedId != 0) {
+                // Loss on what the gateway sends a subscriber: ask for a lighter layer.
+                channel.layers.onSlowLink(handleId);
+            }
+            channel.dispatcher.dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    delegate.onSlowLink(handleId, uplink, lost);
+                }
+            });
+        }
+    }
+
+    private void onPluginEvent(JanusHandle handle, JanusEvent.Event event) throws JSONException {
+        JanusPluginData plugin = event.pluginData();
+        if (plugin != null) {
+            if ("joined".equals(plugin.videoroom)) {
+                handle.onJoined.onJoined(handle);
+            }
+
+            MultistreamSubscription subscription = multistream;
+            if (subscription != null) {
+                onMultistreamEvent(subscription, handle, plugin);
+            }
+
+            for (JanusPluginData.Publisher publisher : plugin.publishers) {
+                if (subscription != null) {
+                    subscription.add(publisher.id);
+                } else if (feeds.get(publisher.id) == null) {
+                    subscriptions.offer(publisher.id, publisher.display);
+                }
+            }
+
+            if (plugin.leaving != 0 && subscription == null) {
+                subscriptions.remove(plugin.leaving);
+                JanusHandle jhandle = feeds.get(plugin.leaving);
+                if (jhandle != null) {
+                    jhandle.onLeaving.onJoined(jhandle);
+                }
+            }
+        }
+
+        if (event.hasJsep()) {
+            handle.onRemoteJsep.onRemoteJsep(handle, event.jsep());
+        }
+    }
+
+    private void onMultistreamEvent(MultistreamSubscription subscription, JanusHandle handle,
+                                    JanusPluginData plugin) {
+        if (handle.handleId == subscription.handleId() && !plugin.streams.isEmpty()) {
+            subscription.onStreams(plugin.streams);
+        }
+        if (plugin.leaving != 0) {
+            subscription.gone(plugin.leaving);
+        }
+        if (plugin.unpublished != 0) {
+            subscription.gone(plugin.unpublished);
+        }
+    }
+
+    private void publisherCreateHandle() {
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.ATTACH);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) throws JSONException {
+                JanusHandle janusHandle = publisherHandle(jo.dataId());
+                addHandle(janusHandle);
+                publisherJoinRoom(janusHandle);
+            }
+        };
+        jt.error = new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                channel.logError.error(e);
+                if (e.code == JanusException.CONNECTION_LOST) {
+                    // Without a publisher handle there is no room to be in; attach again.
+                    publisherCreateHandle();
+                }
+            }
+        };
+        channel.transactions.register(jt);
+        channel.send("attach", this, 0, jt, channel.encoder.attach(jt.tid, mSessionId));
+    }
+
+    private JanusHandle publisherHandle(long handleId) {
+        JanusHandle janusHandle = new JanusHandle();
+        janusHandle.handleId = handleId;
+        janusHandle.onJoined = new OnJoined() {
+            @Override
+            public void onJoined(final JanusHandle jh) {
+                channel.dispatcher.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.onPublisherJoined(jh.handleId);
+                    }
+                });
+            }
+        };
+        janusHandle.onRemoteJsep = new OnRemoteJsep() {
+            @Override
+            public void onRemoteJsep(final JanusHandle jh, JanusJsep jsep) {
+                final SessionDescription sdp = WebSocketChannel.toSessionDescription(jsep);
+                channel.dispatcher.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.onPublisherRemoteJsep(jh.handleId, sdp);
+                    }
+                });
+            }
+        };
+        return janusHandle;
+    }
+
+    private void publisherJoinRoom(JanusHandle handle) {
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        channel.send("join", this, handle.handleId, jt, channel.encoder.joinPublisher(jt.tid, mSessionId,
+                handle.handleId, room, display));
+    }
+
+    void publisherCreateOffer(long handleId, SessionDescription sdp) {
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        channel.send("configure", this, handleId, jt, channel.encoder.configure(jt.tid, mSessionId, handleId,
+                true, true, sdp.type.canonicalForm(), sdp.description,
+                sdp.description.contains("a=ssrc-group:SIM")));
+    }
+
+    void publisherConfigureBitrate(long handleId, int bitrate) {
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        channel.send("configure", this, handleId, jt, channel.encoder.configureBitrate(jt.tid, mSessionId, handleId,
+                bitrate));
+    }
+
+    void subscriberCreateAnswer(long handleId, SessionDescription sdp) {
+        JanusTransaction jt;
+        final MultistreamSubscription subscription = multistream;
+        if (subscription != null && handleId == subscription.handleId()) {
+            // The next subscribe or unsubscribe waits for this renegotiation to finish.
+            jt = channel.transactions.create(JanusTransaction.Verb.MESSAGE);
+            jt.success = new TransactionCallbackSuccess() {
+                @Override
+                public void success(JanusEvent jo) {
+                    subscription.onNegotiated();
+                }
+            };
+            jt.error = multistreamFailed(subscription);
+            channel.transactions.register(jt);
+        } else {
+            jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        }
+        channel.send("start", this, handleId, jt, channel.encoder.start(jt.tid, mSessionId, handleId,
+                room, sdp.type.canonicalForm(), sdp.description));
+    }
+
+    void subscriberConfigureLayers(long handleId, int substream, int temporal) {
+        JanusHandle handle = handles.get(handleId);
+        if (handle == null) {
+            return;
+        }
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        channel.send("configure", this, handleId, jt, channel.encoder.configureLayers(jt.tid, mSessionId, handleId,
+                substream, temporal, handle.svc));
+    }
+
+    void subscriberSetPaused(long handleId, boolean paused) {
+        if (handles.get(handleId) == null) {
+            return;
+        }
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.MESSAGE);
+        channel.send(paused ? "pause" : "start", this, handleId, jt, channel.encoder.pause(jt.tid, mSessionId,
+                handleId, paused));
+    }
+
+    void sendTrickle(long handleId, List<IceCandidate> candidates, boolean completed) {
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.TRICKLE);
+        channel.send("trickle", this, handleId, jt, channel.encoder.trickle(jt.tid, mSessionId, handleId,
+                candidates, completed));
+    }
+
+    private void subscriberCreateHandle(final long feed, final String display) {
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.ATTACH);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) throws JSONException {
+                JanusHandle janusHandle = subscriberHandle(jo.dataId(), feed, display);
+                addHandle(janusHandle);
+                feeds.put(janusHandle.feedId, janusHandle);
+                subscriberJoinRoom(janusHandle);
+            }
+        };
+        jt.error = subscribeFailed(feed);
+        channel.transactions.register(jt);
+        channel.send("attach", this, 0, jt, channel.encoder.attach(jt.tid, mSessionId));
+    }
+
+    private JanusHandle subscriberHandle(long handleId, long feed, String display) {
+        JanusHandle janusHandle = new JanusHandle();
+        janusHandle.handleId = handleId;
+        janusHandle.feedId = feed;
+        janusHandle.display = display;
+        janusHandle.onRemoteJsep = new OnRemoteJsep() {
+            @Override
+            public void onRemoteJsep(final JanusHandle jh, JanusJsep jsep) {
+                final SessionDescription sdp = WebSocketChannel.toSessionDescription(jsep);
+                jh.svc = jsep.sdp != null && jsep.sdp.contains(" VP9/90000");
+                channel.dispatcher.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.subscriberHandleRemoteJsep(jh.handleId, sdp);
+                    }
+                });
+            }
+        };
+        janusHandle.onLeaving = new OnJoined() {
+            @Override
+            public void onJoined(JanusHandle jh) {
+                subscriberOnLeaving(jh);
+            }
+        };
+        return janusHandle;
+    }
+
+    private void multistreamCreateHandle() {
+        final MultistreamSubscription subscription = multistream;
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.ATTACH);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) throws JSONException {
+                if (subscription != multistream) {
+                    return;
+                }
+                addHandle(subscriberHandle(jo.dataId(), 0, null));
+                subscription.onAttached(jo.dataId());
+            }
+        };
+        jt.error = multistreamFailed(subscription);
+        channel.transactions.register(jt);
+        channel.send("attach", this, 0, jt, channel.encoder.attach(jt.tid, mSessionId));
+    }
+
+    /** Sends a join, subscribe or unsubscribe on the multistream subscriber. */
+    private void multistreamRequest(String verb, long[] feeds, boolean join, boolean subscribe) {
+        final MultistreamSubscription subscription = multistream;
+        long handleId = subscription.handleId();
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.MESSAGE);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) throws JSONException {
+                // With an offer, the renegotiation ends when it is answered.
+                if (!(jo instanceof JanusEvent.Event) || !((JanusEvent.Event) jo).hasJsep()) {
+                    subscription.onNegotiated();
+                }
+            }
+        };
+        jt.error = multistreamFailed(subscription);
+        channel.transactions.register(jt);
+        channel.send(verb, this, handleId, jt, join
+                ? channel.encoder.joinSubscriberStreams(jt.tid, mSessionId, handleId, room, feeds)
+                : channel.encoder.subscribe(jt.tid, mSessionId, handleId, feeds, subscribe));
+    }
+
+    private TransactionCallbackError multistreamFailed(final MultistreamSubscription subscription) {
+        return new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                channel.logError.error(e);
+                subscription.onFailed();
+            }
+        };
+    }
+
+    private void subscriberJoinRoom(final JanusHandle handle) {
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.MESSAGE);
+        jt.error = subscribeFailed(handle.feedId);
+        channel.transactions.register(jt);
+        channel.send("join", this, handle.handleId, jt, channel.encoder.joinSubscriber(jt.tid, mSessionId,
+                handle.handleId, room, handle.feedId));
+    }
+
+    private TransactionCallbackError subscribeFailed(final long feed) {
+        return new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                channel.logError.error(e);
+                subscriptions.onFailed(feed);
+            }
+        };
+    }
+
+    private void subscriberOnLeaving(final JanusHandle handle) {
+        if (!handle.startLeaving()) {
+            return;
+        }
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.DETACH);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) {
+                channel.trickleCoalescer.discard(handle.handleId);
+                channel.layers.remove(handle.handleId);
+                subscriptions.remove(handle.feedId);
+                channel.dispatcher.dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.onLeaving(handle.handleId);
+                    }
+                });
+                removeHandle(handle);
+                feeds.remove(handle.feedId, handle);
+                MultistreamSubscription subscription = multistream;
+                if (subscription != null && handle.handleId == subscription.handleId()) {
+                    subscription.reset();
+                }
+            }
+        };
+        jt.error = channel.logError;
+        channel.transactions.register(jt);
+        channel.send("detach", this, handle.handleId, jt, channel.encoder.detach(jt.tid, mSessionId, handle.handleId));
+    }
+
+    private void addHandle(JanusHandle handle) {
+        handles.put(handle.handleId, handle);
+        channel.owners.put(handle.handleId, this);
+    }
+
+    private void removeHandle(JanusHandle handle) {
+        handles.remove(handle.handleId, handle);
+        channel.owners.remove(handle.handleId, this);
+    }
+
+    private void keepAlive(long sessionId) {
+        if (!channel.isConnected()) {
+            return;
+        }
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.KEEPALIVE);
+        channel.send("keepalive", this, 0, jt, channel.encoder.keepAlive(jt.tid, sessionId));
+    }
+}
@@ -1,17 +1,119 @@
 package in.minewave.janusvideoroom;
 
-import org.json.JSONObject;
+import org.json.JSONException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 interface TransactionCallbackSuccess {
-    void success(JSONObject jo);
+    void success(JanusEvent jo) throws JSONException;
 }
 
 interface TransactionCallbackError {
-    void error(JSONObject jo);
+    void error(JanusException e);
 }
 
-public class JanusTransaction {
-    public String tid;
+/**
+ * A request waiting for its reply. Callbacks run on the thread that delivers
+ * the reply; the transaction can also be waited on as a {@link Future}.
+ */
+public class JanusTransaction implements Future<JanusEvent> {
+
+    /** Janus request types, each with its own latency histogram. */
+    public enum Verb {
+        CREATE,
+        ATTACH,
+        MESSAGE,
+        TRICKLE,
+        DETACH,
+        KEEPALIVE,
+        CLAIM,
+        INFO,
+        DESTROY
+    }
+
+    public final long tid;
+    public final Verb verb;
     public TransactionCallbackSuccess success;
     public TransactionCallbackError error;
+
+    long sentAtNanos;
+    // Null while deadlines are suspended.
+    volatile TimerWheel.Timeout deadline;
+    // The request as sent, replayed if the socket drops before the gateway acknowledges it.
+    volatile String frame;
+    volatile boolean acked;
+    // The connection the frame was written to, 0 until it is written.
+    volatile int sentOn;
+    // Where the request was addressed, 0 where it has no session or handle.
+    volatile long sessionId;
+    volatile long handleId;
+
+    private boolean done;
+    private JanusEvent result;
+    private JanusException failure;
+
+    JanusTransaction(long tid, Verb verb) {
+        this.tid = tid;
+        this.verb = verb;
+    }
+
+    /** Marks the transaction done; returns false if it already was. */
+    synchronized boolean complete(JanusEvent result, JanusException failure) {
+        if (done) {
+            return false;
+        }
+        this.done = true;
+        this.result = result;
+        this.failure = failure;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized JanusEvent get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized JanusEvent get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long end = System.nanoTime() + remaining;
+        while (!done) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = end - System.nanoTime();
+        }
+        return report();
+    }
+
+    private JanusEvent report() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
 }
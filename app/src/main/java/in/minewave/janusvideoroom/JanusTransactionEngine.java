@@ -0,0 +1,266 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks every outstanding Janus request. Transaction ids come from a
+ * lock-free counter and are sent as decimal strings, so replies are matched
+ * on a primitive key. Each request carries a deadline on a {@link TimerWheel}
+ * and fails with {@link JanusException#TIMEOUT} if no reply arrives, so lost
+ * replies cannot leak. Deadlines stop while the connection is down and
+ * start over once it is back, so an outage longer than the timeout does not
+ * fail requests that are waiting to be replayed. Round-trip times are
+ * recorded per {@link JanusTransaction.Verb}.
+ */
+final class JanusTransactionEngine {
+    static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    private static final JanusTransaction.Verb[] VERBS = JanusTransaction.Verb.values();
+    private static final Comparator<JanusTransaction> SEND_ORDER = new Comparator<JanusTransaction>() {
+        @Override
+        public int compare(JanusTransaction a, JanusTransaction b) {
+            return a.tid < b.tid ? -1 : (a.tid == b.tid ? 0 : 1);
+        }
+    };
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongHashMap<JanusTransaction> pending = new LongHashMap<>();
+    private final TimerWheel wheel;
+    private final LatencyHistogram[] latency = new LatencyHistogram[VERBS.length];
+    private final AtomicLongArray timeouts = new AtomicLongArray(VERBS.length);
+    private volatile long timeoutMs = DEFAULT_TIMEOUT_MS;
+    private boolean suspended;
+
+    JanusTransactionEngine(TimerWheel wheel) {
+        this.wheel = wheel;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+        }
+    }
+
+    void setTimeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** Allocates a transaction; set its callbacks, then {@link #register} it before sending. */
+    JanusTransaction create(JanusTransaction.Verb verb) {
+        return new JanusTransaction(nextId.incrementAndGet(), verb);
+    }
+
+    void register(final JanusTransaction jt) {
+        jt.sentAtNanos = System.nanoTime();
+        synchronized (this) {
+            pending.put(jt.tid, jt);
+            if (!suspended) {
+                schedule(jt);
+            }
+        }
+    }
+
+    /** Stops every deadline, including those of requests registered until {@link #resume}. */
+    synchronized void suspend() {
+        if (suspended) {
+            return;
+        }
+        suspended = true;
+        List<JanusTransaction> all = new ArrayList<>();
+        pending.values(all);
+        for (JanusTransaction jt : all) {
+            cancelDeadline(jt);
+            jt.deadline = null;
+        }
+    }
+
+    /** Gives every pending request a full timeout again. */
+    synchronized void resume() {
+        if (!suspended) {
+            return;
+        }
+        suspended = false;
+        List<JanusTransaction> all = new ArrayList<>();
+        pending.values(all);
+        for (JanusTransaction jt : all) {
+            schedule(jt);
+        }
+    }
+
+    /**
+     * Routes a reply to the transaction it answers. Returns false if no
+     * transaction is waiting for it. An ack for a plugin message leaves the
+     * transaction pending until the plugin's event arrives.
+     */
+    boolean onReply(JanusEvent event) throws JSONException {
+        JanusTransaction jt;
+        synchronized (this) {
+            jt = pending.get(event.transactionId);
+            if (jt == null) {
+                return false;
+            }
+            if (!completes(jt, event)) {
+                if (event.type == JanusEvent.Type.ACK) {
+                    jt.acked = true;
+                }
+                return true;
+            }
+            pending.remove(jt.tid);
+        }
+        cancelDeadline(jt);
+        latency[jt.verb.ordinal()].record((System.nanoTime() - jt.sentAtNanos) / 1000);
+
+        JanusException failure = failureOf(event);
+        if (!jt.complete(failure == null ? event : null, failure)) {
+            return true;
+        }
+        if (failure == null) {
+            if (jt.success != null) {
+                jt.success.success(event);
+            }
+        } else if (jt.error != null) {
+            jt.error.error(failure);
+        }
+        return true;
+    }
+
+    /** The handle a pending request was sent to, or 0. */
+    synchronized long handleOf(long transactionId) {
+        JanusTransaction jt = pending.get(transactionId);
+        return jt == null ? 0 : jt.handleId;
+    }
+
+    synchronized int pending() {
+        return pending.size();
+    }
+
+    /** Pending transactions the gateway has not acknowledged yet, in the order they were sent. */
+    List<JanusTransaction> unacknowledged() {
+        return unacknowledged(-1);
+    }
+
+    /** As {@link #unacknowledged()}, limited to requests sent on {@code sessionId}; -1 matches all. */
+    List<JanusTransaction> unacknowledged(long sessionId) {
+        List<JanusTransaction> out = new ArrayList<>();
+        synchronized (this) {
+            pending.values(out);
+        }
+        for (int i = out.size() - 1; i >= 0; i--) {
+            JanusTransaction jt = out.get(i);
+            if (jt.acked || (sessionId != -1 && jt.sessionId != sessionId)) {
+                out.remove(i);
+            }
+        }
+        Collections.sort(out, SEND_ORDER);
+        return out;
+    }
+
+    /** Fails every pending transaction with {@code failure}. */
+    void failAll(JanusException failure) {
+        failAll(-1, failure);
+    }
+
+    /** Fails the pending transactions sent on {@code sessionId}; -1 matches all. */
+    void failAll(long sessionId, JanusException failure) {
+        List<JanusTransaction> all = new ArrayList<>();
+        synchronized (this) {
+            pending.values(all);
+        }
+        for (int i = all.size() - 1; i >= 0; i--) {
+            if (sessionId != -1 && all.get(i).sessionId != sessionId) {
+                all.remove(i);
+            }
+        }
+        fail(all, failure);
+    }
+
+    /** Fails these transactions with {@code failure}, skipping any that already completed. */
+    void fail(List<JanusTransaction> transactions, JanusException failure) {
+        List<JanusTransaction> all = new ArrayList<>(transactions.size());
+        synchronized (this) {
+            for (JanusTransaction jt : transactions) {
+                if (pending.get(jt.tid) == jt) {
+                    pending.remove(jt.tid);
+                    all.add(jt);
+                }
+            }
+        }
+        for (JanusTransaction jt : all) {
+            cancelDeadline(jt);
+            if (jt.complete(null, failure) && jt.error != null) {
+                jt.error.error(failure);
+            }
+        }
+    }
+
+    LatencyHistogram latency(JanusTransaction.Verb verb) {
+        return latency[verb.ordinal()];
+    }
+
+    long timeouts(JanusTransaction.Verb verb) {
+        return timeouts.get(verb.ordinal());
+    }
+
+    private void schedule(final JanusTransaction jt) {
+        jt.deadline = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(jt);
+            }
+        }, timeoutMs);
+    }
+
+    private static void cancelDeadline(JanusTransaction jt) {
+        TimerWheel.Timeout deadline = jt.deadline;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    private void expire(JanusTransaction jt) {
+        synchronized (this) {
+            // A deadline that fired just as the connection dropped is given again on resume.
+            if (suspended || pending.get(jt.tid) != jt) {
+                return;
+            }
+            pending.remove(jt.tid);
+        }
+        timeouts.incrementAndGet(jt.verb.ordinal());
+        JanusException failure = new JanusException(JanusException.TIMEOUT,
+                "No reply to " + jt.verb + " within " + timeoutMs + "ms");
+        if (jt.complete(null, failure) && jt.error != null) {
+            jt.error.error(failure);
+        }
+    }
+
+    private static boolean completes(JanusTransaction jt, JanusEvent event) {
+        switch (event.type) {
+            case SUCCESS:
+            case ERROR:
+            case SERVER_INFO:
+                return true;
+            case ACK:
+                return jt.verb != JanusTransaction.Verb.MESSAGE;
+            case EVENT:
+                return jt.verb == JanusTransaction.Verb.MESSAGE;
+            default:
+                return false;
+        }
+    }
+
+    private static JanusException failureOf(JanusEvent event) throws JSONException {
+        if (event.type == JanusEvent.Type.ERROR) {
+            JanusEvent.Error error = (JanusEvent.Error) event;
+            return new JanusException(error.code(), error.reason());
+        }
+        JanusPluginData plugin = event.pluginData();
+        if (plugin != null && plugin.errorCode != 0) {
+            return new JanusException(plugin.errorCode, plugin.error);
+        }
+        return null;
+    }
+}
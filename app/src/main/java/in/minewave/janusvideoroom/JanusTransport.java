@@ -0,0 +1,34 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Carries Janus frames between {@link WebSocketChannel} and the gateway. The
+ * channel encodes and decodes the frames; a transport only moves them and
+ * reports when its connection opens and when it is lost.
+ */
+public interface JanusTransport {
+
+    interface Listener {
+        void onOpen();
+
+        /** Called with every frame from the gateway, replies and events alike. */
+        void onMessage(String frame);
+
+        /** The connection is gone; the channel reconnects through {@link #connect}. */
+        void onFailure(Throwable t);
+    }
+
+    /**
+     * Opens a connection to {@code url}, replacing any earlier one. Callbacks
+     * from a replaced connection are dropped.
+     */
+    void connect(String url, Listener listener);
+
+    /**
+     * Sends a frame. The ids are those the frame is addressed to, 0 if none;
+     * transports that route by URL need them.
+     */
+    void send(long sessionId, long handleId, String frame);
+
+    /** Closes the connection for good. */
+    void close();
+}
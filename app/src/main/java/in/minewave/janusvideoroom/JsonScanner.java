@@ -0,0 +1,384 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+
+/**
+ * Forward-only JSON tokenizer over a region of a String. Values that are not
+ * asked for are skipped without being materialized, and names and short string
+ * values can be compared in place, so walking a Janus frame does not allocate.
+ */
+final class JsonScanner {
+    private final String in;
+    private final int limit;
+    private int pos;
+    private int nameStart;
+    private int nameEnd;
+    private boolean nameEscaped;
+
+    JsonScanner(String in) {
+        this(in, 0, in.length());
+    }
+
+    JsonScanner(String in, int start, int end) {
+        this.in = in;
+        this.pos = start;
+        this.limit = end;
+    }
+
+    String source() {
+        return in;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    /** Skips whitespace and returns the offset at which the next value starts. */
+    int valueStart() throws JSONException {
+        nextNonWhitespace();
+        return pos;
+    }
+
+    void beginObject() throws JSONException {
+        if (nextNonWhitespace() != '{') {
+            throw syntaxError("Expected '{'");
+        }
+        pos++;
+    }
+
+    /**
+     * Moves to the next member of the current object and consumes its name and
+     * the ':' that follows. Returns false once the closing '}' is consumed.
+     */
+    boolean nextName() throws JSONException {
+        char c = nextNonWhitespace();
+        if (c == ',') {
+            pos++;
+            c = nextNonWhitespace();
+        }
+        if (c == '}') {
+            pos++;
+            return false;
+        }
+        if (c != '"') {
+            throw syntaxError("Expected name");
+        }
+        nameStart = pos + 1;
+        skipString();
+        nameEnd = pos - 1;
+        nameEscaped = false;
+        for (int i = nameStart; i < nameEnd; i++) {
+            if (in.charAt(i) == '\\') {
+                nameEscaped = true;
+                break;
+            }
+        }
+        if (nextNonWhitespace() != ':') {
+            throw syntaxError("Expected ':'");
+        }
+        pos++;
+        return true;
+    }
+
+    /** Whether the name consumed by the last {@link #nextName()} equals {@code name}. */
+    boolean nameIs(String name) {
+        return !nameEscaped && nameEnd - nameStart == name.length()
+                && in.regionMatches(nameStart, name, 0, name.length());
+    }
+
+    void beginArray() throws JSONException {
+        if (nextNonWhitespace() != '[') {
+            throw syntaxError("Expected '['");
+        }
+        pos++;
+    }
+
+    /** Returns true if the current array has another element, consuming the ']' otherwise. */
+    boolean hasNextElement() throws JSONException {
+        char c = nextNonWhitespace();
+        if (c == ',') {
+            pos++;
+            c = nextNonWhitespace();
+        }
+        if (c == ']') {
+            pos++;
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the first character of the next value without consuming it. */
+    char peek() throws JSONException {
+        return nextNonWhitespace();
+    }
+
+    /**
+     * Compares the next value against {@code value} without decoding it. The value
+     * is consumed whether or not it matches.
+     */
+    boolean stringValueIs(String value) throws JSONException {
+        if (nextNonWhitespace() != '"') {
+            skipValue();
+            return false;
+        }
+        int start = pos + 1;
+        skipString();
+        int length = pos - 1 - start;
+        return length == value.length() && in.regionMatches(start, value, 0, length);
+    }
+
+    /**
+     * Consumes the next value and returns the index of the entry of
+     * {@code choices} it equals, or -1 if it is not one of them.
+     */
+    int readChoice(String[] choices) throws JSONException {
+        if (nextNonWhitespace() != '"') {
+            skipValue();
+            return -1;
+        }
+        int start = pos + 1;
+        skipString();
+        int length = pos - 1 - start;
+        for (int i = 0; i < choices.length; i++) {
+            String choice = choices[i];
+            if (choice != null && length == choice.length() && in.regionMatches(start, choice, 0, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the next value as a string. Like {@code JSONObject.optString}, numbers
+     * and booleans are returned as their literal text; null yields null.
+     */
+    String readString() throws JSONException {
+        char c = nextNonWhitespace();
+        if (c == '"') {
+            return readQuoted();
+        }
+        if (c == '{' || c == '[') {
+            int start = pos;
+            skipValue();
+            return in.substring(start, pos);
+        }
+        int start = pos;
+        skipLiteral();
+        if (pos - start == 4 && in.regionMatches(start, "null", 0, 4)) {
+            return null;
+        }
+        return in.substring(start, pos);
+    }
+
+    /**
+     * Reads the next value as an unsigned 64-bit integer. Quoted digits are
+     * accepted; anything that is not a number yields 0, like {@code optLong}.
+     */
+    long readLong() throws JSONException {
+        char c = nextNonWhitespace();
+        boolean quoted = c == '"';
+        int start = quoted ? pos + 1 : pos;
+        if (quoted) {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            skipValue();
+            return 0;
+        } else {
+            skipLiteral();
+        }
+        int end = quoted ? pos - 1 : pos;
+        return parseLong(start, end);
+    }
+
+    int readInt() throws JSONException {
+        return (int) readLong();
+    }
+
+    boolean readBoolean() throws JSONException {
+        char c = nextNonWhitespace();
+        if (c == 't') {
+            skipLiteral();
+            return true;
+        }
+        if (c == '"') {
+            return stringValueIs("true");
+        }
+        skipValue();
+        return false;
+    }
+
+    void skipValue() throws JSONException {
+        char c = nextNonWhitespace();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                if (pos >= limit) {
+                    throw syntaxError("Unterminated " + (c == '{' ? "object" : "array"));
+                }
+                char d = in.charAt(pos);
+                if (d == '"') {
+                    skipString();
+                    continue;
+                }
+                if (d == '{' || d == '[') {
+                    depth++;
+                } else if (d == '}' || d == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private long parseLong(int start, int end) {
+        boolean negative = start < end && in.charAt(start) == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = in.charAt(i);
+            if (c < '0' || c > '9') {
+                if (c == '.' || c == 'e' || c == 'E') {
+                    try {
+                        return (long) Double.parseDouble(in.substring(start, end));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private String readQuoted() throws JSONException {
+        int start = pos + 1;
+        int i = start;
+        while (true) {
+            if (i >= limit) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = in.charAt(i);
+            if (c == '"') {
+                pos = i + 1;
+                return in.substring(start, i);
+            }
+            if (c == '\\') {
+                break;
+            }
+            i++;
+        }
+        StringBuilder sb = new StringBuilder(estimateEnd(i) - start);
+        sb.append(in, start, i);
+        while (true) {
+            if (i >= limit) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = in.charAt(i++);
+            if (c == '"') {
+                pos = i;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= limit) {
+                throw syntaxError("Unterminated escape sequence");
+            }
+            char e = in.charAt(i++);
+            switch (e) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > limit) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int code = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int digit = Character.digit(in.charAt(i++), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid escape sequence");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                default:
+                    sb.append(e);
+                    break;
+            }
+        }
+    }
+
+    /** Upper bound on the closing quote, used only to presize the decode buffer. */
+    private int estimateEnd(int from) {
+        int quote = in.indexOf('"', from);
+        return quote < 0 || quote > limit ? limit : quote;
+    }
+
+    private void skipString() throws JSONException {
+        int open = pos;
+        int from = pos + 1;
+        while (true) {
+            int quote = in.indexOf('"', from);
+            if (quote < 0 || quote >= limit) {
+                throw syntaxError("Unterminated string");
+            }
+            int b = quote - 1;
+            while (b > open && in.charAt(b) == '\\') {
+                b--;
+            }
+            if (((quote - 1 - b) & 1) == 0) {
+                pos = quote + 1;
+                return;
+            }
+            from = quote + 1;
+        }
+    }
+
+    private void skipLiteral() throws JSONException {
+        int start = pos;
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Expected value");
+        }
+    }
+
+    private char nextNonWhitespace() throws JSONException {
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+        throw syntaxError("End of input");
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + pos);
+    }
+}
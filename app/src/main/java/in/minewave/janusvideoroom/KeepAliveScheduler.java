@@ -0,0 +1,141 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps Janus sessions alive with as few frames as possible. Any request sent
+ * on a session {@link Session#touch touches} it, and a keepalive goes out only
+ * once a whole interval has passed without other traffic. Every session is a
+ * single timeout on a shared {@link TimerWheel}, re-armed for the remainder of
+ * the interval when traffic was seen, so an idle session costs one wakeup per
+ * interval and a busy one none beyond that.
+ */
+final class KeepAliveScheduler {
+    /** Janus's default {@code session_timeout}, used until the gateway reports its own. */
+    static final int DEFAULT_SESSION_TIMEOUT_S = 60;
+    static final long MIN_INTERVAL_MS = 5000;
+
+    interface Sink {
+        /** Sends a keepalive for the session; the send is expected to touch it. */
+        void keepAlive(long sessionId);
+    }
+
+    final class Session implements Runnable {
+        final long sessionId;
+        private final Sink sink;
+        private volatile long lastSentNanos = System.nanoTime();
+        private volatile long intervalMs;
+        private TimerWheel.Timeout timeout;
+        private boolean stopped;
+
+        private Session(long sessionId, long intervalMs, Sink sink) {
+            this.sessionId = sessionId;
+            this.intervalMs = intervalMs;
+            this.sink = sink;
+        }
+
+        /** Records that a frame was just sent on this session. */
+        void touch() {
+            lastSentNanos = System.nanoTime();
+        }
+
+        long intervalMs() {
+            return intervalMs;
+        }
+
+        /** Applies the gateway's {@code session_timeout}, re-arming the check for the new interval. */
+        void setSessionTimeout(int seconds) {
+            long interval = intervalFor(seconds);
+            intervalMs = interval;
+            long idleMs = (System.nanoTime() - lastSentNanos) / 1000000;
+            arm(Math.max(1, interval - idleMs));
+        }
+
+        @Override
+        public void run() {
+            long idleMs = (System.nanoTime() - lastSentNanos) / 1000000;
+            long interval = intervalMs;
+            if (idleMs >= interval) {
+                sink.keepAlive(sessionId);
+                arm(interval);
+            } else {
+                arm(interval - idleMs);
+            }
+        }
+
+        /** Replaces the pending check, so there is never more than one per session. */
+        private void arm(long delayMs) {
+            synchronized (KeepAliveScheduler.this) {
+                if (stopped) {
+                    return;
+                }
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                timeout = wheel.schedule(this, delayMs);
+            }
+        }
+    }
+
+    private final TimerWheel wheel;
+    private final LongHashMap<Session> sessions = new LongHashMap<>();
+
+    KeepAliveScheduler(TimerWheel wheel) {
+        this.wheel = wheel;
+    }
+
+    /**
+     * Half the session timeout, so one lost keepalive does not expire the
+     * session. A timeout of 0 means the gateway never expires sessions; the
+     * default interval is kept anyway for proxies that drop idle sockets.
+     */
+    static long intervalFor(int sessionTimeoutSeconds) {
+        if (sessionTimeoutSeconds <= 0) {
+            sessionTimeoutSeconds = DEFAULT_SESSION_TIMEOUT_S;
+        }
+        return Math.max(MIN_INTERVAL_MS, sessionTimeoutSeconds * 1000L / 2);
+    }
+
+    /** Starts keeping {@code sessionId} alive, replacing any earlier registration for it. */
+    Session start(long sessionId, Sink sink) {
+        stop(sessionId);
+        Session session = new Session(sessionId, intervalFor(DEFAULT_SESSION_TIMEOUT_S), sink);
+        synchronized (this) {
+            sessions.put(sessionId, session);
+        }
+        session.arm(session.intervalMs);
+        return session;
+    }
+
+    synchronized Session get(long sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    synchronized void stop(long sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session != null) {
+            cancel(session);
+        }
+    }
+
+    synchronized void stopAll() {
+        List<Session> all = new ArrayList<>(sessions.size());
+        sessions.values(all);
+        for (Session session : all) {
+            cancel(session);
+        }
+        sessions.clear();
+    }
+
+    private void cancel(Session session) {
+        session.stopped = true;
+        if (session.timeout != null) {
+            session.timeout.cancel();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Picks the layers each subscriber receives from the size its video is
+ * drawn at: the simulcast substream and temporal layer, or the spatial and
+ * temporal layer of VP9 SVC. Against a publisher sending quarter, half and
+ * full size layers, a renderer whose longer side is up to
+ * {@link #LOW_MAX_PX} gets the lowest layer and up to {@link #MID_MAX_PX}
+ * the middle one. Thumbnails up to {@link #THUMBNAIL_MAX_PX} also drop the
+ * top temporal layer. Hidden renderers are paused on the gateway, so no
+ * media is sent to them at all while their peer connection stays up; with
+ * pausing turned off they get the base of both layers instead.
+ *
+ * <p>A downlink slow_link on a subscriber drops it one substream below what
+ * it receives, at once, whatever its size. It climbs back one layer per
+ * {@link #RECOVERY_MS} without further reports.
+ *
+ * <p>Viewports are reported as often as layouts change, but a choice is
+ * only sent once the viewport has held still for the debounce: layouts
+ * animate and scroll, and every switch has the gateway wait for a keyframe.
+ * A paused feed that shows up again is resumed at once, on the caller's
+ * thread; everything else is sent from the wheel's thread.
+ */
+final class LayerSelector {
+    static final long DEFAULT_DEBOUNCE_MS = 500;
+    static final int LOW_MAX_PX = 320;
+    static final int MID_MAX_PX = 640;
+    static final int THUMBNAIL_MAX_PX = 180;
+    static final int TOP_LAYER = 2;
+    static final long RECOVERY_MS = 10000;
+
+    interface Sink {
+        /** Asks the gateway to send these layers on {@code handleId}. */
+        void configure(long handleId, int substream, int temporal);
+
+        /** Asks the gateway to stop or start sending anything on {@code handleId}. */
+        void setPaused(long handleId, boolean paused);
+    }
+
+    private final class Viewport implements Runnable {
+        final long handleId;
+        // What was last sent, or -1 before the first choice.
+        int substream = -1;
+        int temporal = -1;
+        boolean paused;
+        int wantSubstream;
+        int wantTemporal;
+        boolean wantPaused;
+        TimerWheel.Timeout pending;
+        // Longer side last reported, and the highest substream slow links allow.
+        int side;
+        int cap = TOP_LAYER;
+        TimerWheel.Timeout recovery;
+        final Runnable recover = new Runnable() {
+            @Override
+            public void run() {
+                recover(Viewport.this);
+            }
+        };
+
+        Viewport(long handleId) {
+            this.handleId = handleId;
+        }
+
+        @Override
+        public void run() {
+            flush(this);
+        }
+    }
+
+    private final TimerWheel wheel;
+    private final Sink sink;
+    private final LongHashMap<Viewport> viewports = new LongHashMap<>();
+    private long debounceMs = DEFAULT_DEBOUNCE_MS;
+    private boolean pauseHidden = true;
+
+    LayerSelector(TimerWheel wheel, Sink sink) {
+        this.wheel = wheel;
+        this.sink = sink;
+    }
+
+    synchronized void setDebounce(long debounceMs) {
+        this.debounceMs = debounceMs;
+    }
+
+    /** Whether hidden feeds are paused rather than dropped to their lowest layers. */
+    synchronized void setPauseHidden(boolean pauseHidden) {
+        this.pauseHidden = pauseHidden;
+    }
+
+    /** The subscriber on {@code handleId} is drawn {@code widthPx} by {@code heightPx}, or not at all. */
+    void setViewport(long handleId, int widthPx, int heightPx, boolean visible) {
+        int side = visible ? Math.max(widthPx, heightPx) : 0;
+        TimerWheel.Timeout stale;
+        Viewport resume = null;
+        synchronized (this) {
+            Viewport viewport = viewports.get(handleId);
+            if (viewport == null) {
+                viewport = new Viewport(handleId);
+                viewports.put(handleId, viewport);
+            }
+            viewport.side = side;
+            viewport.wantPaused = !visible && pauseHidden;
+            if (!viewport.wantPaused) {
+                // A paused feed keeps the layers it had, to come back as it was.
+                viewport.wantSubstream = Math.min(substreamFor(side), viewport.cap);
+                viewport.wantTemporal = temporalFor(side);
+            }
+            stale = viewport.pending;
+            viewport.pending = null;
+            if (viewport.paused && !viewport.wantPaused) {
+                resume = viewport;
+            } else if (viewport.wantPaused != viewport.paused
+                    || (!viewport.wantPaused && (viewport.wantSubstream != viewport.substream
+                    || viewport.wantTemporal != viewport.temporal))) {
+                viewport.pending = wheel.schedule(viewport, debounceMs);
+            }
+        }
+        if (stale != null) {
+            stale.cancel();
+        }
+        if (resume != null) {
+            send(resume);
+        }
+    }
+
+    /** The gateway is losing packets sending to {@code handleId}; lowers its substream at once. */
+    void onSlowLink(long handleId) {
+        TimerWheel.Timeout stale;
+        Viewport lower = null;
+        synchronized (this) {
+            Viewport viewport = viewports.get(handleId);
+            if (viewport == null) {
+                return;
+            }
+            int current = viewport.substream < 0 ? viewport.wantSubstream : viewport.substream;
+            viewport.cap = Math.max(0, Math.min(viewport.cap, current) - 1);
+            stale = viewport.recovery;
+            viewport.recovery = wheel.schedule(viewport.recover, RECOVERY_MS);
+            if (!viewport.wantPaused) {
+                viewport.wantSubstream = Math.min(substreamFor(viewport.side), viewport.cap);
+                lower = viewport;
+            }
+        }
+        if (stale != null) {
+            stale.cancel();
+        }
+        if (lower != null) {
+            send(lower);
+        }
+    }
+
+    /** Forgets a subscriber that went away, along with any choice not yet sent. */
+    void remove(long handleId) {
+        TimerWheel.Timeout pending = null;
+        TimerWheel.Timeout recovery = null;
+        synchronized (this) {
+            Viewport viewport = viewports.remove(handleId);
+            if (viewport != null) {
+                pending = viewport.pending;
+                viewport.pending = null;
+                recovery = viewport.recovery;
+                viewport.recovery = null;
+            }
+        }
+        if (pending != null) {
+            pending.cancel();
+        }
+        if (recovery != null) {
+            recovery.cancel();
+        }
+    }
+
+    static int substreamFor(int side) {
+        if (side <= LOW_MAX_PX) {
+            return 0;
+        }
+        return side <= MID_MAX_PX ? 1 : TOP_LAYER;
+    }
+
+    static int temporalFor(int side) {
+        if (side == 0) {
+            return 0;
+        }
+        return side <= THUMBNAIL_MAX_PX ? 1 : TOP_LAYER;
+    }
+
+    /** Lets a subscriber that had no slow link for a while have one layer more. */
+    private void recover(Viewport viewport) {
+        Viewport raise = null;
+        synchronized (this) {
+            if (viewports.get(viewport.handleId) != viewport || viewport.recovery == null) {
+                return;
+            }
+            viewport.cap++;
+            viewport.recovery = viewport.cap < TOP_LAYER ? wheel.schedule(viewport.recover, RECOVERY_MS) : null;
+            if (!viewport.wantPaused) {
+                viewport.wantSubstream = Math.min(substreamFor(viewport.side), viewport.cap);
+                raise = viewport;
+            }
+        }
+        if (raise != null) {
+            send(raise);
+        }
+    }
+
+    private void flush(Viewport viewport) {
+        synchronized (this) {
+            if (viewport.pending == null) {
+                return;
+            }
+            viewport.pending = null;
+        }
+        send(viewport);
+    }
+
+    /** Sends what the viewport wants and the gateway does not have yet: layers before a resume. */
+    private void send(Viewport viewport) {
+        boolean configure;
+        boolean pause;
+        int substream;
+        int temporal;
+        boolean paused;
+        synchronized (this) {
+            if (viewports.get(viewport.handleId) != viewport) {
+                return;
+            }
+            configure = !viewport.wantPaused
+                    && (viewport.wantSubstream != viewport.substream || viewport.wantTemporal != viewport.temporal);
+            pause = viewport.wantPaused != viewport.paused;
+            substream = viewport.substream = configure ? viewport.wantSubstream : viewport.substream;
+            temporal = viewport.temporal = configure ? viewport.wantTemporal : viewport.temporal;
+            paused = viewport.paused = viewport.wantPaused;
+        }
+        if (configure) {
+            sink.configure(viewport.handleId, substream, temporal);
+        }
+        if (pause) {
+            sink.setPaused(viewport.handleId, paused);
+        }
+    }
+}
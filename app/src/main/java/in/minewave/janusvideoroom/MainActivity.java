@@ -3,26 +3,27 @@ package in.minewave.janusvideoroom;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.View;
 import android.widget.LinearLayout;
 
-import org.json.JSONObject;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
 import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoRenderer;
 
-import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
 import in.minewave.janusvideoroom.PeerConnectionClient.PeerConnectionParameters;
 import in.minewave.janusvideoroom.PeerConnectionClient.PeerConnectionEvents;
 
 public class MainActivity extends AppCompatActivity implements JanusRTCInterface, PeerConnectionEvents {
     private static final String TAG = "MainActivity";
+    private static final long ROOM = 1234;
 
     private PeerConnectionClient peerConnectionClient;
     private PeerConnectionParameters peerConnectionParameters;
@@ -32,6 +33,10 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
     private VideoCapturer videoCapturer;
     private EglBase rootEglBase;
     private WebSocketChannel mWebSocketChannel;
+    // Each remote feed and its own view, by subscriber handle; touched on the UI thread only.
+    private final Map<Long, RemoteFeed> remoteFeeds = new HashMap<>();
+    private volatile long publisherHandleId;
+    private boolean foreground;
     LinearLayout rootView;
 
     @Override
@@ -41,7 +46,7 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
         rootView = (LinearLayout) findViewById(R.id.activity_main);
         mWebSocketChannel = new WebSocketChannel();
         mWebSocketChannel.initConnection("ws://xxx:xxx");
-        mWebSocketChannel.setDelegate(this);
+        mWebSocketChannel.joinRoom(ROOM, "Android webrtc", this);
 
         createLocalRender();
         remoteRender = (SurfaceViewRenderer) findViewById(R.id.remote_video_view);
@@ -54,7 +59,16 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
     @Override
     protected void onResume() {
         super.onResume();
+        foreground = true;
         peerConnectionClient.startVideoSource();
+        reportViewports();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        foreground = false;
+        reportViewports();
     }
 
     private void createLocalRender() {
@@ -121,7 +135,7 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
     }
 
 
-    private void offerPeerConnection(BigInteger handleId) {
+    private void offerPeerConnection(long handleId) {
         videoCapturer = createVideoCapturer();
         peerConnectionClient.createPeerConnection(rootEglBase.getEglBaseContext(), localRender, videoCapturer, handleId);
         peerConnectionClient.createOffer(handleId);
@@ -129,46 +143,66 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
 
     // interface JanusRTCInterface
     @Override
-    public void onPublisherJoined(final BigInteger handleId) {
+    public void onPublisherJoined(final long handleId) {
+        publisherHandleId = handleId;
         offerPeerConnection(handleId);
     }
 
     @Override
-    public void onPublisherRemoteJsep(BigInteger handleId, JSONObject jsep) {
-        SessionDescription.Type type = SessionDescription.Type.fromCanonicalForm(jsep.optString("type"));
-        String sdp = jsep.optString("sdp");
-        SessionDescription sessionDescription = new SessionDescription(type, sdp);
-        peerConnectionClient.setRemoteDescription(handleId, sessionDescription);
+    public void onPublisherRemoteJsep(long handleId, SessionDescription jsep) {
+        peerConnectionClient.setRemoteDescription(handleId, jsep);
     }
 
     @Override
-    public void subscriberHandleRemoteJsep(BigInteger handleId, JSONObject jsep) {
-        SessionDescription.Type type = SessionDescription.Type.fromCanonicalForm(jsep.optString("type"));
-        String sdp = jsep.optString("sdp");
-        SessionDescription sessionDescription = new SessionDescription(type, sdp);
-        peerConnectionClient.subscriberHandleRemoteJsep(handleId, sessionDescription);
+    public void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep) {
+        peerConnectionClient.subscriberHandleRemoteJsep(handleId, jsep);
     }
 
     @Override
-    public void onLeaving(BigInteger handleId) {
+    public void onLeaving(final long handleId) {
+        peerConnectionClient.disposeConnection(handleId);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                RemoteFeed feed = remoteFeeds.remove(handleId);
+                if (feed == null) {
+                    return;
+                }
+                feed.view.removeOnLayoutChangeListener(feed);
+                // Do not leave the last frame of a feed that is gone on screen.
+                feed.view.clearImage();
+                if (feed.view != remoteRender) {
+                    rootView.removeView(feed.view);
+                    feed.view.release();
+                }
+            }
+        });
+    }
 
+    @Override
+    public void onSlowLink(long handleId, boolean uplink, int lost) {
+        // Only loss on what we send caps our bitrate; subscriber downlinks
+        // already drop to lighter layers in the channel.
+        if (uplink && handleId == publisherHandleId) {
+            peerConnectionClient.onSlowLink(handleId, lost);
+        }
     }
 
     // interface PeerConnectionClient.PeerConnectionEvents
     @Override
-    public void onLocalDescription(SessionDescription sdp, BigInteger handleId) {
+    public void onLocalDescription(SessionDescription sdp, long handleId) {
         Log.e(TAG, sdp.type.toString());
         mWebSocketChannel.publisherCreateOffer(handleId, sdp);
     }
 
     @Override
-    public void onRemoteDescription(SessionDescription sdp, BigInteger handleId) {
+    public void onRemoteDescription(SessionDescription sdp, long handleId) {
         Log.e(TAG, sdp.type.toString());
         mWebSocketChannel.subscriberCreateAnswer(handleId, sdp);
     }
 
     @Override
-    public void onIceCandidate(IceCandidate candidate, BigInteger handleId) {
+    public void onIceCandidate(IceCandidate candidate, long handleId) {
         Log.e(TAG, "=========onIceCandidate========");
         if (candidate != null) {
             mWebSocketChannel.trickleCandidate(handleId, candidate);
@@ -198,7 +232,7 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
     }
 
     @Override
-    public void onPeerConnectionStatsReady(StatsReport[] reports) {
+    public void onPeerConnectionStatsReady(StatsBatch batch) {
 
     }
 
@@ -207,6 +241,16 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
 
     }
 
+    @Override
+    public void onSendBitrateLimit(long handleId, int maxBitrateBps) {
+        mWebSocketChannel.publisherConfigureBitrate(handleId, maxBitrateBps);
+    }
+
+    @Override
+    public void onRemoteVideoTrack(long handleId, String mid) {
+        // One remote view: only the first track, from onRemoteRender, is drawn.
+    }
+
     @Override
     public void onRemoteRender(final JanusConnection connection) {
         runOnUiThread(new Runnable() {
@@ -216,8 +260,64 @@ public class MainActivity extends AppCompatActivity implements JanusRTCInterface
 //                remoteRender.init(rootEglBase.getEglBaseContext(), null);
 //                LinearLayout.LayoutParams params  = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT);
 //                rootView.addView(remoteRender, params);
-                connection.videoTrack.addRenderer(new VideoRenderer(remoteRender));
+                long handleId = connection.handleId;
+                RemoteFeed feed = remoteFeeds.get(handleId);
+                if (feed == null) {
+                    feed = new RemoteFeed(handleId, newRemoteView());
+                    remoteFeeds.put(handleId, feed);
+                    feed.view.addOnLayoutChangeListener(feed);
+                }
+                peerConnectionClient.addRemoteRenderer(handleId, feed.view);
+                feed.report();
             }
         });
     }
+
+    /** The layout's remote view if no feed has it yet, otherwise a new one below it. */
+    private SurfaceViewRenderer newRemoteView() {
+        boolean taken = false;
+        for (RemoteFeed feed : remoteFeeds.values()) {
+            taken |= feed.view == remoteRender;
+        }
+        if (!taken) {
+            return remoteRender;
+        }
+        SurfaceViewRenderer view = new SurfaceViewRenderer(this);
+        view.init(rootEglBase.getEglBaseContext(), null);
+        rootView.addView(view, new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT,
+                remoteRender.getLayoutParams().height));
+        return view;
+    }
+
+    private void reportViewports() {
+        for (RemoteFeed feed : remoteFeeds.values()) {
+            feed.report();
+        }
+    }
+
+    /**
+     * A remote feed and the view it is drawn in. Keeps the gateway told how
+     * large that view is, and that it is not seen while the activity is in
+     * the background.
+     */
+    private final class RemoteFeed implements View.OnLayoutChangeListener {
+        final long handleId;
+        final SurfaceViewRenderer view;
+
+        RemoteFeed(long handleId, SurfaceViewRenderer view) {
+            this.handleId = handleId;
+            this.view = view;
+        }
+
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            report();
+        }
+
+        void report() {
+            mWebSocketChannel.setViewport(handleId, view.getWidth(), view.getHeight(),
+                    foreground && view.isShown());
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * The last few values of one metric in a fixed {@code double[]}, newest
+ * overwriting oldest. Adding never allocates.
+ */
+public final class MetricRing {
+    private final double[] values;
+    private int next;
+    private int size;
+
+    public MetricRing(int capacity) {
+        values = new double[capacity];
+    }
+
+    void add(double value) {
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    /** The value {@code ago} samples back; 0 is the latest. */
+    public double get(int ago) {
+        if (ago < 0 || ago >= size) {
+            throw new IndexOutOfBoundsException("ago=" + ago + " size=" + size);
+        }
+        return values[(next - 1 - ago + values.length) % values.length];
+    }
+
+    /** The latest value, or 0 if there is none yet. */
+    public double latest() {
+        return size == 0 ? 0 : get(0);
+    }
+
+    /** Mean of the latest {@code n} values, or of all of them if there are fewer. */
+    public double mean(int n) {
+        n = Math.min(n, size);
+        if (n == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += get(i);
+        }
+        return sum / n;
+    }
+
+    public double mean() {
+        return mean(size);
+    }
+
+    public double max() {
+        double max = size == 0 ? 0 : Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    public double min() {
+        double min = size == 0 ? 0 : Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    void clear() {
+        next = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,229 @@
+package in.minewave.janusvideoroom;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives every remote feed of a session on one subscriber handle and one
+ * peer connection, the way videoroom multistream subscriptions work. The
+ * handle is attached when the first feed shows up and joins with every
+ * feed known by then; later feeds are added and removed with subscribe and
+ * unsubscribe requests. Each request makes the gateway send an updated
+ * offer, and the next request only goes out once that offer is answered,
+ * so feeds that come and go meanwhile are batched into one renegotiation.
+ * The {@code streams} list of every offer maps the connection's mids back
+ * to feeds. Feeds count as subscribed or unsubscribed from the moment
+ * their request goes out, and go back to how they were if it fails.
+ *
+ * <p>Requests are made outside the lock, on whichever thread moved the
+ * subscription forward.
+ */
+final class MultistreamSubscription {
+
+    interface Requests {
+        /** Attaches the subscriber handle; report it with {@link #onAttached}. */
+        void attach();
+
+        void join(long[] feeds);
+
+        void subscribe(long[] feeds);
+
+        void unsubscribe(long[] feeds);
+    }
+
+    private static final int NONE = 0;
+    private static final int ATTACH = 1;
+    private static final int JOIN = 2;
+    private static final int SUBSCRIBE = 3;
+    private static final int UNSUBSCRIBE = 4;
+
+    private final Requests requests;
+    private final Set<Long> subscribed = new LinkedHashSet<>();
+    private final Set<Long> toAdd = new LinkedHashSet<>();
+    private final Set<Long> toRemove = new LinkedHashSet<>();
+    private final Map<String, Long> feedsByMid = new HashMap<>();
+    // The feeds of the request that is out.
+    private final Set<Long> sending = new LinkedHashSet<>();
+    private long handleId;
+    private boolean attaching;
+    private boolean joined;
+    // A request is out and its offer not yet answered.
+    private boolean busy;
+    private int inFlight = NONE;
+
+    MultistreamSubscription(Requests requests) {
+        this.requests = requests;
+    }
+
+    /** The subscriber handle, or 0 until it is attached. */
+    synchronized long handleId() {
+        return handleId;
+    }
+
+    /** A feed was announced; it is received once the next renegotiation is done. */
+    void add(long feed) {
+        synchronized (this) {
+            if (!toRemove.remove(feed) && !subscribed.contains(feed)) {
+                toAdd.add(feed);
+            }
+        }
+        advance();
+    }
+
+    /** Stops receiving a feed that is still published. */
+    void remove(long feed) {
+        synchronized (this) {
+            if (!toAdd.remove(feed) && subscribed.contains(feed)) {
+                toRemove.add(feed);
+            }
+        }
+        advance();
+    }
+
+    /** A feed left or stopped publishing; the gateway drops its streams by itself. */
+    synchronized void gone(long feed) {
+        toAdd.remove(feed);
+        toRemove.remove(feed);
+        subscribed.remove(feed);
+        sending.remove(feed);
+    }
+
+    void onAttached(long handleId) {
+        synchronized (this) {
+            this.handleId = handleId;
+            attaching = false;
+        }
+        advance();
+    }
+
+    /** The mids of the latest offer and the feeds they carry. */
+    synchronized void onStreams(List<JanusPluginData.Stream> streams) {
+        feedsByMid.clear();
+        for (JanusPluginData.Stream stream : streams) {
+            if (stream.mid != null && stream.active && stream.feedId != 0) {
+                feedsByMid.put(stream.mid, stream.feedId);
+            }
+        }
+    }
+
+    /** The offer of the last request was answered, or the request needed no renegotiation. */
+    void onNegotiated() {
+        synchronized (this) {
+            busy = false;
+            inFlight = NONE;
+            sending.clear();
+        }
+        advance();
+    }
+
+    /**
+     * The last request failed. It is not retried, since the same request
+     * would most likely fail again: a subscribe leaves its feeds out and an
+     * unsubscribe keeps them, and a failed attach or join drops the feeds
+     * waiting for it and is tried again with the next feed that shows up.
+     */
+    void onFailed() {
+        synchronized (this) {
+            if (attaching) {
+                toAdd.clear();
+            }
+            if (inFlight == JOIN) {
+                joined = false;
+                subscribed.clear();
+            } else if (inFlight == SUBSCRIBE) {
+                subscribed.removeAll(sending);
+                toRemove.removeAll(sending);
+            } else if (inFlight == UNSUBSCRIBE) {
+                subscribed.addAll(sending);
+                toAdd.removeAll(sending);
+            }
+            sending.clear();
+            attaching = false;
+            busy = false;
+            inFlight = NONE;
+        }
+        advance();
+    }
+
+    /** The feed a mid of the subscriber's connection carries, or 0. */
+    synchronized long feedForMid(String mid) {
+        Long feed = feedsByMid.get(mid);
+        return feed == null ? 0 : feed;
+    }
+
+    /** Forgets the handle and every feed, as when the session is lost. */
+    synchronized void reset() {
+        subscribed.clear();
+        toAdd.clear();
+        toRemove.clear();
+        feedsByMid.clear();
+        sending.clear();
+        handleId = 0;
+        attaching = false;
+        joined = false;
+        busy = false;
+        inFlight = NONE;
+    }
+
+    private void advance() {
+        int request = NONE;
+        long[] feeds = null;
+        synchronized (this) {
+            if (handleId == 0) {
+                if (!attaching && !toAdd.isEmpty()) {
+                    attaching = true;
+                    request = ATTACH;
+                }
+            } else if (!busy) {
+                if (!joined && !toAdd.isEmpty()) {
+                    joined = true;
+                    request = JOIN;
+                    feeds = take(toAdd, true);
+                } else if (joined && !toRemove.isEmpty()) {
+                    request = UNSUBSCRIBE;
+                    feeds = take(toRemove, false);
+                } else if (joined && !toAdd.isEmpty()) {
+                    request = SUBSCRIBE;
+                    feeds = take(toAdd, true);
+                }
+                busy = request != NONE;
+                inFlight = request;
+            }
+        }
+        switch (request) {
+            case ATTACH:
+                requests.attach();
+                break;
+            case JOIN:
+                requests.join(feeds);
+                break;
+            case SUBSCRIBE:
+                requests.subscribe(feeds);
+                break;
+            case UNSUBSCRIBE:
+                requests.unsubscribe(feeds);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private long[] take(Set<Long> pending, boolean subscribe) {
+        long[] feeds = new long[pending.size()];
+        int i = 0;
+        for (Long feed : pending) {
+            feeds[i++] = feed;
+            sending.add(feed);
+            if (subscribe) {
+                subscribed.add(feed);
+            } else {
+                subscribed.remove(feed);
+            }
+        }
+        pending.clear();
+        return feeds;
+    }
+}
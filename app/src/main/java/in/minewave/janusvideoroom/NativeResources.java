@@ -0,0 +1,44 @@
+package in.minewave.janusvideoroom;
+
+import java.util.Locale;
+
+/**
+ * Counts the native objects {@link PeerConnectionClient} creates and
+ * releases: peer connections, warm ones included, remote video tracks and
+ * the renderers attached to them. Live counts that only grow while feeds
+ * come and go point at a leak.
+ */
+public final class NativeResources {
+    public static final int PEER_CONNECTIONS = 0;
+    public static final int VIDEO_TRACKS = 1;
+    public static final int RENDERERS = 2;
+    static final int KINDS = 3;
+
+    private final long[] created = new long[KINDS];
+    private final long[] released = new long[KINDS];
+
+    synchronized void onCreated(int kind) {
+        created[kind]++;
+    }
+
+    synchronized void onReleased(int kind) {
+        released[kind]++;
+    }
+
+    /** How many of {@code kind} exist right now. */
+    public synchronized long live(int kind) {
+        return created[kind] - released[kind];
+    }
+
+    /** How many of {@code kind} were ever created. */
+    public synchronized long created(int kind) {
+        return created[kind];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "peerConnections=%d/%d videoTracks=%d/%d renderers=%d/%d (live/created)",
+                live(PEER_CONNECTIONS), created[PEER_CONNECTIONS], live(VIDEO_TRACKS), created[VIDEO_TRACKS],
+                live(RENDERERS), created[RENDERERS]);
+    }
+}
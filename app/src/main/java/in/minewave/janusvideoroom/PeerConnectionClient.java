@@ -5,13 +5,12 @@ import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import java.io.File;
-import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import org.webrtc.AudioSource;
@@ -26,6 +25,7 @@ import org.webrtc.MediaStream;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnection.IceConnectionState;
 import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpParameters;
 import org.webrtc.RtpReceiver;
 import org.webrtc.RtpSender;
 import org.webrtc.SdpObserver;
@@ -54,22 +54,36 @@ public class PeerConnectionClient {
   private static final String DTLS_SRTP_KEY_AGREEMENT_CONSTRAINT = "DtlsSrtpKeyAgreement";
   private static final int HD_VIDEO_WIDTH = 1280;
   private static final int HD_VIDEO_HEIGHT = 720;
+  private static final int DEFAULT_MIN_SEND_KBPS = 150;
+  private static final int DEFAULT_MAX_SEND_KBPS = 2000;
+  private static final int DEFAULT_WARM_CONNECTIONS = 2;
+  // Candidates gathered ahead of the first description; one set is enough with BUNDLE.
+  private static final int ICE_CANDIDATE_POOL_SIZE = 1;
 
   private static final PeerConnectionClient instance = new PeerConnectionClient();
 
   private final ScheduledExecutorService executor;
+  private final SignalingExecutor connections;
 
   private Context context;
-  private PeerConnectionFactory factory;
-  private ConcurrentHashMap<BigInteger, JanusConnection> peerConnectionMap;
+  private volatile PeerConnectionFactory factory;
+  private final HandleRegistry<JanusConnection> peerConnectionMap;
 
   PeerConnectionFactory.Options options = null;
   private AudioSource audioSource;
   private VideoSource videoSource;
   private String preferredVideoCodec;
+  private SdpRewriter sdpRewriter;
+  private SimulcastConfig simulcast;
   private boolean videoCapturerStopped;
-  private boolean isError;
-  private Timer statsTimer;
+  // Set when the factory or local media fail, which stops every connection.
+  private volatile boolean isError;
+  private final StatsScheduler statsScheduler;
+  private final StatsEngine statsEngine = new StatsEngine();
+  private final WarmPool<JanusConnection> warmConnections;
+  private final NativeResources resources = new NativeResources();
+  private volatile int minSendKbps = DEFAULT_MIN_SEND_KBPS;
+  private volatile int maxSendKbps = DEFAULT_MAX_SEND_KBPS;
   private VideoRenderer.Callbacks localRender;
   private MediaConstraints pcConstraints;
   private int videoWidth;
@@ -83,10 +97,8 @@ public class PeerConnectionClient {
   private MediaStream mediaStream;
   private VideoCapturer videoCapturer;
   // enableVideo is set to true if video should be rendered and sent.
-  private boolean renderVideo;
+  private volatile boolean renderVideo;
   private VideoTrack localVideoTrack;
-  private VideoTrack remoteVideoTrack;
-  private RtpSender localVideoSender;
   // enableAudio is set to true if audio should be sent.
   private boolean enableAudio;
   private AudioTrack localAudioTrack;
@@ -129,21 +141,24 @@ public class PeerConnectionClient {
   }
 
   /**
-   * Peer connection events.
+   * Peer connection events. Events for one connection arrive in order on
+   * that connection's thread; different connections may call back at the
+   * same time.
    */
   public interface PeerConnectionEvents {
     /**
      * Callback fired once local SDP is created and set.
      */
-    void onLocalDescription(final SessionDescription sdp, final BigInteger handleId);
+    void onLocalDescription(final SessionDescription sdp, final long handleId);
 
 
-    void onRemoteDescription(final SessionDescription sdp, final BigInteger handleId);
+    void onRemoteDescription(final SessionDescription sdp, final long handleId);
 
     /**
-     * Callback fired once local Ice candidate is generated.
+     * Callback fired once local Ice candidate is generated. A null candidate
+     * signals that gathering has completed for the handle.
      */
-    void onIceCandidate(final IceCandidate candidate, final BigInteger handleId);
+    void onIceCandidate(final IceCandidate candidate, final long handleId);
 
     /**
      * Callback fired once local ICE candidates are removed.
@@ -168,24 +183,87 @@ public class PeerConnectionClient {
     void onPeerConnectionClosed();
 
     /**
-     * Callback fired once peer connection statistics is ready.
+     * Callback fired once peer connection statistics is ready. The typed
+     * stats in {@link PeerConnectionClient#getStatsEngine()} have already been updated from it.
      */
-    void onPeerConnectionStatsReady(final StatsReport[] reports);
+    void onPeerConnectionStatsReady(final StatsBatch batch);
 
     /**
-     * Callback fired once peer connection error happened.
+     * Callback fired once peer connection error happened. An error on one
+     * connection is reported once and only stops that connection.
      */
     void onPeerConnectionError(final String description);
 
+    /**
+     * Callback fired when a new send bitrate cap could not be set on the
+     * sender itself. Pass it on to the gateway with a configure request.
+     */
+    void onSendBitrateLimit(final long handleId, final int maxBitrateBps);
+
     void onRemoteRender(JanusConnection connection);
+
+    /**
+     * Callback fired for every remote video track, with the mid it arrived
+     * on. A multistream subscriber has one per feed; pass the mid to
+     * {@link WebSocketChannel#feedForMid} to learn which.
+     */
+    void onRemoteVideoTrack(long handleId, String mid);
   }
 
   private PeerConnectionClient() {
-    // Executor thread is started once in private ctor and is used for all
-    // peer connection API calls to ensure new peer connection factory is
+    // Executor thread is started once in private ctor and is used for the
+    // factory and local media to ensure new peer connection factory is
     // created on the same thread as previously destroyed factory.
     executor = Executors.newSingleThreadScheduledExecutor();
-    peerConnectionMap = new ConcurrentHashMap<>();
+    // Each connection's calls and callbacks run in order on a lane of its own,
+    // so one slow or failing connection does not hold up the others.
+    connections = new SignalingExecutor(
+        SignalingExecutor.newPool(SignalingExecutor.DEFAULT_THREADS, "pc-connection"));
+    peerConnectionMap = new HandleRegistry<>();
+    // Warm connections are created and disposed on the factory thread, which also disposes the factory.
+    warmConnections = new WarmPool<>(executor, new WarmPool.Factory<JanusConnection>() {
+      @Override
+      public JanusConnection create() {
+        return factory == null || isError ? null : newConnection();
+      }
+
+      @Override
+      public void dispose(JanusConnection connection) {
+        disposeConnection(connection);
+      }
+    });
+    warmConnections.setSize(DEFAULT_WARM_CONNECTIONS);
+    statsScheduler = new StatsScheduler(executor, new StatsScheduler.Source() {
+      @Override
+      public long[] handles() {
+        List<JanusConnection> open = peerConnectionMap.values();
+        long[] handles = new long[open.size()];
+        for (int i = 0; i < handles.length; i++) {
+          handles[i] = open.get(i).handleId;
+        }
+        return handles;
+      }
+
+      @Override
+      public boolean sample(final long handleId, final StatsScheduler.Sample sample) {
+        execute(handleId, new Runnable() {
+          @Override
+          public void run() {
+            getStats(handleId, sample);
+          }
+        });
+        return true;
+      }
+    }, new StatsScheduler.Listener() {
+      @Override
+      public void onStats(StatsBatch batch) {
+        statsEngine.update(batch);
+        for (long handleId : batch.handleIds) {
+          adaptSendBitrate(handleId);
+        }
+        events.onPeerConnectionStatsReady(batch);
+      }
+    });
   }
 
   public static PeerConnectionClient getInstance() {
@@ -196,6 +274,50 @@ public class PeerConnectionClient {
     this.options = options;
   }
 
+  /**
+   * Sets how local descriptions are rewritten before they are set and
+   * signaled. Call before {@link #createPeerConnectionFactory}; by default
+   * only the preferred codecs and Janus's header extensions are kept.
+   */
+  public void setSdpRewriter(SdpRewriter sdpRewriter) {
+    this.sdpRewriter = sdpRewriter;
+  }
+
+  /**
+   * Publishes video as simulcast layers, or as one stream when null. Call
+   * before {@link #createPeerConnectionFactory}. Only VP8 is sent this way;
+   * a custom {@link SdpRewriter} must ask for the layers itself. Subscribers
+   * then pick a layer with the videoroom's substream.
+   */
+  public void setSimulcast(SimulcastConfig simulcast) {
+    this.simulcast = simulcast;
+  }
+
+  /**
+   * Sets how many peer connections are kept ready ahead of new handles,
+   * with their ICE candidates, TURN allocations included, already gathered.
+   * Each costs memory and a relay allocation while it waits; 0 turns the
+   * pool off.
+   */
+  public void setWarmConnections(int count) {
+    warmConnections.setSize(count);
+  }
+
+  /** How many handles were given a warm connection. */
+  public long getWarmConnectionHits() {
+    return warmConnections.hits();
+  }
+
+  /** How many handles found the pool empty and had to create their own connection. */
+  public long getWarmConnectionMisses() {
+    return warmConnections.misses();
+  }
+
+  /** Live and total counts of the native objects this client holds. */
+  public NativeResources getNativeResources() {
+    return resources;
+  }
+
   public void createPeerConnectionFactory(final Context context,
       final PeerConnectionParameters peerConnectionParameters, final PeerConnectionEvents events) {
     this.peerConnectionParameters = peerConnectionParameters;
@@ -209,11 +331,8 @@ public class PeerConnectionClient {
     videoCapturer = null;
     renderVideo = true;
     localVideoTrack = null;
-    remoteVideoTrack = null;
-    localVideoSender = null;
     enableAudio = true;
     localAudioTrack = null;
-    statsTimer = new Timer();
 
     executor.execute(new Runnable() {
       @Override
@@ -225,7 +344,7 @@ public class PeerConnectionClient {
 
   public void createPeerConnection(final EglBase.Context renderEGLContext,
                                    final VideoRenderer.Callbacks localRender,
-                                   final VideoCapturer videoCapturer, final BigInteger handleId) {
+                                   final VideoCapturer videoCapturer, final long handleId) {
     if (peerConnectionParameters == null) {
       Log.e(TAG, "Creating peer connection without initializing factory.");
       return;
@@ -235,13 +354,26 @@ public class PeerConnectionClient {
     executor.execute(new Runnable() {
       @Override
       public void run() {
+        final MediaStream stream;
         try {
-          createMediaConstraintsInternal();
-          createPeerConnectionInternal(renderEGLContext, handleId);
+          stream = createLocalMediaStreamInternal(renderEGLContext);
         } catch (Exception e) {
           reportError("Failed to create peer connection: " + e.getMessage());
           throw e;
         }
+        if (stream == null) {
+          return;
+        }
+        execute(handleId, new Runnable() {
+          @Override
+          public void run() {
+            JanusConnection connection = createPeerConnection(handleId, true);
+            connection.bitrateController = new BitrateController(minSendKbps,
+                simulcast != null ? simulcast.totalBitrate() : maxSendKbps);
+            connection.peerConnection.addStream(stream);
+            findVideoSender(connection);
+          }
+        });
       }
     });
   }
@@ -279,6 +411,14 @@ public class PeerConnectionClient {
       }
     }
     Log.d(TAG, "Pereferred video codec: " + preferredVideoCodec);
+    if (sdpRewriter == null) {
+      sdpRewriter = SdpRewriter.forCodecs(preferredVideoCodec,
+          peerConnectionParameters.audioCodec != null ? peerConnectionParameters.audioCodec : "opus",
+          peerConnectionParameters.audioStartBitrate);
+      if (simulcast != null) {
+        sdpRewriter.setSimulcast(simulcast.layerCount());
+      }
+    }
 
     // Enable/disable OpenSL ES playback.
     if (!peerConnectionParameters.useOpenSLES) {
@@ -322,8 +462,10 @@ public class PeerConnectionClient {
       Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
     }
     this.context = context;
+    createMediaConstraintsInternal();
     factory = new PeerConnectionFactory(options);
     Log.d(TAG, "Peer connection factory created.");
+    warmConnections.fill();
   }
 
   private void createMediaConstraintsInternal() {
@@ -371,36 +513,53 @@ public class PeerConnectionClient {
             new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "true"));
   }
 
-  private PeerConnection createPeerConnection(BigInteger handleId, boolean type) {
+  /** Gives {@code handleId} a connection, a warm one if the pool has any. Runs on the handle's lane. */
+  private JanusConnection createPeerConnection(long handleId, boolean type) {
+    JanusConnection janusConnection = warmConnections.take();
+    if (janusConnection == null) {
+      janusConnection = newConnection();
+    } else {
+      Log.d(TAG, "Using a warm peer connection for " + handleId);
+    }
+    janusConnection.handleId = handleId;
+    janusConnection.type = type;
+    peerConnectionMap.put(handleId, janusConnection);
+    return janusConnection;
+  }
+
+  /**
+   * A connection not bound to a handle yet. It starts gathering candidates
+   * right away, so a warm one has its relay allocated before it is used;
+   * candidates are only signaled once a description is set.
+   */
+  private JanusConnection newConnection() {
     Log.d(TAG, "Create peer connection.");
     PeerConnection.IceServer iceServer = new PeerConnection.IceServer("turn:xxx.xxx.xx.xx:xxx", "ling", "ling1234");
     List<PeerConnection.IceServer> iceServers = new ArrayList<>();
     iceServers.add(iceServer);
     PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
     rtcConfig.iceTransportsType = PeerConnection.IceTransportsType.RELAY;
+    rtcConfig.iceCandidatePoolSize = ICE_CANDIDATE_POOL_SIZE;
 
     PCObserver pcObserver = new PCObserver();
     SDPObserver sdpObserver = new SDPObserver();
     PeerConnection peerConnection = factory.createPeerConnection(rtcConfig, pcConstraints, pcObserver);
+    resources.onCreated(NativeResources.PEER_CONNECTIONS);
 
     JanusConnection janusConnection = new JanusConnection();
-    janusConnection.handleId = handleId;
     janusConnection.sdpObserver = sdpObserver;
     janusConnection.peerConnection = peerConnection;
-    janusConnection.type = type;
-
-    peerConnectionMap.put(handleId, janusConnection);
     pcObserver.setConnection(janusConnection);
     sdpObserver.setConnection(janusConnection);
     Log.d(TAG, "Peer connection created.");
-    return peerConnection;
+    return janusConnection;
   }
 
-
-  private void createPeerConnectionInternal(EglBase.Context renderEGLContext, BigInteger handleId) {
+  /** Builds the local stream on the factory thread; the publisher's connection adds it on its own lane. */
+  private MediaStream createLocalMediaStreamInternal(EglBase.Context renderEGLContext) {
     if (factory == null || isError) {
       Log.e(TAG, "Peerconnection factory is not created");
-      return;
+      return null;
     }
 
     Log.d(TAG, "PCConstraints: " + pcConstraints.toString());
@@ -408,26 +567,76 @@ public class PeerConnectionClient {
     Log.d(TAG, "EGLContext: " + renderEGLContext);
     factory.setVideoHwAccelerationOptions(renderEGLContext, renderEGLContext);
 
-    PeerConnection peerConnection = createPeerConnection(handleId, true);
-
     mediaStream = factory.createLocalMediaStream("ARDAMS");
     mediaStream.addTrack(createVideoTrack(videoCapturer));
 
     mediaStream.addTrack(createAudioTrack());
-    peerConnection.addStream(mediaStream);
-    findVideoSender(handleId);
+    return mediaStream;
   }
 
-  private void closeInternal() {
-    Log.d(TAG, "Closing peer connection.");
-    statsTimer.cancel();
+  /**
+   * Runs {@code task} on the lane of {@code handleId} once everything already
+   * queued on the factory thread has run, so it never sees the factory
+   * before it is created. Calls for one handle keep their order.
+   */
+  private void executeAfterFactory(final long handleId, final Runnable task) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        execute(handleId, task);
+      }
+    });
+  }
 
-    if (peerConnectionMap != null) {
-      for (Map.Entry<BigInteger, JanusConnection> entry: peerConnectionMap.entrySet()) {
-        if (entry.getValue().peerConnection != null) {
-          entry.getValue().peerConnection.dispose();
+  /** Runs {@code task} on the lane of {@code handleId}; if it throws, only that connection fails. */
+  private void execute(final long handleId, final Runnable task) {
+    connections.execute(handleId, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Peer connection " + handleId + " failed", e);
+          JanusConnection connection = peerConnectionMap.get(handleId);
+          if (connection != null) {
+            reportError(connection, e.toString());
+          }
         }
       }
+    });
+  }
+
+  /** Whether work for {@code connection} should still go ahead. */
+  private boolean isActive(JanusConnection connection) {
+    return connection != null && connection.peerConnection != null && !connection.failed && !isError;
+  }
+
+  private void closeInternal() {
+    Log.d(TAG, "Closing peer connection.");
+    statsScheduler.stop();
+    warmConnections.clear();
+
+    // Each connection is disposed on its own lane, after whatever it is doing.
+    List<JanusConnection> open = peerConnectionMap.values();
+    peerConnectionMap.clear();
+    final CountDownLatch disposed = new CountDownLatch(open.size());
+    for (final JanusConnection connection : open) {
+      connections.execute(connection.handleId, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            statsEngine.remove(connection.handleId);
+            disposeConnection(connection);
+          } finally {
+            disposed.countDown();
+          }
+        }
+      });
+    }
+    try {
+      disposed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
     Log.d(TAG, "Closing audio source.");
     if (audioSource != null) {
@@ -462,43 +671,234 @@ public class PeerConnectionClient {
     PeerConnectionFactory.shutdownInternalTracer();
   }
 
+  /**
+   * Tears down the connection of a handle that went away: detaches its
+   * renderers, disposes the peer connection with its tracks and decoders,
+   * and forgets its stats. A used connection cannot be handed to another
+   * handle, so nothing goes back to the warm pool; the pool makes fresh
+   * ones instead.
+   */
+  public void disposeConnection(final long handleId) {
+    execute(handleId, new Runnable() {
+      @Override
+      public void run() {
+        JanusConnection connection = peerConnectionMap.get(handleId);
+        if (connection == null) {
+          return;
+        }
+        Log.d(TAG, "Disposing peer connection of " + handleId);
+        peerConnectionMap.remove(handleId, connection);
+        statsEngine.remove(handleId);
+        disposeConnection(connection);
+        Log.d(TAG, "Native resources: " + resources);
+      }
+    });
+  }
+
+  /**
+   * Draws the remote video of {@code handleId} on {@code callbacks}, until
+   * the track or the handle's connection goes away. Call from
+   * {@link PeerConnectionEvents#onRemoteRender}.
+   */
+  public void addRemoteRenderer(long handleId, VideoRenderer.Callbacks callbacks) {
+    addRemoteRenderer(handleId, null, callbacks);
+  }
+
+  /**
+   * Draws the remote track that arrived on {@code mid} of a multistream
+   * subscriber's connection, as reported by
+   * {@link PeerConnectionEvents#onRemoteVideoTrack}; a null mid means its
+   * first track.
+   */
+  public void addRemoteRenderer(final long handleId, final String mid,
+      final VideoRenderer.Callbacks callbacks) {
+    execute(handleId, new Runnable() {
+      @Override
+      public void run() {
+        JanusConnection connection = peerConnectionMap.get(handleId);
+        if (!isActive(connection)) {
+          return;
+        }
+        VideoTrack track = mid == null ? connection.videoTrack : connection.remoteTracks.get(mid);
+        if (track == null) {
+          return;
+        }
+        VideoRenderer renderer = new VideoRenderer(callbacks);
+        track.addRenderer(renderer);
+        connection.renderers.put(renderer, track);
+        resources.onCreated(NativeResources.RENDERERS);
+      }
+    });
+  }
+
+  /** Releases everything {@code connection} holds; on its lane, or before it has one. */
+  private void disposeConnection(JanusConnection connection) {
+    releaseVideoTrack(connection);
+    if (connection.peerConnection != null) {
+      connection.peerConnection.dispose();
+      connection.peerConnection = null;
+      resources.onReleased(NativeResources.PEER_CONNECTIONS);
+    }
+  }
+
+  /** Lets go of every remote track of {@code connection}. */
+  private void releaseVideoTrack(JanusConnection connection) {
+    releaseVideoTracks(connection, new ArrayList<>(connection.remoteTracks.values()));
+  }
+
+  /**
+   * Detaches the renderers of these remote tracks and forgets them; the
+   * tracks themselves go with their peer connection.
+   */
+  private void releaseVideoTracks(JanusConnection connection, List<VideoTrack> tracks) {
+    for (VideoTrack track : tracks) {
+      if (!connection.remoteTracks.values().remove(track)) {
+        continue;
+      }
+      Iterator<Map.Entry<VideoRenderer, VideoTrack>> it = connection.renderers.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<VideoRenderer, VideoTrack> entry = it.next();
+        if (entry.getValue() == track) {
+          // Removing a renderer also disposes it.
+          track.removeRenderer(entry.getKey());
+          it.remove();
+          resources.onReleased(NativeResources.RENDERERS);
+        }
+      }
+      resources.onReleased(NativeResources.VIDEO_TRACKS);
+    }
+    connection.videoTrack = connection.remoteTracks.isEmpty()
+        ? null : connection.remoteTracks.values().iterator().next();
+  }
+
   public boolean isHDVideo() {
     return videoWidth * videoHeight >= HD_VIDEO_WIDTH * HD_VIDEO_HEIGHT;
   }
 
-  private void getStats(final BigInteger handleId) {
-    PeerConnection peerConnection = peerConnectionMap.get(handleId).peerConnection;
-    boolean success = peerConnection.getStats(new StatsObserver() {
+  private void getStats(long handleId, final StatsScheduler.Sample sample) {
+    JanusConnection connection = peerConnectionMap.get(handleId);
+    if (!isActive(connection)) {
+      sample.complete(null);
+      return;
+    }
+    boolean success = connection.peerConnection.getStats(new StatsObserver() {
       @Override
       public void onComplete(final StatsReport[] reports) {
-        events.onPeerConnectionStatsReady(reports);
+        sample.complete(reports);
       }
     }, null);
     if (!success) {
       Log.e(TAG, "getStats() returns false!");
+      sample.complete(null);
     }
   }
 
-  public void enableStatsEvents(boolean enable, int periodMs, final BigInteger handleId) {
+  /** Typed stats of every connection, updated on each stats round. */
+  public StatsEngine getStatsEngine() {
+    return statsEngine;
+  }
+
+  /**
+   * Samples every connection's stats together, every {@code periodMs} and
+   * more often while a connection is new or its ICE state has dropped, and
+   * delivers each round as one {@link StatsBatch}. Connections are added and
+   * removed as they come and go. Can be turned off and on again.
+   */
+  public void enableStatsEvents(boolean enable, int periodMs) {
     if (enable) {
-      try {
-        statsTimer.schedule(new TimerTask() {
-          @Override
-          public void run() {
-            executor.execute(new Runnable() {
-              @Override
-              public void run() {
-                getStats(handleId);
-              }
-            });
+      statsScheduler.start(periodMs);
+    } else {
+      statsScheduler.stop();
+    }
+  }
+
+  /**
+   * Sets the range the publisher's send bitrate cap moves in as the uplink
+   * gets worse or better. Applies to publishers created afterwards.
+   */
+  public void setSendBitrateRange(int minKbps, int maxKbps) {
+    minSendKbps = minKbps;
+    maxSendKbps = maxKbps;
+  }
+
+  /** The gateway reported loss on what {@code handleId} sends; backs off its bitrate. */
+  public void onSlowLink(final long handleId, int lost) {
+    Log.d(TAG, "Slow link on " + handleId + ", lost " + lost);
+    statsScheduler.boost(handleId);
+    final double sentKbps = sentVideoKbps(handleId);
+    execute(handleId, new Runnable() {
+      @Override
+      public void run() {
+        JanusConnection connection = peerConnectionMap.get(handleId);
+        if (isActive(connection) && connection.bitrateController != null) {
+          applySendBitrate(connection,
+              connection.bitrateController.onSlowLink(System.currentTimeMillis(), sentKbps));
+        }
+      }
+    });
+  }
+
+  /** Feeds the latest stats of a publisher to its bitrate controller, on the publisher's lane. */
+  private void adaptSendBitrate(final long handleId) {
+    ConnectionStats stats = statsEngine.connection(handleId);
+    TrackStats video = stats == null ? null : stats.video(true);
+    if (video == null || !video.hasRates()) {
+      return;
+    }
+    final double loss = video.packetLossPercent;
+    final double rtt = video.rttMs > 0 ? video.rttMs : stats.rttMs;
+    final double sentKbps = video.bitrateKbps;
+    execute(handleId, new Runnable() {
+      @Override
+      public void run() {
+        JanusConnection connection = peerConnectionMap.get(handleId);
+        if (isActive(connection) && connection.bitrateController != null) {
+          applySendBitrate(connection,
+              connection.bitrateController.onStats(System.currentTimeMillis(), loss, rtt, sentKbps));
+        }
+      }
+    });
+  }
+
+  private double sentVideoKbps(long handleId) {
+    ConnectionStats stats = statsEngine.connection(handleId);
+    TrackStats video = stats == null ? null : stats.video(true);
+    return video == null ? 0 : video.bitrateKbps;
+  }
+
+  /**
+   * Caps the video encodings at {@code kbps}, or has the gateway do it if
+   * the sender cannot. Simulcast layers share the cap lowest first, and
+   * layers left without any are turned off until it grows back.
+   */
+  private void applySendBitrate(JanusConnection connection, int kbps) {
+    if (kbps == 0) {
+      return;
+    }
+    Log.d(TAG, "Send bitrate cap for " + connection.handleId + ": " + kbps + " kbps");
+    RtpSender sender = connection.videoSender;
+    RtpParameters parameters = sender == null ? null : sender.getParameters();
+    if (parameters != null && !parameters.encodings.isEmpty()) {
+      List<RtpParameters.Encoding> encodings = parameters.encodings;
+      if (simulcast != null && encodings.size() == simulcast.layerCount()) {
+        int[] layers = simulcast.split(kbps);
+        for (int i = 0; i < layers.length; i++) {
+          RtpParameters.Encoding encoding = encodings.get(i);
+          encoding.active = i == 0 || layers[i] > 0;
+          if (layers[i] > 0) {
+            encoding.maxBitrateBps = layers[i] * 1000;
           }
-        }, 0, periodMs);
-      } catch (Exception e) {
-        Log.e(TAG, "Can not schedule statistics timer", e);
+        }
+      } else {
+        for (RtpParameters.Encoding encoding : encodings) {
+          encoding.maxBitrateBps = kbps * 1000;
+        }
+      }
+      if (sender.setParameters(parameters)) {
+        return;
       }
-    } else {
-      statsTimer.cancel();
     }
+    events.onSendBitrateLimit(connection.handleId, kbps * 1000);
   }
 
   public void setAudioEnabled(final boolean enable) {
@@ -521,54 +921,68 @@ public class PeerConnectionClient {
         if (localVideoTrack != null) {
           localVideoTrack.setEnabled(renderVideo);
         }
-        if (remoteVideoTrack != null) {
-          remoteVideoTrack.setEnabled(renderVideo);
-        }
       }
     });
+    for (final JanusConnection connection : peerConnectionMap.values()) {
+      execute(connection.handleId, new Runnable() {
+        @Override
+        public void run() {
+          if (connection.peerConnection != null) {
+            for (VideoTrack track : connection.remoteTracks.values()) {
+              track.setEnabled(enable);
+            }
+          }
+        }
+      });
+    }
   }
 
-  public void createOffer(final BigInteger handleId) {
-    executor.execute(new Runnable() {
+  public void createOffer(final long handleId) {
+    executeAfterFactory(handleId, new Runnable() {
       @Override
       public void run() {
         JanusConnection connection = peerConnectionMap.get(handleId);
-        PeerConnection peerConnection = connection.peerConnection;
-        if (peerConnection != null && !isError) {
+        if (isActive(connection)) {
           Log.d(TAG, "PC Create OFFER");
-          peerConnection.createOffer(connection.sdpObserver, sdpMediaConstraints);
+          connection.peerConnection.createOffer(connection.sdpObserver, sdpMediaConstraints);
         }
       }
     });
   }
 
-  public void setRemoteDescription(final BigInteger handleId, final SessionDescription sdp) {
-    executor.execute(new Runnable() {
+  public void setRemoteDescription(final long handleId, final SessionDescription sdp) {
+    executeAfterFactory(handleId, new Runnable() {
       @Override
       public void run() {
-        PeerConnection peerConnection = peerConnectionMap.get(handleId).peerConnection;
-        SDPObserver sdpObserver = peerConnectionMap.get(handleId).sdpObserver;
-        if (peerConnection == null || isError) {
+        JanusConnection connection = peerConnectionMap.get(handleId);
+        if (!isActive(connection)) {
           return;
         }
-        peerConnection.setRemoteDescription(sdpObserver, sdp);
+        connection.sdpObserver.setRemoteDescription(sdp);
       }
     });
   }
 
-  public void subscriberHandleRemoteJsep(final BigInteger handleId, final SessionDescription sdp) {
-      executor.execute(new Runnable() {
+  public void subscriberHandleRemoteJsep(final long handleId, final SessionDescription sdp) {
+      executeAfterFactory(handleId, new Runnable() {
         @Override
         public void run() {
-          PeerConnection peerConnection = createPeerConnection(handleId, false);
-          SDPObserver sdpObserver = peerConnectionMap.get(handleId).sdpObserver;
-          if (peerConnection == null || isError) {
+          if (factory == null || isError) {
             return;
           }
+          // A later offer on the same handle renegotiates its connection, as a
+          // multistream subscriber's does whenever feeds come and go.
           JanusConnection connection = peerConnectionMap.get(handleId);
-          peerConnection.setRemoteDescription(sdpObserver, sdp);
+          if (connection == null) {
+            connection = createPeerConnection(handleId, false);
+          }
+          if (!isActive(connection)) {
+            return;
+          }
+          connection.midsByTrack = SdpRewriter.trackMids(sdp.description);
+          connection.sdpObserver.setRemoteDescription(sdp);
           Log.d(TAG, "PC create ANSWER");
-          peerConnection.createAnswer(connection.sdpObserver, sdpMediaConstraints);
+          connection.peerConnection.createAnswer(connection.sdpObserver, sdpMediaConstraints);
         }
       });
   }
@@ -602,6 +1016,20 @@ public class PeerConnectionClient {
     });
   }
 
+  /** Reports an error on one connection once and stops only that connection. */
+  private void reportError(final JanusConnection connection, final String errorMessage) {
+    Log.e(TAG, "Peerconnection error on handle " + connection.handleId + ": " + errorMessage);
+    execute(connection.handleId, new Runnable() {
+      @Override
+      public void run() {
+        if (!connection.failed) {
+          connection.failed = true;
+          events.onPeerConnectionError(errorMessage);
+        }
+      }
+    });
+  }
+
   private void reportError(final String errorMessage) {
     Log.e(TAG, "Peerconnection error: " + errorMessage);
     executor.execute(new Runnable() {
@@ -632,14 +1060,13 @@ public class PeerConnectionClient {
     return localVideoTrack;
   }
 
-  private void findVideoSender(final BigInteger handleId) {
-    PeerConnection peerConnection = peerConnectionMap.get(handleId).peerConnection;
-    for (RtpSender sender : peerConnection.getSenders()) {
+  private void findVideoSender(JanusConnection connection) {
+    for (RtpSender sender : connection.peerConnection.getSenders()) {
       if (sender.track() != null) {
         String trackType = sender.track().kind();
         if (trackType.equals(VIDEO_TRACK_TYPE)) {
           Log.d(TAG, "Found video sender.");
-          localVideoSender = sender;
+          connection.videoSender = sender;
         }
       }
     }
@@ -686,14 +1113,12 @@ public class PeerConnectionClient {
   // Implementation detail: observe ICE & stream changes and react accordingly.
   private class PCObserver implements PeerConnection.Observer {
     private JanusConnection connection;
-    private PeerConnection peerConnection;
     public void setConnection(JanusConnection connection) {
       this.connection = connection;
-      this.peerConnection = connection.peerConnection;
     }
     @Override
     public void onIceCandidate(final IceCandidate candidate) {
-      executor.execute(new Runnable() {
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
           events.onIceCandidate(candidate, connection.handleId);
@@ -703,7 +1128,7 @@ public class PeerConnectionClient {
 
     @Override
     public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
-      executor.execute(new Runnable() {
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
           events.onIceCandidatesRemoved(candidates);
@@ -718,16 +1143,17 @@ public class PeerConnectionClient {
 
     @Override
     public void onIceConnectionChange(final PeerConnection.IceConnectionState newState) {
-      executor.execute(new Runnable() {
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
           Log.d(TAG, "IceConnectionState: " + newState);
           if (newState == IceConnectionState.CONNECTED) {
             events.onIceConnected();
           } else if (newState == IceConnectionState.DISCONNECTED) {
+            statsScheduler.boost(connection.handleId);
             events.onIceDisconnected();
           } else if (newState == IceConnectionState.FAILED) {
-            reportError("ICE connection failed.");
+            reportError(connection, "ICE connection failed.");
           }
         }
       });
@@ -736,6 +1162,14 @@ public class PeerConnectionClient {
     @Override
     public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
       Log.d(TAG, "IceGatheringState: " + newState);
+      if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+        execute(connection.handleId, new Runnable() {
+          @Override
+          public void run() {
+            events.onIceCandidate(null, connection.handleId);
+          }
+        });
+      }
     }
 
     @Override
@@ -745,18 +1179,31 @@ public class PeerConnectionClient {
 
     @Override
     public void onAddStream(final MediaStream stream) {
-      executor.execute(new Runnable() {
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
-          if (peerConnection == null || isError) {
+          if (!isActive(connection)) {
             return;
           }
           Log.d(TAG, "=========== onAddStream ==========");
-          if (stream.videoTracks.size() == 1) {
-            remoteVideoTrack = stream.videoTracks.get(0);
-            remoteVideoTrack.setEnabled(true);
-            connection.videoTrack = remoteVideoTrack;
-            events.onRemoteRender(connection);
+          for (VideoTrack track : stream.videoTracks) {
+            String mid = connection.midsByTrack.get(track.id());
+            if (mid == null) {
+              mid = track.id();
+            }
+            VideoTrack replaced = connection.remoteTracks.get(mid);
+            if (replaced != null) {
+              releaseVideoTracks(connection, Collections.singletonList(replaced));
+            }
+            boolean first = connection.remoteTracks.isEmpty();
+            connection.remoteTracks.put(mid, track);
+            resources.onCreated(NativeResources.VIDEO_TRACKS);
+            track.setEnabled(true);
+            if (first) {
+              connection.videoTrack = track;
+              events.onRemoteRender(connection);
+            }
+            events.onRemoteVideoTrack(connection.handleId, mid);
           }
         }
       });
@@ -764,10 +1211,10 @@ public class PeerConnectionClient {
 
     @Override
     public void onRemoveStream(final MediaStream stream) {
-      executor.execute(new Runnable() {
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
-          remoteVideoTrack = null;
+          releaseVideoTracks(connection, new ArrayList<>(stream.videoTracks));
         }
       });
     }
@@ -791,28 +1238,31 @@ public class PeerConnectionClient {
   }
 
   class SDPObserver implements SdpObserver {
-    private PeerConnection peerConnection;
-    private SDPObserver sdpObserver;
-    private BigInteger handleId;
+    private JanusConnection connection;
     private SessionDescription localSdp;
-    private boolean type;
+    private final DescriptionSets sets = new DescriptionSets();
     public void setConnection(JanusConnection connection) {
-      this.peerConnection = connection.peerConnection;
-      this.sdpObserver = connection.sdpObserver;
-      this.handleId = connection.handleId;
-      this.type = connection.type;
+      this.connection = connection;
+    }
+
+    /** Sets the remote description; call on the connection's lane. */
+    void setRemoteDescription(SessionDescription sdp) {
+      sets.settingRemote();
+      connection.peerConnection.setRemoteDescription(this, sdp);
     }
     @Override
     public void onCreateSuccess(final SessionDescription origSdp) {
       Log.e(TAG, "SDP on create success");
-      final SessionDescription sdp = new SessionDescription(origSdp.type, origSdp.description);
-      localSdp = sdp;
-      executor.execute(new Runnable() {
+      final SessionDescription sdp = new SessionDescription(origSdp.type,
+          sdpRewriter.rewrite(origSdp.description));
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
-          if (peerConnection != null && !isError) {
+          localSdp = sdp;
+          if (isActive(connection)) {
             Log.d(TAG, "Set local SDP from " + sdp.type);
-            peerConnection.setLocalDescription(sdpObserver, sdp);
+            sets.settingLocal();
+            connection.peerConnection.setLocalDescription(SDPObserver.this, sdp);
           }
         }
       });
@@ -820,23 +1270,27 @@ public class PeerConnectionClient {
 
     @Override
     public void onSetSuccess() {
-      executor.execute(new Runnable() {
+      // Taken here, in completion order, rather than on the lane.
+      final boolean local = sets.completed();
+      execute(connection.handleId, new Runnable() {
         @Override
         public void run() {
-          if (peerConnection == null || isError) {
+          if (!isActive(connection)) {
             return;
           }
-          if (type) {
-            if (peerConnection.getRemoteDescription() == null) {
+          if (connection.type) {
+            if (local) {
               Log.d(TAG, "Local SDP set succesfully");
-              events.onLocalDescription(localSdp, handleId);
+              events.onLocalDescription(localSdp, connection.handleId);
             } else {
               Log.d(TAG, "Remote SDP set succesfully");
             }
           } else {
-            if (peerConnection.getLocalDescription() != null) {
+            // Once per offer: a renegotiating offer is set on top of the
+            // previous answer, which must not be sent again.
+            if (local) {
               Log.d(TAG, "answer Local SDP set succesfully");
-              events.onRemoteDescription(localSdp, handleId);
+              events.onRemoteDescription(localSdp, connection.handleId);
             } else {
               Log.d(TAG, "answer Remote SDP set succesfully");
             }
@@ -847,12 +1301,13 @@ public class PeerConnectionClient {
 
     @Override
     public void onCreateFailure(final String error) {
-      reportError("createSDP error: " + error);
+      reportError(connection, "createSDP error: " + error);
     }
 
     @Override
     public void onSetFailure(final String error) {
-      reportError("setSDP error: " + error);
+      sets.completed();
+      reportError(connection, "setSDP error: " + error);
     }
   }
 }
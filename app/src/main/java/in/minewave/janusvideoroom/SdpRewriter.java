@@ -0,0 +1,572 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Shrinks local SDPs before they are set and signaled. libwebrtc offers
+ * every codec, RTX payload and header extension it supports, though Janus
+ * picks a single codec per medium, so the rewriter keeps only the configured
+ * codecs and extensions and can add bitrate attributes to them.
+ *
+ * <p>Work is line based, a media section at a time. What to keep in a
+ * section depends only on its m-line and payload table, which are the same
+ * for every description a peer connection of this factory creates, so those
+ * decisions are cached and only the per-line filtering is redone.
+ *
+ * <p>For simulcast, a VP8 video section that sends is given extra ssrcs
+ * in an {@code a=ssrc-group:SIM} group, lowest layer first, which is how
+ * this libwebrtc is told to encode several layers. Other codecs are left
+ * with one layer: VP9 scales with SVC instead, and H.264 has no simulcast
+ * encoder here.
+ *
+ * <p>A rewriter with no rules returns descriptions unchanged. Configure it
+ * before it is used; the setters are not meant to race with {@link #rewrite}.
+ */
+public final class SdpRewriter {
+    /** Header extensions Janus understands; the rest are dropped when this list is used. */
+    public static final String[] JANUS_EXTENSIONS = {
+            "urn:ietf:params:rtp-hdrext:sdes:mid",
+            "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+            "urn:3gpp:video-orientation",
+            "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01",
+    };
+
+    private static final String CRLF = "\r\n";
+    private static final int PLAN_CACHE_SIZE = 16;
+
+    /** What survives of one media section. */
+    private static final class Plan {
+        final String mLine;
+        final boolean[] keep = new boolean[128];
+        // Payloads that get the bitrate attribute, and whether they already have an fmtp line.
+        final boolean[] primary = new boolean[128];
+        final boolean[] hasFmtp = new boolean[128];
+        final boolean dropRtxSsrcs;
+        // The codec listed first on the kept m-line, which is the one that gets used.
+        final String firstCodec;
+
+        Plan(String mLine, boolean dropRtxSsrcs, String firstCodec) {
+            this.mLine = mLine;
+            this.dropRtxSsrcs = dropRtxSsrcs;
+            this.firstCodec = firstCodec;
+        }
+    }
+
+    private Set<String> videoCodecs = new HashSet<>();
+    private Set<String> audioCodecs = new HashSet<>();
+    private Set<String> extensions = new HashSet<>();
+    private boolean stripRtx;
+    private int videoStartKbps;
+    private int videoMaxKbps;
+    private int audioKbps;
+    private int simulcastLayers;
+    private final Random random = new Random();
+    private int planHits;
+    private final Map<String, Plan> plans = new LinkedHashMap<String, Plan>(PLAN_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * The rewriter PeerConnectionClient uses unless told otherwise: one video
+     * and one audio codec, no RTX, Janus's extensions and the configured
+     * audio bitrate.
+     */
+    public static SdpRewriter forCodecs(String videoCodec, String audioCodec, int audioStartKbps) {
+        return new SdpRewriter()
+                .setVideoCodecs(videoCodec)
+                .setAudioCodecs(audioCodec)
+                .setExtensions(JANUS_EXTENSIONS)
+                .setStripRtx(true)
+                .setAudioBitrate(audioStartKbps);
+    }
+
+    /** Keeps only these video codecs, by rtpmap name; none keeps all. */
+    public SdpRewriter setVideoCodecs(String... names) {
+        videoCodecs = lowerCase(names);
+        return changed();
+    }
+
+    /** Keeps only these audio codecs, by rtpmap name; none keeps all. */
+    public SdpRewriter setAudioCodecs(String... names) {
+        audioCodecs = lowerCase(names);
+        return changed();
+    }
+
+    /** Keeps only these header extension URIs; none keeps all. */
+    public SdpRewriter setExtensions(String... uris) {
+        extensions = new HashSet<>(Arrays.asList(uris));
+        return changed();
+    }
+
+    /** Drops RTX payloads and the FID ssrc groups and ssrcs that go with them. */
+    public SdpRewriter setStripRtx(boolean stripRtx) {
+        this.stripRtx = stripRtx;
+        return changed();
+    }
+
+    /** Adds x-google start and max bitrates, in kbps, to the kept video codecs; 0 leaves one out. */
+    public SdpRewriter setVideoBitrate(int startKbps, int maxKbps) {
+        this.videoStartKbps = startKbps;
+        this.videoMaxKbps = maxKbps;
+        return changed();
+    }
+
+    /** Adds maxaveragebitrate to Opus; 0 leaves it out. */
+    public SdpRewriter setAudioBitrate(int kbps) {
+        this.audioKbps = kbps;
+        return changed();
+    }
+
+    /** Sends this many simulcast layers of VP8 video; 0 or 1 sends one. */
+    public SdpRewriter setSimulcast(int layers) {
+        this.simulcastLayers = layers;
+        return changed();
+    }
+
+    public String rewrite(String sdp) {
+        String[] lines = sdp.split("\r?\n");
+        StringBuilder out = new StringBuilder(sdp.length());
+        int i = 0;
+        while (i < lines.length && !lines[i].startsWith("m=")) {
+            append(out, lines[i++]);
+        }
+        while (i < lines.length) {
+            int end = i + 1;
+            while (end < lines.length && !lines[end].startsWith("m=")) {
+                end++;
+            }
+            rewriteSection(lines, i, end, out);
+            i = end;
+        }
+        return out.toString();
+    }
+
+    synchronized int planHits() {
+        return planHits;
+    }
+
+    /**
+     * Maps each track id named by an {@code a=msid} or {@code a=ssrc ... msid}
+     * line to the mid of its media section. Tracks of sections without a mid
+     * are left out.
+     */
+    static Map<String, String> trackMids(String sdp) {
+        Map<String, String> mids = new LinkedHashMap<>();
+        List<String> tracks = new ArrayList<>();
+        String mid = null;
+        for (String line : sdp.split("\r?\n")) {
+            if (line.startsWith("m=")) {
+                putMids(mids, tracks, mid);
+                mid = null;
+            } else if (line.startsWith("a=mid:")) {
+                mid = line.substring(6).trim();
+            } else if (line.startsWith("a=msid:")) {
+                addTrack(tracks, line.substring(7));
+            } else if (line.startsWith("a=ssrc:")) {
+                int msid = line.indexOf(" msid:");
+                if (msid > 0) {
+                    addTrack(tracks, line.substring(msid + 6));
+                }
+            }
+        }
+        putMids(mids, tracks, mid);
+        return mids;
+    }
+
+    /** Adds the track id of an msid value, "stream track". */
+    private static void addTrack(List<String> tracks, String msid) {
+        String[] ids = msid.trim().split(" ");
+        if (ids.length > 1 && !tracks.contains(ids[1])) {
+            tracks.add(ids[1]);
+        }
+    }
+
+    private static void putMids(Map<String, String> mids, List<String> tracks, String mid) {
+        if (mid != null) {
+            for (String track : tracks) {
+                mids.put(track, mid);
+            }
+        }
+        tracks.clear();
+    }
+
+    private void rewriteSection(String[] lines, int start, int end, StringBuilder out) {
+        String mLine = lines[start];
+        Plan plan = plan(lines, start, end);
+        if (plan == null) {
+            for (int i = start; i < end; i++) {
+                if (keepExtension(lines[i])) {
+                    append(out, lines[i]);
+                }
+            }
+            return;
+        }
+
+        Set<String> rtxSsrcs = null;
+        if (plan.dropRtxSsrcs) {
+            rtxSsrcs = new HashSet<>();
+            for (int i = start + 1; i < end; i++) {
+                if (lines[i].startsWith("a=ssrc-group:FID ")) {
+                    String[] ssrcs = lines[i].substring("a=ssrc-group:FID ".length()).split(" ");
+                    rtxSsrcs.addAll(Arrays.asList(ssrcs).subList(1, ssrcs.length));
+                }
+            }
+        }
+        String bitrate = mLine.startsWith("m=video") ? videoBitrate() : audioBitrate();
+        List<String> ssrcLines = simulcastLayers > 1 && "vp8".equals(plan.firstCodec)
+                ? new ArrayList<String>() : null;
+
+        append(out, plan.mLine);
+        for (int i = start + 1; i < end; i++) {
+            String line = lines[i];
+            int pt = payloadOf(line);
+            if (pt >= 0) {
+                if (!plan.keep[pt]) {
+                    continue;
+                }
+                if (line.startsWith("a=fmtp:") && plan.primary[pt] && bitrate != null) {
+                    append(out, line + ";" + bitrate);
+                    continue;
+                }
+                append(out, line);
+                if (line.startsWith("a=rtpmap:") && plan.primary[pt] && !plan.hasFmtp[pt] && bitrate != null) {
+                    append(out, "a=fmtp:" + pt + " " + bitrate);
+                }
+            } else if (!keepExtension(line)) {
+                continue;
+            } else if (rtxSsrcs != null && line.startsWith("a=ssrc-group:FID ")) {
+                continue;
+            } else if (rtxSsrcs != null && line.startsWith("a=ssrc:")
+                    && rtxSsrcs.contains(line.substring(7, ssrcEnd(line)))) {
+                continue;
+            } else if (ssrcLines != null && line.startsWith("a=ssrc")) {
+                ssrcLines.add(line);
+            } else {
+                append(out, line);
+            }
+        }
+        if (ssrcLines != null) {
+            appendSimulcast(out, ssrcLines);
+        }
+    }
+
+    /**
+     * Writes the section's ssrc lines with the sending ssrc, and its RTX
+     * ssrc if any, repeated for each simulcast layer under new ssrcs.
+     */
+    private void appendSimulcast(StringBuilder out, List<String> lines) {
+        Map<String, String> rtxOf = new LinkedHashMap<>();
+        Set<String> used = new HashSet<>();
+        for (String line : lines) {
+            if (line.startsWith("a=ssrc-group:SIM ")) {
+                // Already simulcast, e.g. a description that went through here before.
+                for (String l : lines) {
+                    append(out, l);
+                }
+                return;
+            } else if (line.startsWith("a=ssrc-group:FID ")) {
+                String[] ssrcs = line.substring("a=ssrc-group:FID ".length()).split(" ");
+                if (ssrcs.length == 2) {
+                    rtxOf.put(ssrcs[0], ssrcs[1]);
+                }
+            } else if (line.startsWith("a=ssrc:")) {
+                used.add(line.substring(7, ssrcEnd(line)));
+            }
+        }
+        String primary = null;
+        for (String line : lines) {
+            if (line.startsWith("a=ssrc:")) {
+                String ssrc = line.substring(7, ssrcEnd(line));
+                if (!rtxOf.containsValue(ssrc)) {
+                    primary = ssrc;
+                    break;
+                }
+            }
+        }
+        if (primary == null) {
+            // Nothing is sent in this section.
+            for (String l : lines) {
+                append(out, l);
+            }
+            return;
+        }
+        String rtx = rtxOf.get(primary);
+        String[] layers = new String[simulcastLayers];
+        String[] rtxLayers = new String[simulcastLayers];
+        layers[0] = primary;
+        rtxLayers[0] = rtx;
+        for (int i = 1; i < simulcastLayers; i++) {
+            layers[i] = newSsrc(used);
+            rtxLayers[i] = rtx == null ? null : newSsrc(used);
+        }
+
+        StringBuilder sim = new StringBuilder("a=ssrc-group:SIM");
+        for (String ssrc : layers) {
+            sim.append(' ').append(ssrc);
+        }
+        append(out, sim.toString());
+        for (int i = 0; i < simulcastLayers; i++) {
+            if (rtxLayers[i] != null) {
+                append(out, "a=ssrc-group:FID " + layers[i] + " " + rtxLayers[i]);
+            }
+        }
+        for (int i = 0; i < simulcastLayers; i++) {
+            copySsrc(out, lines, primary, layers[i]);
+            if (rtx != null) {
+                copySsrc(out, lines, rtx, rtxLayers[i]);
+            }
+        }
+        for (String line : lines) {
+            if (line.startsWith("a=ssrc:")) {
+                String ssrc = line.substring(7, ssrcEnd(line));
+                if (!ssrc.equals(primary) && !ssrc.equals(rtx)) {
+                    append(out, line);
+                }
+            } else if (!line.startsWith("a=ssrc-group:FID " + primary + " ")) {
+                append(out, line);
+            }
+        }
+    }
+
+    /** Writes the attribute lines of ssrc {@code from} again for {@code to}. */
+    private static void copySsrc(StringBuilder out, List<String> lines, String from, String to) {
+        String prefix = "a=ssrc:" + from + " ";
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                append(out, "a=ssrc:" + to + " " + line.substring(prefix.length()));
+            }
+        }
+    }
+
+    private synchronized String newSsrc(Set<String> used) {
+        String ssrc;
+        do {
+            ssrc = Long.toString((random.nextInt() & 0xffffffffL) | 1);
+        } while (!used.add(ssrc));
+        return ssrc;
+    }
+
+    /** Returns null when nothing in the section's payload table changes. */
+    private Plan plan(String[] lines, int start, int end) {
+        String mLine = lines[start];
+        Set<String> codecs;
+        boolean video = mLine.startsWith("m=video ");
+        if (video) {
+            codecs = videoCodecs;
+        } else if (mLine.startsWith("m=audio ")) {
+            codecs = audioCodecs;
+        } else {
+            return null;
+        }
+        String bitrate = video ? videoBitrate() : audioBitrate();
+        if (codecs.isEmpty() && !stripRtx && bitrate == null && (!video || simulcastLayers < 2)) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(mLine);
+        for (int i = start + 1; i < end; i++) {
+            if (lines[i].startsWith("a=rtpmap:") || lines[i].startsWith("a=fmtp:")) {
+                key.append('\n').append(lines[i]);
+            }
+        }
+        String cacheKey = key.toString();
+        synchronized (this) {
+            if (plans.containsKey(cacheKey)) {
+                planHits++;
+                return plans.get(cacheKey);
+            }
+        }
+        Plan plan = buildPlan(lines, start, end, codecs, video);
+        synchronized (this) {
+            plans.put(cacheKey, plan);
+        }
+        return plan;
+    }
+
+    private Plan buildPlan(String[] lines, int start, int end, Set<String> codecs, boolean video) {
+        String[] names = new String[128];
+        int[] apt = new int[128];
+        Arrays.fill(apt, -1);
+        for (int i = start + 1; i < end; i++) {
+            String line = lines[i];
+            int pt = payloadOf(line);
+            if (pt < 0) {
+                continue;
+            }
+            if (line.startsWith("a=rtpmap:")) {
+                int space = line.indexOf(' ');
+                int slash = line.indexOf('/', space);
+                names[pt] = line.substring(space + 1, slash < 0 ? line.length() : slash).toLowerCase(Locale.US);
+            } else if (line.startsWith("a=fmtp:")) {
+                int at = line.indexOf("apt=");
+                if (at >= 0) {
+                    apt[pt] = parsePayload(line, at + 4);
+                }
+            }
+        }
+
+        String[] m = lines[start].split(" ");
+        boolean[] keep = new boolean[128];
+        boolean anyPrimary = false;
+        for (int i = 3; i < m.length; i++) {
+            int pt = parsePayload(m[i], 0);
+            if (pt >= 0 && !"rtx".equals(names[pt])
+                    && (codecs.isEmpty() || codecs.contains(names[pt]))) {
+                keep[pt] = true;
+                anyPrimary = true;
+            }
+        }
+        if (!anyPrimary) {
+            // None of the wanted codecs is on offer; leave the section alone rather than empty it.
+            for (int i = 3; i < m.length; i++) {
+                int pt = parsePayload(m[i], 0);
+                if (pt >= 0 && !"rtx".equals(names[pt])) {
+                    keep[pt] = true;
+                }
+            }
+        }
+        // The FID groups pair media and RTX ssrcs; they go only once no RTX payload is left.
+        boolean offersRtx = false;
+        boolean keepsRtx = false;
+        for (int i = 3; i < m.length; i++) {
+            int pt = parsePayload(m[i], 0);
+            if (pt >= 0 && "rtx".equals(names[pt])) {
+                offersRtx = true;
+                if (!stripRtx && apt[pt] >= 0 && keep[apt[pt]]) {
+                    keep[pt] = true;
+                    keepsRtx = true;
+                }
+            }
+        }
+        boolean droppedRtx = offersRtx && !keepsRtx;
+
+        StringBuilder mLine = new StringBuilder(m[0]);
+        for (int i = 1; i < m.length; i++) {
+            int pt = i < 3 ? 0 : parsePayload(m[i], 0);
+            if (i < 3 || (pt >= 0 && keep[pt])) {
+                mLine.append(' ').append(m[i]);
+            }
+        }
+        String firstCodec = null;
+        for (int i = 3; i < m.length && firstCodec == null; i++) {
+            int pt = parsePayload(m[i], 0);
+            if (pt >= 0 && keep[pt]) {
+                firstCodec = names[pt];
+            }
+        }
+        Plan plan = new Plan(mLine.toString(), droppedRtx, firstCodec);
+        for (int pt = 0; pt < 128; pt++) {
+            plan.keep[pt] = keep[pt];
+            plan.primary[pt] = keep[pt] && names[pt] != null && isPrimary(names[pt], video);
+        }
+        for (int i = start + 1; i < end; i++) {
+            if (lines[i].startsWith("a=fmtp:")) {
+                int pt = payloadOf(lines[i]);
+                if (pt >= 0) {
+                    plan.hasFmtp[pt] = true;
+                }
+            }
+        }
+        return plan;
+    }
+
+    private static boolean isPrimary(String name, boolean video) {
+        if (video) {
+            return !"rtx".equals(name) && !"red".equals(name) && !"ulpfec".equals(name)
+                    && !"flexfec-03".equals(name);
+        }
+        return "opus".equals(name);
+    }
+
+    private String videoBitrate() {
+        if (videoStartKbps <= 0 && videoMaxKbps <= 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (videoStartKbps > 0) {
+            sb.append("x-google-start-bitrate=").append(videoStartKbps);
+        }
+        if (videoMaxKbps > 0) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append("x-google-max-bitrate=").append(videoMaxKbps);
+        }
+        return sb.toString();
+    }
+
+    private String audioBitrate() {
+        return audioKbps <= 0 ? null : "maxaveragebitrate=" + (audioKbps * 1000);
+    }
+
+    private boolean keepExtension(String line) {
+        if (extensions.isEmpty() || !line.startsWith("a=extmap:")) {
+            return true;
+        }
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return true;
+        }
+        int uriEnd = line.indexOf(' ', space + 1);
+        return extensions.contains(line.substring(space + 1, uriEnd < 0 ? line.length() : uriEnd));
+    }
+
+    /** The payload type of an rtpmap, fmtp or rtcp-fb line, or -1. */
+    private static int payloadOf(String line) {
+        if (line.startsWith("a=rtpmap:")) {
+            return parsePayload(line, 9);
+        } else if (line.startsWith("a=fmtp:")) {
+            return parsePayload(line, 7);
+        } else if (line.startsWith("a=rtcp-fb:")) {
+            return parsePayload(line, 10);
+        }
+        return -1;
+    }
+
+    private static int parsePayload(String s, int from) {
+        int value = 0;
+        int i = from;
+        while (i < s.length() && Character.isDigit(s.charAt(i)) && i - from < 3) {
+            value = value * 10 + s.charAt(i++) - '0';
+        }
+        return i == from || value > 127 ? -1 : value;
+    }
+
+    private static int ssrcEnd(String line) {
+        int space = line.indexOf(' ', 7);
+        return space < 0 ? line.length() : space;
+    }
+
+    private static void append(StringBuilder out, String line) {
+        if (!line.isEmpty()) {
+            out.append(line).append(CRLF);
+        }
+    }
+
+    private static Set<String> lowerCase(String... names) {
+        Set<String> out = new HashSet<>();
+        for (String name : names) {
+            if (name != null) {
+                out.add(name.toLowerCase(Locale.US));
+            }
+        }
+        return out;
+    }
+
+    private synchronized SdpRewriter changed() {
+        plans.clear();
+        return this;
+    }
+}
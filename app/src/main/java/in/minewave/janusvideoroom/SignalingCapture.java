@@ -0,0 +1,118 @@
+package in.minewave.janusvideoroom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Full-fidelity recording of signaling traffic, for replaying production
+ * traffic shapes in benchmarks. Unlike {@link SignalingTrace}, which keeps
+ * a small ring for post-mortems, a capture keeps every frame in full.
+ *
+ * <p>The format is a header of magic, version and wall-clock start time,
+ * followed by one record per frame: direction ({@link SignalingTrace#IN} or
+ * {@link SignalingTrace#OUT}), nanoseconds since the start, session id,
+ * handle id and the frame as length-prefixed UTF-8. All numbers are
+ * big-endian.
+ */
+public final class SignalingCapture implements Closeable {
+    static final int MAGIC = 0x4a4e5343; // "JNSC"
+    static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private boolean failed;
+
+    public SignalingCapture(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeLong(System.currentTimeMillis());
+    }
+
+    /** Appends a frame. A write error ends the capture instead of failing signaling. */
+    synchronized void record(int direction, long sessionId, long handleId, String frame) {
+        if (failed) {
+            return;
+        }
+        byte[] bytes = frame.getBytes(UTF_8);
+        try {
+            out.writeByte(direction);
+            out.writeLong(System.nanoTime() - startNanos);
+            out.writeLong(sessionId);
+            out.writeLong(handleId);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    /** Whether every record so far was written. */
+    public synchronized boolean isComplete() {
+        return !failed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /** Reads a capture back one record at a time. */
+    public static final class Reader implements Closeable {
+        public final long startMillis;
+        public int direction;
+        public long offsetNanos;
+        public long sessionId;
+        public long handleId;
+        public String frame;
+
+        private final DataInputStream in;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a signaling capture");
+            }
+            int version = this.in.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported capture version " + version);
+            }
+            startMillis = this.in.readLong();
+        }
+
+        /** Moves to the next record; returns false at the end of the capture. */
+        public boolean next() throws IOException {
+            int dir = in.read();
+            if (dir < 0) {
+                return false;
+            }
+            try {
+                direction = dir;
+                offsetNanos = in.readLong();
+                sessionId = in.readLong();
+                handleId = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                frame = new String(bytes, UTF_8);
+            } catch (EOFException e) {
+                // A capture cut off mid-record, e.g. by a crash, ends at the last whole one.
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
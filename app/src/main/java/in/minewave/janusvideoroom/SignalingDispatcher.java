@@ -0,0 +1,19 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Decides which thread delivers {@link JanusRTCInterface} callbacks. Callbacks
+ * are handed over from the signaling lane of the handle they concern, in
+ * order; a dispatcher that posts them elsewhere must keep that order.
+ */
+public interface SignalingDispatcher {
+
+    /** Runs callbacks on the signaling thread that produced them. */
+    SignalingDispatcher DIRECT = new SignalingDispatcher() {
+        @Override
+        public void dispatch(Runnable callback) {
+            callback.run();
+        }
+    };
+
+    void dispatch(Runnable callback);
+}
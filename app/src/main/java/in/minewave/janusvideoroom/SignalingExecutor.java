@@ -0,0 +1,114 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs signaling work on a small thread pool with one ordered lane per key
+ * (the Janus handle id, or 0 for session-level messages). Tasks for the same
+ * key run strictly in submission order and never concurrently; tasks for
+ * different keys run in parallel, so a slow callback for one handle does not
+ * hold up events for the others. {@link #execute} never blocks.
+ *
+ * <p>{@link PeerConnectionClient} runs each peer connection on a lane of
+ * its own pool in the same way.
+ */
+final class SignalingExecutor {
+    static final int DEFAULT_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    // A busy lane yields its thread after this many tasks so other lanes get a turn.
+    private static final int BATCH = 16;
+
+    private final Executor pool;
+    private final LongHashMap<Lane> lanes = new LongHashMap<>();
+
+    SignalingExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    static ExecutorService newPool(int threads) {
+        return newPool(threads, "janus-signaling");
+    }
+
+    static ExecutorService newPool(int threads, final String name) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void execute(long key, Runnable task) {
+        Lane lane;
+        synchronized (this) {
+            lane = lanes.get(key);
+            if (lane != null) {
+                lane.tasks.add(task);
+                return;
+            }
+            lane = new Lane(key);
+            lane.tasks.add(task);
+            lanes.put(key, lane);
+        }
+        pool.execute(lane);
+    }
+
+    /** Number of keys with queued or running work. */
+    synchronized int activeLanes() {
+        return lanes.size();
+    }
+
+    private final class Lane implements Runnable {
+        final long key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        Lane(long key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            boolean more = false;
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    Runnable task;
+                    synchronized (SignalingExecutor.this) {
+                        task = tasks.peek();
+                    }
+                    task.run();
+                    if (!(more = finish())) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                // Keep the lane going; the failure still reaches the pool thread's handler.
+                more = finish();
+                throw e;
+            } finally {
+                if (more) {
+                    pool.execute(this);
+                }
+            }
+        }
+
+        /** Drops the task that just ran; returns false and retires the lane if nothing is left. */
+        private boolean finish() {
+            synchronized (SignalingExecutor.this) {
+                tasks.poll();
+                if (tasks.isEmpty()) {
+                    lanes.remove(key);
+                    return false;
+                }
+                return true;
+            }
+        }
+    }
+}
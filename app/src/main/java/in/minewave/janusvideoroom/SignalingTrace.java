@@ -0,0 +1,109 @@
+package in.minewave.janusvideoroom;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Fixed-size ring of the most recent signaling frames, kept for post-mortem
+ * dumps instead of logging every frame. Records live in preallocated
+ * parallel arrays and hold only constants and numbers, so recording does
+ * no formatting and, unless payload capture is turned on, no allocation.
+ * When disabled, {@link #record} returns after one volatile read.
+ */
+final class SignalingTrace {
+    static final int IN = 0;
+    static final int OUT = 1;
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final long[] times;
+    private final int[] directions;
+    private final String[] verbs;
+    private final long[] handles;
+    private final long[] transactions;
+    private final int[] lengths;
+    private final String[] payloads;
+    private final int mask;
+    private long next;
+    private volatile boolean enabled = true;
+    private volatile int payloadLimit;
+
+    /** {@code capacity} is rounded up to a power of two. */
+    SignalingTrace(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        times = new long[size];
+        directions = new int[size];
+        verbs = new String[size];
+        handles = new long[size];
+        transactions = new long[size];
+        lengths = new int[size];
+        payloads = new String[size];
+        mask = size - 1;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Keeps up to {@code chars} characters of each frame; 0, the default, keeps none. */
+    void setPayloadLimit(int chars) {
+        this.payloadLimit = chars;
+    }
+
+    /** {@code verb} should be a constant; it is stored by reference. */
+    void record(int direction, String verb, long handle, long transaction, String frame) {
+        if (!enabled) {
+            return;
+        }
+        int limit = payloadLimit;
+        String payload = limit <= 0 ? null : frame.length() <= limit ? frame : frame.substring(0, limit);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            int i = (int) (next++ & mask);
+            times[i] = now;
+            directions[i] = direction;
+            verbs[i] = verb;
+            handles[i] = handle;
+            transactions[i] = transaction;
+            lengths[i] = frame.length();
+            payloads[i] = payload;
+        }
+    }
+
+    synchronized int size() {
+        return (int) Math.min(next, mask + 1);
+    }
+
+    synchronized void clear() {
+        next = 0;
+        Arrays.fill(verbs, null);
+        Arrays.fill(payloads, null);
+    }
+
+    /** Formats the retained records, oldest first, one per line. */
+    synchronized String dump() {
+        StringBuilder out = new StringBuilder();
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        for (long n = next - size(); n < next; n++) {
+            int i = (int) (n & mask);
+            date.setTime(times[i]);
+            out.append(format.format(date))
+                    .append(directions[i] == IN ? " < " : " > ")
+                    .append(verbs[i])
+                    .append(" handle=").append(handles[i])
+                    .append(" tx=").append(transactions[i])
+                    .append(" len=").append(lengths[i]);
+            if (payloads[i] != null) {
+                out.append(' ').append(payloads[i]);
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * How many simulcast layers the publisher sends and the bitrate each may
+ * use, lowest layer first, which is also the order of Janus's substreams.
+ * Each layer has half the width and height of the one above it; the
+ * bundled libwebrtc picks layer resolutions itself and cannot scale them
+ * any other way.
+ */
+public final class SimulcastConfig {
+    public static final int MAX_LAYERS = 3;
+
+    private final int[] layerKbps;
+
+    private SimulcastConfig(int... layerKbps) {
+        this.layerKbps = layerKbps;
+    }
+
+    /** Two layers: half resolution at 300 kbps and full at 1500 kbps. */
+    public static SimulcastConfig twoLayers() {
+        return new SimulcastConfig(300, 1500);
+    }
+
+    /** Three layers: quarter, half and full resolution at 150, 500 and 1500 kbps. */
+    public static SimulcastConfig threeLayers() {
+        return new SimulcastConfig(150, 500, 1500);
+    }
+
+    /** Sets the bitrate of one layer, 0 being the lowest. */
+    public SimulcastConfig setLayerBitrate(int layer, int kbps) {
+        layerKbps[layer] = kbps;
+        return this;
+    }
+
+    public int layerCount() {
+        return layerKbps.length;
+    }
+
+    public int layerBitrate(int layer) {
+        return layerKbps[layer];
+    }
+
+    public int totalBitrate() {
+        int total = 0;
+        for (int kbps : layerKbps) {
+            total += kbps;
+        }
+        return total;
+    }
+
+    /**
+     * Splits an overall cap over the layers, filling the lowest first, so
+     * the layers every subscriber can fall back to are the last to starve.
+     * A layer left with nothing gets 0.
+     */
+    int[] split(int capKbps) {
+        int[] out = new int[layerKbps.length];
+        int remaining = capKbps;
+        for (int i = 0; i < layerKbps.length; i++) {
+            out[i] = Math.max(0, Math.min(layerKbps[i], remaining));
+            remaining -= out[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,25 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.StatsReport;
+
+/**
+ * The stats of every connection sampled in one tick of the
+ * {@link StatsScheduler}, so they describe the same moment.
+ */
+public final class StatsBatch {
+    /** Wall-clock time of the tick. */
+    public final long timestampMs;
+    public final long[] handleIds;
+    /** The reports for {@code handleIds[i]}, empty if that connection could not be sampled. */
+    public final StatsReport[][] reports;
+
+    StatsBatch(long timestampMs, long[] handleIds, StatsReport[][] reports) {
+        this.timestampMs = timestampMs;
+        this.handleIds = handleIds;
+        this.reports = reports;
+    }
+
+    public int size() {
+        return handleIds.length;
+    }
+}
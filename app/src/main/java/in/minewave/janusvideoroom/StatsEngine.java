@@ -0,0 +1,267 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns stats samples into {@link ConnectionStats} and {@link TrackStats}
+ * with rates and short histories, so adaptive code and dashboards read
+ * numbers instead of string maps. Each report value is parsed once, when
+ * its sample comes in.
+ *
+ * <p>The bundled WebRTC build only has the legacy {@code getStats}, so
+ * this reads its {@code ssrc}, {@code VideoBwe} and
+ * {@code googCandidatePair} reports. Where the legacy reports give a rate
+ * instead of a count, as for dropped frames, the count is built up from
+ * the rate.
+ */
+public final class StatsEngine {
+    public static final int DEFAULT_HISTORY = 60;
+
+    private static final int SSRC = 1;
+    private static final int MEDIA_TYPE = 2;
+    private static final int BYTES = 3;
+    private static final int PACKETS = 4;
+    private static final int PACKETS_LOST = 5;
+    private static final int RTT = 6;
+    private static final int JITTER = 7;
+    private static final int FRAMES = 8;
+    private static final int FRAMES_DROPPED = 9;
+    private static final int QP_SUM = 10;
+    private static final int FPS = 11;
+    private static final int FPS_IN = 12;
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 14;
+    private static final int CPU_LIMITED = 15;
+    private static final int BANDWIDTH_LIMITED = 16;
+    private static final int AVAILABLE_SEND = 17;
+    private static final int AVAILABLE_RECEIVE = 18;
+    private static final int TARGET_ENCODE = 19;
+    private static final int ACTUAL_ENCODE = 20;
+    private static final int TRANSMIT = 21;
+    private static final int ACTIVE_CONNECTION = 22;
+    private static final Map<String, Integer> FIELDS = new HashMap<>();
+
+    static {
+        FIELDS.put("ssrc", SSRC);
+        FIELDS.put("mediaType", MEDIA_TYPE);
+        FIELDS.put("bytesSent", BYTES);
+        FIELDS.put("bytesReceived", BYTES);
+        FIELDS.put("packetsSent", PACKETS);
+        FIELDS.put("packetsReceived", PACKETS);
+        FIELDS.put("packetsLost", PACKETS_LOST);
+        FIELDS.put("googRtt", RTT);
+        FIELDS.put("googJitterReceived", JITTER);
+        FIELDS.put("framesEncoded", FRAMES);
+        FIELDS.put("framesDecoded", FRAMES);
+        FIELDS.put("framesDropped", FRAMES_DROPPED);
+        FIELDS.put("qpSum", QP_SUM);
+        FIELDS.put("googFrameRateSent", FPS);
+        FIELDS.put("googFrameRateDecoded", FPS);
+        // What the encoder was given or the network delivered; the gap to FPS is dropped frames.
+        FIELDS.put("googFrameRateInput", FPS_IN);
+        FIELDS.put("googFrameRateReceived", FPS_IN);
+        FIELDS.put("googFrameWidthSent", WIDTH);
+        FIELDS.put("googFrameWidthReceived", WIDTH);
+        FIELDS.put("googFrameHeightSent", HEIGHT);
+        FIELDS.put("googFrameHeightReceived", HEIGHT);
+        FIELDS.put("googCpuLimitedResolution", CPU_LIMITED);
+        FIELDS.put("googBandwidthLimitedResolution", BANDWIDTH_LIMITED);
+        FIELDS.put("googAvailableSendBandwidth", AVAILABLE_SEND);
+        FIELDS.put("googAvailableReceiveBandwidth", AVAILABLE_RECEIVE);
+        FIELDS.put("googTargetEncBitrate", TARGET_ENCODE);
+        FIELDS.put("googActualEncBitrate", ACTUAL_ENCODE);
+        FIELDS.put("googTransmitBitrate", TRANSMIT);
+        FIELDS.put("googActiveConnection", ACTIVE_CONNECTION);
+    }
+
+    private final int historySize;
+    private final LongHashMap<ConnectionStats> connections = new LongHashMap<>();
+
+    public StatsEngine() {
+        this(DEFAULT_HISTORY);
+    }
+
+    public StatsEngine(int historySize) {
+        this.historySize = historySize;
+    }
+
+    public synchronized void update(StatsBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            update(batch.handleIds[i], batch.timestampMs, batch.reports[i]);
+        }
+    }
+
+    /** Folds in one connection's sample. Streams missing from it are dropped. */
+    synchronized void update(long handleId, long timestampMs, StatsReport[] reports) {
+        if (reports.length == 0) {
+            return;
+        }
+        ConnectionStats connection = connections.get(handleId);
+        if (connection == null) {
+            connection = new ConnectionStats(handleId, historySize);
+            connections.put(handleId, connection);
+        }
+        connection.timestampMs = timestampMs;
+        List<TrackStats> known = connection.tracks();
+        for (TrackStats track : known) {
+            track.seen = false;
+        }
+        for (StatsReport report : reports) {
+            if ("ssrc".equals(report.type)) {
+                updateTrack(connection, report, timestampMs);
+            } else if ("VideoBwe".equals(report.type)) {
+                updateBandwidth(connection, report);
+            } else if ("googCandidatePair".equals(report.type)) {
+                updateCandidatePair(connection, report);
+            }
+        }
+        for (TrackStats track : known) {
+            if (!track.seen) {
+                (track.outbound ? connection.tracks : connection.inboundTracks).remove(track.ssrc);
+            }
+        }
+        connection.record();
+    }
+
+    public synchronized ConnectionStats connection(long handleId) {
+        return connections.get(handleId);
+    }
+
+    public synchronized List<ConnectionStats> connections() {
+        List<ConnectionStats> all = new ArrayList<>(connections.size());
+        connections.values(all);
+        return all;
+    }
+
+    public synchronized void remove(long handleId) {
+        connections.remove(handleId);
+    }
+
+    private void updateTrack(ConnectionStats connection, StatsReport report, long batchMs) {
+        long ssrc = 0;
+        boolean video = false;
+        long bytes = 0;
+        long packets = 0;
+        long packetsLost = 0;
+        long frames = 0;
+        long framesDropped = -1;
+        long qpSum = 0;
+        double rtt = 0;
+        double jitter = 0;
+        double fps = 0;
+        double fpsIn = -1;
+        int width = 0;
+        int height = 0;
+        boolean cpuLimited = false;
+        boolean bandwidthLimited = false;
+        for (StatsReport.Value value : report.values) {
+            Integer field = FIELDS.get(value.name);
+            if (field == null) {
+                continue;
+            }
+            switch (field) {
+                case SSRC: ssrc = parseLong(value.value); break;
+                case MEDIA_TYPE: video = "video".equals(value.value); break;
+                case BYTES: bytes = parseLong(value.value); break;
+                case PACKETS: packets = parseLong(value.value); break;
+                case PACKETS_LOST: packetsLost = parseLong(value.value); break;
+                case RTT: rtt = parseDouble(value.value); break;
+                case JITTER: jitter = parseDouble(value.value); break;
+                case FRAMES: frames = parseLong(value.value); break;
+                case FRAMES_DROPPED: framesDropped = parseLong(value.value); break;
+                case QP_SUM: qpSum = parseLong(value.value); break;
+                case FPS: fps = parseDouble(value.value); break;
+                case FPS_IN: fpsIn = parseDouble(value.value); break;
+                case WIDTH: width = (int) parseLong(value.value); break;
+                case HEIGHT: height = (int) parseLong(value.value); break;
+                case CPU_LIMITED: cpuLimited = "true".equals(value.value); break;
+                case BANDWIDTH_LIMITED: bandwidthLimited = "true".equals(value.value); break;
+                default: break;
+            }
+        }
+        if (ssrc == 0) {
+            return;
+        }
+        boolean outbound = report.id.endsWith("_send");
+        LongHashMap<TrackStats> tracks = outbound ? connection.tracks : connection.inboundTracks;
+        TrackStats track = tracks.get(ssrc);
+        if (track == null || track.video != video) {
+            track = new TrackStats(connection.handleId, ssrc, outbound, video, historySize);
+            tracks.put(ssrc, track);
+        }
+        long timestampMs = report.timestamp > 0 ? (long) report.timestamp : batchMs;
+        if (framesDropped < 0) {
+            framesDropped = track.framesDropped;
+            if (fpsIn >= 0 && track.timestampMs > 0 && timestampMs > track.timestampMs) {
+                framesDropped += Math.round(Math.max(0, fpsIn - fps) * (timestampMs - track.timestampMs) / 1000.0);
+            }
+        }
+        track.seen = true;
+        track.jitterMs = jitter;
+        track.rttMs = rtt;
+        track.framesPerSecond = fps;
+        track.frameWidth = width;
+        track.frameHeight = height;
+        track.cpuLimited = cpuLimited;
+        track.bandwidthLimited = bandwidthLimited;
+        track.update(timestampMs, bytes, packets, packetsLost, frames, framesDropped, qpSum);
+    }
+
+    private static void updateBandwidth(ConnectionStats connection, StatsReport report) {
+        for (StatsReport.Value value : report.values) {
+            Integer field = FIELDS.get(value.name);
+            if (field == null) {
+                continue;
+            }
+            double kbps = parseDouble(value.value) / 1000.0;
+            switch (field) {
+                case AVAILABLE_SEND: connection.availableSendKbps = kbps; break;
+                case AVAILABLE_RECEIVE: connection.availableReceiveKbps = kbps; break;
+                case TARGET_ENCODE: connection.targetEncodeKbps = kbps; break;
+                case ACTUAL_ENCODE: connection.actualEncodeKbps = kbps; break;
+                case TRANSMIT: connection.transmitKbps = kbps; break;
+                default: break;
+            }
+        }
+    }
+
+    private static void updateCandidatePair(ConnectionStats connection, StatsReport report) {
+        boolean active = false;
+        double rtt = 0;
+        for (StatsReport.Value value : report.values) {
+            Integer field = FIELDS.get(value.name);
+            if (field == null) {
+                continue;
+            }
+            if (field == ACTIVE_CONNECTION) {
+                active = "true".equals(value.value);
+            } else if (field == RTT) {
+                rtt = parseDouble(value.value);
+            }
+        }
+        if (active) {
+            connection.rttMs = rtt;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(value);
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
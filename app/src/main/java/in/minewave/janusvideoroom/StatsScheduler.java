@@ -0,0 +1,257 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stats of every live peer connection on one shared tick, so
+ * there is a single wakeup per tick however many feeds there are, and
+ * samples taken in the same tick can be compared with each other.
+ *
+ * <p>A connection is sampled every {@link #getPeriod() period}, on ticks
+ * counted from when sampling was enabled, so connections sharing a period
+ * are always sampled together. For its first {@link #WARMUP_MS} and for
+ * {@link #BOOST_MS} after {@link #boost} it is sampled every tick instead,
+ * which is a quarter of the period. Each tick is moved by up to a tenth of
+ * its length at random so it does not fall into step with other periodic
+ * work. The results of one tick are delivered together once every sample
+ * in it has come back, or at the next tick with whatever has.
+ *
+ * <p>Connections are picked up and dropped automatically: each tick asks
+ * the {@link Source} which handles are live.
+ */
+final class StatsScheduler {
+    static final int DEFAULT_PERIOD_MS = 1000;
+    static final int MIN_TICK_MS = 100;
+    static final long WARMUP_MS = 5000;
+    static final long BOOST_MS = 5000;
+    private static final int FAST_DIVISOR = 4;
+
+    interface Source {
+        /** Handle ids of the connections that can be sampled now. */
+        long[] handles();
+
+        /** Starts sampling one connection; returns false if it cannot be sampled. */
+        boolean sample(long handleId, Sample sample);
+    }
+
+    interface Listener {
+        void onStats(StatsBatch batch);
+    }
+
+    /** One pending sample; complete it exactly once, from any thread. */
+    final class Sample {
+        private final Tick tick;
+        private final int index;
+
+        private Sample(Tick tick, int index) {
+            this.tick = tick;
+            this.index = index;
+        }
+
+        void complete(StatsReport[] reports) {
+            tick.complete(index, reports);
+        }
+    }
+
+    private static final class Entry {
+        final long startNanos;
+        long boostUntilNanos;
+
+        Entry(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Source source;
+    private final Listener listener;
+    private final Random random = new Random();
+    // Touched only on ticks and under the lock, keyed by handle id.
+    private final LongHashMap<Entry> entries = new LongHashMap<>();
+    // Package-private so tests need not wait out the defaults.
+    long warmupMs = WARMUP_MS;
+    long boostMs = BOOST_MS;
+    private int periodMs = DEFAULT_PERIOD_MS;
+    private ScheduledFuture<?> next;
+    private long tickCount;
+    private Tick pending;
+
+    StatsScheduler(ScheduledExecutorService scheduler, Source source, Listener listener) {
+        this.scheduler = scheduler;
+        this.source = source;
+        this.listener = listener;
+    }
+
+    /** Starts or restarts sampling every {@code periodMs}; can be called again after {@link #stop}. */
+    synchronized void start(int periodMs) {
+        this.periodMs = Math.max(MIN_TICK_MS * FAST_DIVISOR, periodMs);
+        if (next != null) {
+            next.cancel(false);
+        }
+        tickCount = 0;
+        schedule(0);
+    }
+
+    synchronized void stop() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+        entries.clear();
+        pending = null;
+    }
+
+    synchronized boolean isRunning() {
+        return next != null;
+    }
+
+    synchronized int getPeriod() {
+        return periodMs;
+    }
+
+    /** Samples {@code handleId} every tick for a while, e.g. when its quality drops. */
+    synchronized void boost(long handleId) {
+        Entry entry = entries.get(handleId);
+        if (entry != null) {
+            entry.boostUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(boostMs);
+        }
+    }
+
+    private int tickMs() {
+        return periodMs / FAST_DIVISOR;
+    }
+
+    private void schedule(long delayMs) {
+        next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        long[] handles = source.handles();
+        Tick flush;
+        Tick tick;
+        synchronized (this) {
+            if (next == null) {
+                return;
+            }
+            int tickMs = tickMs();
+            int jitter = tickMs / 10;
+            schedule(tickMs + (jitter > 0 ? random.nextInt(2 * jitter + 1) - jitter : 0));
+
+            flush = pending;
+            pending = null;
+            long now = System.nanoTime();
+            LongHashMap<Entry> live = new LongHashMap<>();
+            List<Long> due = new ArrayList<>();
+            boolean slowTick = tickCount % FAST_DIVISOR == 0;
+            for (long handleId : handles) {
+                Entry entry = entries.get(handleId);
+                if (entry == null) {
+                    entry = new Entry(now);
+                }
+                live.put(handleId, entry);
+                boolean fast = now - entry.startNanos < TimeUnit.MILLISECONDS.toNanos(warmupMs)
+                        || now < entry.boostUntilNanos;
+                if (slowTick || fast) {
+                    due.add(handleId);
+                }
+            }
+            entries.clear();
+            for (long handleId : handles) {
+                entries.put(handleId, live.get(handleId));
+            }
+            tickCount++;
+            tick = due.isEmpty() ? null : new Tick(System.currentTimeMillis(), due);
+            pending = tick;
+        }
+        if (flush != null) {
+            flush.deliver();
+        }
+        if (tick != null) {
+            tick.start();
+        }
+    }
+
+    /** The samples of one tick, delivered together. */
+    private final class Tick {
+        final long timestampMs;
+        final long[] handleIds;
+        final StatsReport[][] reports;
+        private int outstanding;
+        private boolean delivered;
+
+        Tick(long timestampMs, List<Long> due) {
+            this.timestampMs = timestampMs;
+            handleIds = new long[due.size()];
+            for (int i = 0; i < handleIds.length; i++) {
+                handleIds[i] = due.get(i);
+            }
+            reports = new StatsReport[handleIds.length][];
+            outstanding = handleIds.length;
+        }
+
+        void start() {
+            for (int i = 0; i < handleIds.length; i++) {
+                if (!source.sample(handleIds[i], new Sample(this, i))) {
+                    complete(i, null);
+                }
+            }
+        }
+
+        void complete(int index, StatsReport[] result) {
+            synchronized (this) {
+                if (delivered || reports[index] != null) {
+                    return;
+                }
+                reports[index] = result != null ? result : new StatsReport[0];
+                if (--outstanding > 0) {
+                    return;
+                }
+            }
+            synchronized (StatsScheduler.this) {
+                if (pending == this) {
+                    pending = null;
+                }
+            }
+            deliver();
+        }
+
+        void deliver() {
+            StatsBatch batch;
+            synchronized (this) {
+                if (delivered) {
+                    return;
+                }
+                delivered = true;
+                // A flushed tick carries only the samples that made it back.
+                int n = 0;
+                for (StatsReport[] r : reports) {
+                    if (r != null) {
+                        n++;
+                    }
+                }
+                long[] ids = new long[n];
+                StatsReport[][] done = new StatsReport[n][];
+                for (int i = 0, j = 0; i < reports.length; i++) {
+                    if (reports[i] != null) {
+                        ids[j] = handleIds[i];
+                        done[j++] = reports[i];
+                    }
+                }
+                batch = new StatsBatch(timestampMs, ids, done);
+            }
+            listener.onStats(batch);
+        }
+    }
+}
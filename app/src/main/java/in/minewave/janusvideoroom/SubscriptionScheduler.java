@@ -0,0 +1,231 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Paces subscriptions to remote feeds. Every feed a {@code publishers} list
+ * reports is queued once in display order, and at most {@link #setWindow
+ * window} of them are attaching and negotiating at a time. A feed holds its
+ * slot from attach until {@code webrtcup}, until it fails, or until it stalls
+ * for longer than the stall timeout, so a large room converges in steady
+ * waves instead of one burst on the gateway and the peer connection thread.
+ */
+public final class SubscriptionScheduler {
+    static final int DEFAULT_WINDOW = 4;
+    static final long DEFAULT_STALL_TIMEOUT_MS = 20000;
+
+    interface Starter {
+        /** Begins attaching to {@code feedId}; the outcome is reported back through the scheduler. */
+        void subscribe(long feedId, String display);
+    }
+
+    public interface Listener {
+        /**
+         * Called each time a feed goes live. {@code elapsedMs} is measured from
+         * the moment the scheduler went from idle to busy, so it is the time
+         * until {@code live} of {@code total} known feeds were up.
+         */
+        void onSubscriptionProgress(int live, int total, long elapsedMs);
+    }
+
+    private static final int QUEUED = 0;
+    private static final int IN_FLIGHT = 1;
+    private static final int STALLED = 2;
+    private static final int LIVE = 3;
+
+    private final class Feed implements Comparable<Feed> {
+        final long id;
+        final String display;
+        final long order;
+        final long queuedAtNanos;
+        int state = QUEUED;
+        TimerWheel.Timeout stall;
+
+        Feed(long id, String display, long order) {
+            this.id = id;
+            this.display = display;
+            this.order = order;
+            this.queuedAtNanos = System.nanoTime();
+        }
+
+        @Override
+        public int compareTo(Feed other) {
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private final TimerWheel wheel;
+    private final Starter starter;
+    private final LongHashMap<Feed> feeds = new LongHashMap<>();
+    private final PriorityQueue<Feed> queue = new PriorityQueue<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private Listener listener;
+    private int window = DEFAULT_WINDOW;
+    private long stallTimeoutMs = DEFAULT_STALL_TIMEOUT_MS;
+    private long nextOrder;
+    private int inFlight;
+    private int live;
+    private long waveStartNanos;
+
+    SubscriptionScheduler(TimerWheel wheel, Starter starter) {
+        this.wheel = wheel;
+        this.starter = starter;
+    }
+
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Sets how many feeds may be attaching at once; at least one. */
+    void setWindow(int window) {
+        synchronized (this) {
+            this.window = Math.max(1, window);
+        }
+        drain();
+    }
+
+    synchronized void setStallTimeout(long stallTimeoutMs) {
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    /** Queues a feed unless it is already known. Feeds are started in the order they are offered. */
+    void offer(long feedId, String display) {
+        synchronized (this) {
+            if (feeds.get(feedId) != null) {
+                return;
+            }
+            if (queue.isEmpty() && inFlight == 0) {
+                waveStartNanos = System.nanoTime();
+            }
+            Feed feed = new Feed(feedId, display, nextOrder++);
+            feeds.put(feedId, feed);
+            queue.add(feed);
+        }
+        drain();
+    }
+
+    /** The feed's subscriber reported {@code webrtcup}. */
+    void onLive(long feedId) {
+        Listener listener;
+        int live;
+        int total;
+        long elapsedMs;
+        synchronized (this) {
+            Feed feed = feeds.get(feedId);
+            if (feed == null || feed.state == LIVE) {
+                return;
+            }
+            release(feed);
+            feed.state = LIVE;
+            latency.record((System.nanoTime() - feed.queuedAtNanos) / 1000);
+            listener = this.listener;
+            live = ++this.live;
+            total = feeds.size();
+            elapsedMs = (System.nanoTime() - waveStartNanos) / 1000000;
+        }
+        drain();
+        if (listener != null) {
+            listener.onSubscriptionProgress(live, total, elapsedMs);
+        }
+    }
+
+    /** Attaching or joining failed; the feed is forgotten so a later publishers list can retry it. */
+    void onFailed(long feedId) {
+        remove(feedId);
+    }
+
+    /** The feed left the room or its subscriber was detached. */
+    void remove(long feedId) {
+        synchronized (this) {
+            Feed feed = feeds.remove(feedId);
+            if (feed == null) {
+                return;
+            }
+            if (feed.state == QUEUED) {
+                queue.remove(feed);
+            } else if (feed.state == LIVE) {
+                live--;
+            } else {
+                release(feed);
+            }
+        }
+        drain();
+    }
+
+    synchronized void clear() {
+        List<Feed> all = new ArrayList<>(feeds.size());
+        feeds.values(all);
+        for (Feed feed : all) {
+            release(feed);
+        }
+        feeds.clear();
+        queue.clear();
+        inFlight = 0;
+        live = 0;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    synchronized int live() {
+        return live;
+    }
+
+    /** Time from a feed being queued until it went live. */
+    LatencyHistogram latency() {
+        return latency;
+    }
+
+    private void drain() {
+        List<Feed> started = null;
+        synchronized (this) {
+            while (inFlight < window && !queue.isEmpty()) {
+                final Feed feed = queue.poll();
+                feed.state = IN_FLIGHT;
+                feed.stall = wheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        stalled(feed);
+                    }
+                }, stallTimeoutMs);
+                inFlight++;
+                if (started == null) {
+                    started = new ArrayList<>();
+                }
+                started.add(feed);
+            }
+        }
+        if (started != null) {
+            for (Feed feed : started) {
+                starter.subscribe(feed.id, feed.display);
+            }
+        }
+    }
+
+    private void stalled(Feed feed) {
+        synchronized (this) {
+            if (feeds.get(feed.id) != feed || feed.state != IN_FLIGHT) {
+                return;
+            }
+            // Keep the feed known so it is not subscribed twice; it may still come up.
+            release(feed);
+            feed.state = STALLED;
+        }
+        drain();
+    }
+
+    private void release(Feed feed) {
+        if (feed.state == IN_FLIGHT) {
+            inFlight--;
+            feed.stall.cancel();
+        }
+        feed.stall = null;
+    }
+}
@@ -0,0 +1,227 @@
+package in.minewave.janusvideoroom;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel: timeouts hash into one of a fixed number of slots by
+ * deadline tick, so scheduling and cancelling are O(1) however many are
+ * pending. Ticks follow the monotonic clock, but the wheel does not wake up
+ * every tick: it sleeps on its executor until the next tick whose slot holds
+ * a timeout, found from a bitmap of occupied slots, so a wakeup costs the
+ * same however many are pending. A timeout due more than one turn of the
+ * wheel ahead costs a wakeup per turn. Tasks run on the executor thread and
+ * must be short.
+ */
+final class TimerWheel {
+
+    final class Timeout {
+        private final Runnable task;
+        private long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private int slot = -1;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /** Returns false if the timeout already fired or was cancelled. */
+        boolean cancel() {
+            synchronized (TimerWheel.this) {
+                if (slot < 0) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final long tickMs;
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final Timeout[] slots;
+    // Bit i is set while slot i holds a timeout.
+    private final long[] occupied;
+    private final Runnable ticker = new Runnable() {
+        @Override
+        public void run() {
+            catchUp();
+        }
+    };
+    // The last tick whose slot has been processed.
+    private long tick;
+    private int pending;
+    private ScheduledFuture<?> wake;
+    private long wakeTick = Long.MAX_VALUE;
+
+    TimerWheel(ScheduledExecutorService executor, long tickMs, int slotCount) {
+        this.executor = executor;
+        this.tickMs = tickMs;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.slots = new Timeout[slotCount];
+        this.occupied = new long[(slotCount + 63) >>> 6];
+    }
+
+    long tickMs() {
+        return tickMs;
+    }
+
+    /** Runs {@code task} once, no earlier than {@code delayMs} from now (rounded up to a tick). */
+    synchronized Timeout schedule(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(task);
+        long now = Math.max(tick, clockTick());
+        timeout.deadline = now + Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        link(timeout);
+        if (timeout.deadline < wakeTick) {
+            wakeAt(timeout.deadline);
+        }
+        return timeout;
+    }
+
+    synchronized int pending() {
+        return pending;
+    }
+
+    /** Cancels every pending timeout without running it. */
+    synchronized void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            for (Timeout t = slots[i]; t != null; t = t.next) {
+                t.slot = -1;
+            }
+            slots[i] = null;
+        }
+        Arrays.fill(occupied, 0);
+        pending = 0;
+        stopWaking();
+    }
+
+    /** Moves the wheel one tick forward, regardless of the clock, and runs whatever expired. */
+    void advance() {
+        Timeout expired;
+        synchronized (this) {
+            expired = expire(null, ++tick);
+            if (pending == 0) {
+                stopWaking();
+            }
+        }
+        run(expired);
+    }
+
+    /** Processes every tick up to the clock, then sleeps until the next occupied slot. */
+    private void catchUp() {
+        Timeout expired = null;
+        synchronized (this) {
+            wake = null;
+            wakeTick = Long.MAX_VALUE;
+            long now = clockTick();
+            while (tick < now) {
+                expired = expire(expired, ++tick);
+            }
+            if (pending > 0) {
+                wakeAt(nextOccupiedTick());
+            }
+        }
+        run(expired);
+    }
+
+    private Timeout expire(Timeout expired, long tick) {
+        Timeout t = slots[(int) (tick % slots.length)];
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.deadline <= tick) {
+                unlink(t);
+                t.next = expired;
+                expired = t;
+            }
+            t = next;
+        }
+        return expired;
+    }
+
+    private static void run(Timeout expired) {
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            expired.task.run();
+            expired = next;
+        }
+    }
+
+    private long clockTick() {
+        return (System.nanoTime() - origin) / tickNanos;
+    }
+
+    /** The first tick after the current one whose slot holds a timeout; needs one pending. */
+    private long nextOccupiedTick() {
+        int from = (int) ((tick + 1) % slots.length);
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L << from);
+        // One word more than there are, so the first is seen again whole for the slots before from.
+        for (int i = 0; bits == 0 && i < occupied.length; i++) {
+            word = (word + 1) % occupied.length;
+            bits = occupied[word];
+        }
+        int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return tick + 1 + (slot >= from ? slot - from : slot + slots.length - from);
+    }
+
+    private void wakeAt(long deadline) {
+        if (wake != null) {
+            wake.cancel(false);
+        }
+        wakeTick = deadline;
+        long delayNanos = origin + deadline * tickNanos - System.nanoTime();
+        try {
+            wake = executor.schedule(ticker, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The owner shut the executor down; nothing fires any more.
+            wake = null;
+        }
+    }
+
+    private void stopWaking() {
+        if (wake != null) {
+            wake.cancel(false);
+            wake = null;
+        }
+        wakeTick = Long.MAX_VALUE;
+    }
+
+    private void link(Timeout timeout) {
+        int index = (int) (timeout.deadline % slots.length);
+        timeout.slot = index;
+        timeout.prev = null;
+        timeout.next = slots[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        } else {
+            occupied[index >>> 6] |= 1L << index;
+        }
+        slots[index] = timeout;
+        pending++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+            if (timeout.next == null) {
+                occupied[timeout.slot >>> 6] &= ~(1L << timeout.slot);
+            }
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        pending--;
+    }
+}
@@ -0,0 +1,109 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Typed stats of one RTP stream (one SSRC) of a peer connection. Counters
+ * are cumulative as reported; rates are worked out against the previous
+ * sample and kept in a {@link MetricRing} per metric. Written by
+ * {@link StatsEngine}; read it from the stats callback.
+ */
+public final class TrackStats {
+    public static final int BITRATE_KBPS = 0;
+    public static final int PACKET_LOSS_PERCENT = 1;
+    public static final int JITTER_MS = 2;
+    public static final int RTT_MS = 3;
+    public static final int FRAMES_PER_SECOND = 4;
+    public static final int QP = 5;
+    public static final int FRAMES_DROPPED_PER_SECOND = 6;
+    static final int METRICS = 7;
+
+    public final long handleId;
+    public final long ssrc;
+    /** True for a stream we send, false for one we receive. */
+    public final boolean outbound;
+    public final boolean video;
+
+    /** When the latest sample was taken, in wall-clock milliseconds. */
+    public long timestampMs;
+    public long bytes;
+    public long packets;
+    public long packetsLost;
+    /** Frames encoded when sending, decoded when receiving. */
+    public long frames;
+    public long framesDropped;
+    public long qpSum;
+    public double jitterMs;
+    public double rttMs;
+    public double framesPerSecond;
+    public int frameWidth;
+    public int frameHeight;
+    public boolean cpuLimited;
+    public boolean bandwidthLimited;
+
+    public double bitrateKbps;
+    public double packetLossPercent;
+    /** Mean QP of the frames since the previous sample. */
+    public double qp;
+    public double framesDroppedPerSecond;
+
+    private final MetricRing[] history;
+    // False until there is a previous sample to take deltas from.
+    boolean hasRates;
+    // Whether the stream was present in the connection's latest sample.
+    boolean seen;
+
+    TrackStats(long handleId, long ssrc, boolean outbound, boolean video, int historySize) {
+        this.handleId = handleId;
+        this.ssrc = ssrc;
+        this.outbound = outbound;
+        this.video = video;
+        history = new MetricRing[METRICS];
+        for (int i = 0; i < METRICS; i++) {
+            history[i] = new MetricRing(historySize);
+        }
+    }
+
+    /** Recent values of one of the metric constants, one per sample. */
+    public MetricRing history(int metric) {
+        return history[metric];
+    }
+
+    /** Folds in a new sample; counters that went backwards restart the deltas. */
+    void update(long timestampMs, long bytes, long packets, long packetsLost, long frames,
+            long framesDropped, long qpSum) {
+        long elapsedMs = timestampMs - this.timestampMs;
+        boolean continuous = this.timestampMs > 0 && elapsedMs > 0
+                && bytes >= this.bytes && packets >= this.packets && frames >= this.frames;
+        if (continuous) {
+            double seconds = elapsedMs / 1000.0;
+            bitrateKbps = (bytes - this.bytes) * 8 / 1000.0 / seconds;
+            long lost = Math.max(0, packetsLost - this.packetsLost);
+            long expected = lost + (packets - this.packets);
+            packetLossPercent = expected == 0 ? 0 : 100.0 * lost / expected;
+            long newFrames = frames - this.frames;
+            qp = newFrames == 0 || qpSum < this.qpSum ? 0 : (double) (qpSum - this.qpSum) / newFrames;
+            framesDroppedPerSecond = Math.max(0, framesDropped - this.framesDropped) / seconds;
+        }
+        this.timestampMs = timestampMs;
+        this.bytes = bytes;
+        this.packets = packets;
+        this.packetsLost = packetsLost;
+        this.frames = frames;
+        this.framesDropped = framesDropped;
+        this.qpSum = qpSum;
+        hasRates = continuous;
+        if (continuous) {
+            history[BITRATE_KBPS].add(bitrateKbps);
+            history[PACKET_LOSS_PERCENT].add(packetLossPercent);
+            history[JITTER_MS].add(jitterMs);
+            history[RTT_MS].add(rttMs);
+            history[FRAMES_PER_SECOND].add(framesPerSecond);
+            history[QP].add(qp);
+            history[FRAMES_DROPPED_PER_SECOND].add(framesDroppedPerSecond);
+        }
+    }
+
+    /** Whether the rates describe the interval up to the latest sample. */
+    public boolean hasRates() {
+        return hasRates;
+    }
+}
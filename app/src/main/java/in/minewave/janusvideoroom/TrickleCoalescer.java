@@ -0,0 +1,180 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers locally gathered ICE candidates per handle for a short window and
+ * hands them to a {@link Sink} in one batch, so a gathering burst becomes a
+ * single Janus {@code trickle} with a {@code candidates} array. The
+ * end-of-candidates marker always flushes whatever is pending for the handle
+ * and is delivered after it.
+ *
+ * <p>Windows run on a {@link TimerWheel}, rounded up to its tick. The sink
+ * is called outside the lock: a flushed batch is queued for its handle, and
+ * whichever thread finds the handle's queue idle delivers it and anything
+ * queued behind it, so each handle's batches still arrive in order.
+ */
+final class TrickleCoalescer {
+    static final long DEFAULT_WINDOW_MS = 50;
+    // A full batch is flushed right away to keep frames small.
+    static final int MAX_BATCH = 32;
+
+    interface Sink {
+        void trickle(long handleId, List<IceCandidate> candidates, boolean completed);
+    }
+
+    private final TimerWheel wheel;
+    private final Sink sink;
+    private final LongHashMap<Batch> pending = new LongHashMap<>();
+    // Handles whose flushed batches are being delivered.
+    private final LongHashMap<ArrayDeque<Batch>> sending = new LongHashMap<>();
+    private long windowMs = DEFAULT_WINDOW_MS;
+
+    TrickleCoalescer(TimerWheel wheel, Sink sink) {
+        this.wheel = wheel;
+        this.sink = sink;
+    }
+
+    /** A window of 0 sends every candidate as soon as it is gathered. */
+    synchronized void setWindow(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    void add(long handleId, IceCandidate candidate) {
+        ArrayDeque<Batch> queue = null;
+        synchronized (this) {
+            if (windowMs <= 0) {
+                Batch batch = new Batch(handleId);
+                batch.candidates.add(candidate);
+                queue = queue(batch);
+            } else {
+                Batch batch = pending.get(handleId);
+                if (batch == null) {
+                    batch = new Batch(handleId);
+                    pending.put(handleId, batch);
+                    batch.flush = wheel.schedule(batch, windowMs);
+                }
+                batch.candidates.add(candidate);
+                if (batch.candidates.size() >= MAX_BATCH) {
+                    queue = flush(batch, false);
+                }
+            }
+        }
+        deliver(handleId, queue);
+    }
+
+    /** Sends everything pending for the handle followed by the end-of-candidates marker. */
+    void complete(long handleId) {
+        ArrayDeque<Batch> queue;
+        synchronized (this) {
+            Batch batch = pending.get(handleId);
+            queue = flush(batch != null ? batch : new Batch(handleId), true);
+        }
+        deliver(handleId, queue);
+    }
+
+    /** Drops anything pending for a handle that is going away. */
+    synchronized void discard(long handleId) {
+        Batch batch = pending.remove(handleId);
+        if (batch != null) {
+            batch.flush.cancel();
+        }
+        ArrayDeque<Batch> queue = sending.get(handleId);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    synchronized void clear() {
+        List<Batch> batches = new ArrayList<>(pending.size());
+        pending.values(batches);
+        for (Batch batch : batches) {
+            batch.flush.cancel();
+        }
+        pending.clear();
+        List<ArrayDeque<Batch>> queues = new ArrayList<>(sending.size());
+        sending.values(queues);
+        for (ArrayDeque<Batch> queue : queues) {
+            queue.clear();
+        }
+    }
+
+    /** Takes the batch out of the window; returns the queue to deliver if the caller is to deliver it. */
+    private ArrayDeque<Batch> flush(Batch batch, boolean completed) {
+        if (batch.flush != null) {
+            pending.remove(batch.handleId);
+            batch.flush.cancel();
+        }
+        batch.completed = completed;
+        return queue(batch);
+    }
+
+    private ArrayDeque<Batch> queue(Batch batch) {
+        ArrayDeque<Batch> queue = sending.get(batch.handleId);
+        if (queue != null) {
+            // Another thread is delivering this handle's batches; it takes this one too.
+            queue.add(batch);
+            return null;
+        }
+        queue = new ArrayDeque<>();
+        queue.add(batch);
+        sending.put(batch.handleId, queue);
+        return queue;
+    }
+
+    /** Hands the queued batches to the sink until the queue is empty. */
+    private void deliver(long handleId, ArrayDeque<Batch> queue) {
+        if (queue == null) {
+            return;
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                Batch batch;
+                synchronized (this) {
+                    batch = queue.poll();
+                    if (batch == null) {
+                        sending.remove(handleId);
+                        done = true;
+                        return;
+                    }
+                }
+                sink.trickle(batch.handleId, batch.candidates, batch.completed);
+            }
+        } finally {
+            if (!done) {
+                // The sink threw; what is queued behind is dropped so the handle is not stuck.
+                synchronized (this) {
+                    sending.remove(handleId);
+                }
+            }
+        }
+    }
+
+    private final class Batch implements Runnable {
+        final long handleId;
+        final List<IceCandidate> candidates = new ArrayList<>();
+        boolean completed;
+        // The end of the window; null for a batch that never had one.
+        TimerWheel.Timeout flush;
+
+        Batch(long handleId) {
+            this.handleId = handleId;
+        }
+
+        @Override
+        public void run() {
+            ArrayDeque<Batch> queue = null;
+            synchronized (TrickleCoalescer.this) {
+                if (pending.get(handleId) == this) {
+                    queue = flush(this, false);
+                }
+            }
+            deliver(handleId, queue);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package in.minewave.janusvideoroom;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps up to {@link #setSize size} expensive objects created ahead of use,
+ * so taking one does not wait for its setup. Each {@link #take} that empties
+ * a slot refills it in the background on the executor, one at a time, so
+ * the pool never holds more than its size however fast items are taken.
+ * The size is the whole budget: warm items cost memory and, for peer
+ * connections, a TURN allocation each, so it should stay small.
+ */
+final class WarmPool<T> {
+
+    interface Factory<T> {
+        /** Creates one item, on the pool's executor; null if it cannot be made now. */
+        T create();
+
+        void dispose(T item);
+    }
+
+    private final Executor executor;
+    private final Factory<T> factory;
+    private final ArrayDeque<T> warm = new ArrayDeque<>();
+    private final Runnable refill = new Runnable() {
+        @Override
+        public void run() {
+            refill();
+        }
+    };
+    private int size;
+    private boolean refilling;
+    private long hits;
+    private long misses;
+
+    WarmPool(Executor executor, Factory<T> factory) {
+        this.executor = executor;
+        this.factory = factory;
+    }
+
+    /** Sets how many items are kept warm; 0 turns the pool off and disposes what it holds. */
+    void setSize(int size) {
+        T[] surplus;
+        synchronized (this) {
+            this.size = Math.max(0, size);
+            surplus = trim(this.size);
+        }
+        dispose(surplus);
+        fill();
+    }
+
+    /** Starts filling the pool up to its size, if it is not already. */
+    void fill() {
+        synchronized (this) {
+            if (refilling || warm.size() >= size) {
+                return;
+            }
+            refilling = true;
+        }
+        executor.execute(refill);
+    }
+
+    /** A warm item, or null if none is ready and the caller must make its own. */
+    T take() {
+        T item;
+        synchronized (this) {
+            item = warm.poll();
+            if (item != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        fill();
+        return item;
+    }
+
+    /** Disposes every warm item; the pool fills again on the next {@link #fill} or {@link #take}. */
+    void clear() {
+        T[] all;
+        synchronized (this) {
+            all = trim(0);
+        }
+        dispose(all);
+    }
+
+    synchronized int warm() {
+        return warm.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    private void refill() {
+        while (true) {
+            synchronized (this) {
+                if (warm.size() >= size) {
+                    refilling = false;
+                    return;
+                }
+            }
+            T item = null;
+            try {
+                item = factory.create();
+            } finally {
+                if (item == null) {
+                    synchronized (this) {
+                        refilling = false;
+                    }
+                }
+            }
+            if (item == null) {
+                return;
+            }
+            boolean kept;
+            synchronized (this) {
+                kept = warm.size() < size;
+                if (kept) {
+                    warm.add(item);
+                }
+            }
+            if (!kept) {
+                factory.dispose(item);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T[] trim(int keep) {
+        int excess = Math.max(0, warm.size() - keep);
+        Object[] out = new Object[excess];
+        for (int i = 0; i < excess; i++) {
+            out[i] = warm.pollLast();
+        }
+        return (T[]) out;
+    }
+
+    private void dispose(T[] items) {
+        for (T item : items) {
+            factory.dispose(item);
+        }
+    }
+}
@@ -1,462 +1,621 @@
 package in.minewave.janusvideoroom;
 
-import android.os.Handler;
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.WebSocket;
-import okhttp3.WebSocketListener;
-import okhttp3.logging.HttpLoggingInterceptor;
-import okio.ByteString;
 
 
+/**
+ * One connection to the gateway, shared by any number of {@link JanusSession}s.
+ * Frames travel over a {@link JanusTransport}: a WebSocket by default, or
+ * {@link JanusHttpTransport} where WebSockets are blocked.
+ * The channel owns the transactions, the keepalive and timer threads and the
+ * signaling trace; inbound events are routed to their session by
+ * {@code session_id} and handled on the lane of their {@code sender}.
+ *
+ * <p>After a reconnect, requests on a session are held until the session
+ * has been claimed on the new connection, then sent in order. Requests
+ * that went out on the dropped connection without a reply are failed with
+ * {@link JanusException#CONNECTION_LOST} rather than sent twice, except
+ * trickles and keepalives, which are safe to repeat.
+ */
 public class WebSocketChannel {
     private static final String TAG = "WebSocketChannel";
 
-    private WebSocket mWebSocket;
-    private ConcurrentHashMap<String, JanusTransaction> transactions = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<BigInteger, JanusHandle> handles = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<BigInteger, JanusHandle> feeds = new ConcurrentHashMap<>();
-    private Handler mHandler;
-    private BigInteger mSessionId;
-    private JanusRTCInterface delegate;
+    private static OkHttpClient sharedClient;
+
+    private final JanusTransport transport;
+    private String url;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    // Guarded by this, together with the closed check before scheduling it.
+    private ScheduledFuture<?> reconnectTask;
+    // Guards writes to the transport and the two fields below.
+    private final Object sendLock = new Object();
+    // Number of the open connection, 0 while there is none.
+    private int connection;
+    private int connections;
+    // Sessions created or claimed on the open connection, which may send.
+    private final LongHashMap<JanusSession> ready = new LongHashMap<>();
+    private final Backoff backoff = new Backoff(250, 10000, new Random());
+    private final List<JanusSession> joined = new CopyOnWriteArrayList<>();
+    private final HandleRegistry<JanusSession> sessions = new HandleRegistry<>();
+    // Owning session of every handle, for the handle-keyed calls of JanusRTCInterface users.
+    final HandleRegistry<JanusSession> owners = new HandleRegistry<>();
+    volatile SignalingDispatcher dispatcher = SignalingDispatcher.DIRECT;
+    volatile int sessionTimeout;
+    final JanusMessageEncoder encoder = new JanusMessageEncoder();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService signalingPool = SignalingExecutor.newPool(SignalingExecutor.DEFAULT_THREADS);
+    private final SignalingExecutor signaling = new SignalingExecutor(signalingPool);
+    private final SignalingTrace trace = new SignalingTrace(SignalingTrace.DEFAULT_CAPACITY);
+    private volatile SignalingCapture capture;
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    final TimerWheel timerWheel = new TimerWheel(scheduler, 100, 512);
+    final JanusTransactionEngine transactions = new JanusTransactionEngine(timerWheel);
+    final KeepAliveScheduler keepAlives = new KeepAliveScheduler(timerWheel);
+    final TrickleCoalescer trickleCoalescer = new TrickleCoalescer(timerWheel,
+            new TrickleCoalescer.Sink() {
+                @Override
+                public void trickle(long handleId, List<IceCandidate> candidates, boolean completed) {
+                    sendTrickle(handleId, candidates, completed);
+                }
+            });
+    final LayerSelector layers = new LayerSelector(timerWheel, new LayerSelector.Sink() {
+        @Override
+        public void configure(long handleId, int substream, int temporal) {
+            JanusSession session = owners.get(handleId);
+            if (session != null) {
+                session.subscriberConfigureLayers(handleId, substream, temporal);
+            }
+        }
+
+        @Override
+        public void setPaused(long handleId, boolean paused) {
+            JanusSession session = owners.get(handleId);
+            if (session != null) {
+                session.subscriberSetPaused(handleId, paused);
+            }
+        }
+    });
+    final TransactionCallbackError logError = new TransactionCallbackError() {
+        @Override
+        public void error(JanusException e) {
+            if (e.code == JanusException.TIMEOUT) {
+                Log.e(TAG, "Transaction failed: " + e.getMessage() + "\n" + trace.dump());
+            } else {
+                Log.e(TAG, "Transaction failed: " + e.code + " " + e.getMessage());
+            }
+        }
+    };
+    private final JanusTransport.Listener transportListener = new JanusTransport.Listener() {
+        @Override
+        public void onOpen() {
+            Log.e(TAG, "onOpen");
+            synchronized (sendLock) {
+                connection = ++connections;
+                ready.clear();
+            }
+            transactions.resume();
+            synchronized (joined) {
+                connected = true;
+                if (sessionTimeout == 0) {
+                    requestServerInfo();
+                }
+                for (JanusSession session : joined) {
+                    if (session.getSessionId() == 0) {
+                        session.create();
+                    } else {
+                        session.claim();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onMessage(String frame) {
+            WebSocketChannel.this.onMessage(frame);
+        }
 
+        @Override
+        public void onFailure(Throwable t) {
+            Log.e(TAG, "onFailure " + t + "\n" + trace.dump());
+            connectionLost();
+        }
+    };
+
+    /** A channel over a WebSocket. */
     public WebSocketChannel() {
-        mHandler = new Handler();
+        this(new WebSocketTransport(sharedClient()));
     }
 
-    public void initConnection(String url) {
-        OkHttpClient httpClient = new OkHttpClient.Builder()
-                .addNetworkInterceptor(new HttpLoggingInterceptor().setLevel(HttpLoggingInterceptor.Level.BODY))
-                .addInterceptor(new Interceptor() {
-                    @Override
-                    public Response intercept(Interceptor.Chain chain) throws IOException {
-                        Request.Builder builder = chain.request().newBuilder();
-                        builder.addHeader("Sec-WebSocket-Protocol", "janus-protocol");
-                        return chain.proceed(builder.build());
-                    }
-                }).connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(10, TimeUnit.SECONDS)
-                .build();
-        Request request = new Request.Builder().url(url).build();
-        mWebSocket = httpClient.newWebSocket(request, new WebSocketListener() {
-            @Override
-            public void onOpen(WebSocket webSocket, Response response) {
-                Log.e(TAG, "onOpen");
-                createSession();
-            }
+    public WebSocketChannel(JanusTransport transport) {
+        this.transport = transport;
+    }
 
-            @Override
-            public void onMessage(WebSocket webSocket, String text) {
-                Log.e(TAG, "onMessage");
-                WebSocketChannel.this.onMessage(text);
-            }
+    /**
+     * One client for every channel and transport in the process, so all of
+     * them share a connection pool and dispatcher threads.
+     */
+    public static synchronized OkHttpClient sharedClient() {
+        if (sharedClient == null) {
+            sharedClient = new OkHttpClient.Builder()
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .readTimeout(10, TimeUnit.SECONDS)
+                    .build();
+        }
+        return sharedClient;
+    }
 
-            @Override
-            public void onMessage(WebSocket webSocket, ByteString bytes) {
-            }
+    public void initConnection(String url) {
+        this.url = url;
+        connect();
+    }
 
-            @Override
-            public void onClosing(WebSocket webSocket, int code, String reason) {
-                Log.e(TAG, "onClosing");
+    /**
+     * Joins {@code room} on a new session of this channel. The session is
+     * created as soon as the connection is open, and the room is joined as a
+     * publisher under {@code display}.
+     */
+    public JanusSession joinRoom(long room, String display, JanusRTCInterface delegate) {
+        JanusSession session = new JanusSession(this, room, display, delegate);
+        synchronized (joined) {
+            joined.add(session);
+            if (connected) {
+                session.create();
             }
+        }
+        return session;
+    }
 
-            @Override
-            public void onClosed(WebSocket webSocket, int code, String reason) {
-            }
+    /**
+     * Closes the socket for good; no reconnect is attempted afterwards.
+     * Pending requests fail with {@link JanusException#CLOSED}, timers are
+     * dropped and the channel's threads are shut down, so no callback fires
+     * after it returns except those already running.
+     */
+    public void close() {
+        ScheduledFuture<?> task;
+        synchronized (this) {
+            closed = true;
+            task = reconnectTask;
+            reconnectTask = null;
+        }
+        if (task != null) {
+            task.cancel(false);
+        }
+        connected = false;
+        synchronized (sendLock) {
+            connection = 0;
+            ready.clear();
+        }
+        keepAlives.stopAll();
+        transport.close();
+        transactions.suspend();
+        transactions.failAll(new JanusException(JanusException.CLOSED, "Channel closed"));
+        timerWheel.clear();
+        scheduler.shutdownNow();
+        signalingPool.shutdownNow();
+    }
 
-            @Override
-            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
-                Log.e(TAG, "onFailure" + t.toString());
-            }
-        });
+    private void connect() {
+        transport.connect(url, transportListener);
     }
 
-    private void onMessage(String message) {
-        Log.e(TAG, "onMessage" + message);
-        try {
-            JSONObject jo = new JSONObject(message);
-            String janus = jo.optString("janus");
-            if (janus.equals("success")) {
-                String transaction = jo.optString("transaction");
-                JanusTransaction jt = transactions.get(transaction);
-                if (jt.success != null) {
-                    jt.success.success(jo);
-                }
-                transactions.remove(transaction);
-            } else if (janus.equals("error")) {
-                String transaction = jo.optString("transaction");
-                JanusTransaction jt = transactions.get(transaction);
-                if (jt.error != null) {
-                    jt.error.error(jo);
-                }
-                transactions.remove(transaction);
-            } else if (janus.equals("ack")) {
-                Log.e(TAG, "Just an ack");
-            } else {
-                JanusHandle handle = handles.get(new BigInteger(jo.optString("sender")));
-                if (handle == null) {
-                    Log.e(TAG, "missing handle");
-                } else if (janus.equals("event")) {
-                    JSONObject plugin = jo.optJSONObject("plugindata").optJSONObject("data");
-                    if (plugin.optString("videoroom").equals("joined")) {
-                        handle.onJoined.onJoined(handle);
+    private void connectionLost() {
+        connected = false;
+        synchronized (sendLock) {
+            connection = 0;
+            ready.clear();
+        }
+        // Requests wait for the reconnect rather than time out during it.
+        transactions.suspend();
+        if (closed) {
+            return;
+        }
+        long delay = backoff.next();
+        Log.e(TAG, "Connection lost, reconnecting in " + delay + "ms (attempt " + backoff.attempts() + ")");
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            reconnectTask = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        connect();
                     }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
 
-                    JSONArray publishers = plugin.optJSONArray("publishers");
-                    if (publishers != null && publishers.length() > 0) {
-                        for (int i = 0, size = publishers.length(); i <= size - 1; i++) {
-                            JSONObject publisher = publishers.optJSONObject(i);
-                            BigInteger feed = new BigInteger(publisher.optString("id"));
-                            String display = publisher.optString("display");
-                            subscriberCreateHandle(feed, display);
-                        }
-                    }
+    boolean isConnected() {
+        return connected;
+    }
 
-                    String leaving = plugin.optString("leaving");
-                    if (!TextUtils.isEmpty(leaving)) {
-                        JanusHandle jhandle = feeds.get(new BigInteger(leaving));
-                        jhandle.onLeaving.onJoined(jhandle);
-                    }
+    /**
+     * Registers a session that already exists on the gateway without creating
+     * it, so captured traffic addressed to it can be replayed through
+     * {@link #onMessage}.
+     */
+    JanusSession adoptSession(long sessionId, long room, JanusRTCInterface delegate) {
+        JanusSession session = new JanusSession(this, room, "replay", delegate);
+        session.adopt(sessionId);
+        joined.add(session);
+        sessions.put(sessionId, session);
+        return session;
+    }
 
-                    JSONObject jsep = jo.optJSONObject("jsep");
-                    if (jsep != null) {
-                       handle.onRemoteJsep.onRemoteJsep(handle, jsep);
-                    }
+    /** Idle when no signaling lane has queued or running work. */
+    boolean isIdle() {
+        return signaling.activeLanes() == 0;
+    }
 
-                } else if (janus.equals("detached")) {
-                    handle.onLeaving.onJoined(handle);
-                }
+    void onSessionCreated(JanusSession session) {
+        backoff.reset();
+        sessions.put(session.getSessionId(), session);
+        synchronized (sendLock) {
+            if (connection != 0) {
+                ready.put(session.getSessionId(), session);
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
     }
 
-    private void createSession() {
-        String transaction = randomString(12);
-        JanusTransaction jt = new JanusTransaction();
-        jt.tid =  transaction;
-        jt.success = new TransactionCallbackSuccess() {
-            @Override
-            public void success(JSONObject jo) {
-                mSessionId = new BigInteger(jo.optJSONObject("data").optString("id"));
-                mHandler.post(fireKeepAlive);
-                publisherCreateHandle();
+    /**
+     * Sends the requests held for the claimed session. Those that already
+     * went out on a dropped connection are only sent again if repeating
+     * them is harmless; the rest fail.
+     */
+    void onSessionClaimed(JanusSession session) {
+        backoff.reset();
+        long sessionId = session.getSessionId();
+        List<JanusTransaction> lost = new ArrayList<>();
+        synchronized (sendLock) {
+            if (connection == 0) {
+                return;
             }
-        };
-        jt.error = new TransactionCallbackError() {
-            @Override
-            public void error(JSONObject jo) {
+            ready.put(sessionId, session);
+            for (JanusTransaction pending : transactions.unacknowledged(sessionId)) {
+                if (pending.frame == null || pending.sentOn == connection) {
+                    continue;
+                }
+                if (pending.sentOn != 0 && pending.verb != JanusTransaction.Verb.TRICKLE
+                        && pending.verb != JanusTransaction.Verb.KEEPALIVE) {
+                    lost.add(pending);
+                    continue;
+                }
+                trace.record(SignalingTrace.OUT, "replay", pending.handleId, pending.tid, pending.frame);
+                write(pending);
             }
-        };
-        transactions.put(transaction, jt);
-        JSONObject msg = new JSONObject();
-        try {
-            msg.putOpt("janus", "create");
-            msg.putOpt("transaction", transaction);
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
-        mWebSocket.send(msg.toString());
+        transactions.fail(lost, new JanusException(JanusException.CONNECTION_LOST,
+                "Connection lost before the reply"));
     }
 
-    private void publisherCreateHandle() {
-        String transaction = randomString(12);
-        JanusTransaction jt = new JanusTransaction();
-        jt.tid = transaction;
-        jt.success = new TransactionCallbackSuccess() {
-            @Override
-            public void success(JSONObject jo) {
-                JanusHandle janusHandle = new JanusHandle();
-                janusHandle.handleId = new BigInteger(jo.optJSONObject("data").optString("id"));
-                janusHandle.onJoined = new OnJoined() {
-                    @Override
-                    public void onJoined(JanusHandle jh) {
-                        delegate.onPublisherJoined(jh.handleId);
-                    }
-                };
-                janusHandle.onRemoteJsep = new OnRemoteJsep() {
-                    @Override
-                    public void onRemoteJsep(JanusHandle jh,  JSONObject jsep) {
-                        delegate.onPublisherRemoteJsep(jh.handleId, jsep);
-                    }
-                };
-                handles.put(janusHandle.handleId, janusHandle);
-                publisherJoinRoom(janusHandle);
+    void onSessionLost(JanusSession session, long sessionId) {
+        sessions.remove(sessionId, session);
+        synchronized (sendLock) {
+            if (ready.get(sessionId) == session) {
+                ready.remove(sessionId);
             }
-        };
-        jt.error = new TransactionCallbackError() {
-            @Override
-            public void error(JSONObject jo) {
-            }
-        };
-        transactions.put(transaction, jt);
-        JSONObject msg = new JSONObject();
-        try {
-            msg.putOpt("janus", "attach");
-            msg.putOpt("plugin", "janus.plugin.videoroom");
-            msg.putOpt("transaction", transaction);
-            msg.putOpt("session_id", mSessionId);
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
-        mWebSocket.send(msg.toString());
+        transactions.failAll(sessionId, new JanusException(JanusException.SESSION_LOST, "Session lost"));
+    }
+
+    void onSessionDestroyed(JanusSession session, long sessionId) {
+        joined.remove(session);
+        if (sessionId != 0) {
+            onSessionLost(session, sessionId);
+        }
     }
 
-    private void publisherJoinRoom(JanusHandle handle) {
-        JSONObject msg = new JSONObject();
-        JSONObject body = new JSONObject();
+    /**
+     * Called on the socket reader thread. Only decodes the frame; handling
+     * runs on the signaling lane of the handle it concerns, so the reader
+     * never waits on application work.
+     */
+    void onMessage(String message) {
+        if (closed) {
+            return;
+        }
+        final long receivedNanos = System.nanoTime();
+        final JanusEvent event;
         try {
-            body.putOpt("request", "join");
-            body.putOpt("room", 1234);
-            body.putOpt("ptype", "publisher");
-            body.putOpt("display", "Android webrtc");
-
-            msg.putOpt("janus", "message");
-            msg.putOpt("body", body);
-            msg.putOpt("transaction", randomString(12));
-            msg.putOpt("session_id", mSessionId);
-            msg.putOpt("handle_id", handle.handleId);
+            event = JanusMessageDecoder.decode(message);
         } catch (JSONException e) {
-            e.printStackTrace();
+            trace.record(SignalingTrace.IN, "malformed", 0, 0, message);
+            SignalingCapture c = capture;
+            if (c != null) {
+                c.record(SignalingTrace.IN, 0, 0, message);
+            }
+            Log.e(TAG, "Malformed frame: " + e.getMessage());
+            return;
+        }
+        trace.record(SignalingTrace.IN, event.type == JanusEvent.Type.UNKNOWN ? "unknown" : event.type.wireName,
+                event.sender, event.transactionId, message);
+        SignalingCapture c = capture;
+        if (c != null) {
+            c.record(SignalingTrace.IN, event.sessionId, event.sender, message);
+        }
+        // Replies carry no sender; they run on the lane of the handle the request went to, in order with its events.
+        long lane = event.sender;
+        if (lane == 0 && event.transactionId != 0) {
+            lane = transactions.handleOf(event.transactionId);
+        }
+        try {
+            signaling.execute(lane != 0 ? lane : event.sessionId, new Runnable() {
+                @Override
+                public void run() {
+                    handleEvent(event);
+                    dispatchLatency.record((System.nanoTime() - receivedNanos) / 1000);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed while the frame was being decoded.
         }
-        mWebSocket.send(msg.toString());
     }
 
-    public void publisherCreateOffer(final BigInteger handleId, final SessionDescription sdp) {
-        JSONObject publish = new JSONObject();
-        JSONObject jsep = new JSONObject();
-        JSONObject message = new JSONObject();
+    private void handleEvent(JanusEvent event) {
         try {
-            publish.putOpt("request", "configure");
-            publish.putOpt("audio", true);
-            publish.putOpt("video", true);
-
-            jsep.putOpt("type", sdp.type);
-            jsep.putOpt("sdp", sdp.description);
-
-            message.putOpt("janus", "message");
-            message.putOpt("body", publish);
-            message.putOpt("jsep", jsep);
-            message.putOpt("transaction", randomString(12));
-            message.putOpt("session_id", mSessionId);
-            message.putOpt("handle_id", handleId);
+            switch (event.type) {
+                case SUCCESS:
+                case ERROR:
+                case ACK:
+                    if (!transactions.onReply(event)) {
+                        Log.e(TAG, "Reply to unknown transaction " + event.transaction());
+                    }
+                    break;
+                default: {
+                    if (event.transactionId != 0) {
+                        transactions.onReply(event);
+                    }
+                    JanusSession session = sessions.get(event.sessionId);
+                    if (session == null) {
+                        Log.e(TAG, "missing session");
+                    } else {
+                        session.onEvent(event);
+                    }
+                    break;
+                }
+            }
         } catch (JSONException e) {
             e.printStackTrace();
+        } catch (RuntimeException e) {
+            // Thrown here or by a delegate called directly; the lane and the other handles carry on.
+            Log.e(TAG, "Failed to handle " + event.type + " from " + event.sender, e);
         }
-        mWebSocket.send(message.toString());
     }
 
-    public void subscriberCreateAnswer(final BigInteger handleId, final SessionDescription sdp) {
-        JSONObject body = new JSONObject();
-        JSONObject jsep = new JSONObject();
-        JSONObject message = new JSONObject();
+    public void publisherCreateOffer(final long handleId, final SessionDescription sdp) {
+        JanusSession session = owners.get(handleId);
+        if (session != null) {
+            session.publisherCreateOffer(handleId, sdp);
+        }
+    }
 
-        try {
-            body.putOpt("request", "start");
-            body.putOpt("room", 1234);
-
-            jsep.putOpt("type", sdp.type);
-            jsep.putOpt("sdp", sdp.description);
-            message.putOpt("janus", "message");
-            message.putOpt("body", body);
-            message.putOpt("jsep", jsep);
-            message.putOpt("transaction", randomString(12));
-            message.putOpt("session_id", mSessionId);
-            message.putOpt("handle_id", handleId);
-            Log.e(TAG, "-------------"  + message.toString());
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Asks the gateway to hold the publisher on {@code handleId} to
+     * {@code bitrate} bits per second, for when the limit cannot be set on
+     * the sender itself.
+     */
+    public void publisherConfigureBitrate(final long handleId, final int bitrate) {
+        JanusSession session = owners.get(handleId);
+        if (session != null) {
+            session.publisherConfigureBitrate(handleId, bitrate);
         }
+    }
 
-        mWebSocket.send(message.toString());
+    public void subscriberCreateAnswer(final long handleId, final SessionDescription sdp) {
+        JanusSession session = owners.get(handleId);
+        if (session != null) {
+            session.subscriberCreateAnswer(handleId, sdp);
+        }
     }
 
-    public void trickleCandidate(final BigInteger handleId, final IceCandidate iceCandidate) {
-        JSONObject candidate = new JSONObject();
-        JSONObject message = new JSONObject();
-        try {
-            candidate.putOpt("candidate", iceCandidate.sdp);
-            candidate.putOpt("sdpMid", iceCandidate.sdpMid);
-            candidate.putOpt("sdpMLineIndex", iceCandidate.sdpMLineIndex);
-
-            message.putOpt("janus", "trickle");
-            message.putOpt("candidate", candidate);
-            message.putOpt("transaction", randomString(12));
-            message.putOpt("session_id", mSessionId);
-            message.putOpt("handle_id", handleId);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Reports how large the subscriber on {@code handleId} is drawn, in
+     * pixels, and whether it is shown at all, so the gateway sends it the
+     * simulcast or SVC layer that size needs, or nothing while it is hidden.
+     * Call whenever the layout or visibility changes; requests go out once
+     * it settles, except that a hidden feed coming back resumes at once.
+     */
+    public void setViewport(long handleId, int widthPx, int heightPx, boolean visible) {
+        layers.setViewport(handleId, widthPx, heightPx, visible);
+    }
+
+    /** Sets how long a viewport must hold still before its layers are requested. */
+    public void setLayerDebounce(long debounceMs) {
+        layers.setDebounce(debounceMs);
+    }
+
+    /**
+     * Whether hidden feeds are paused on the gateway, which is the default,
+     * or only dropped to their lowest layers.
+     */
+    public void setPauseHiddenFeeds(boolean pause) {
+        layers.setPauseHidden(pause);
+    }
+
+    /**
+     * The feed carried by {@code mid} on the multistream subscriber
+     * {@code handleId}, or 0 if it carries none.
+     */
+    public long feedForMid(long handleId, String mid) {
+        JanusSession session = owners.get(handleId);
+        return session == null ? 0 : session.feedForMid(mid);
+    }
+
+    public void trickleCandidate(final long handleId, final IceCandidate iceCandidate) {
+        if (!closed) {
+            trickleCoalescer.add(handleId, iceCandidate);
         }
-        mWebSocket.send(message.toString());
     }
 
-    public void trickleCandidateComplete(final BigInteger handleId) {
-        JSONObject candidate = new JSONObject();
-        JSONObject message = new JSONObject();
-        try {
-            candidate.putOpt("completed", true);
+    public void trickleCandidateComplete(final long handleId) {
+        if (!closed) {
+            trickleCoalescer.complete(handleId);
+        }
+    }
 
-            message.putOpt("janus", "trickle");
-            message.putOpt("candidate", candidate);
-            message.putOpt("transaction", randomString(12));
-            message.putOpt("session_id", mSessionId);
-            message.putOpt("handle_id", handleId);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Sets how long local candidates are buffered per handle before they are sent
+     * as one trickle request, rounded up to the 100ms tick of the channel's
+     * timers. 0 sends each candidate on its own.
+     */
+    public void setTrickleWindow(long windowMs) {
+        trickleCoalescer.setWindow(windowMs);
+    }
+
+    private void sendTrickle(long handleId, List<IceCandidate> candidates, boolean completed) {
+        JanusSession session = owners.get(handleId);
+        if (session != null) {
+            session.sendTrickle(handleId, candidates, completed);
         }
     }
 
-    private void subscriberCreateHandle(final BigInteger feed, final String display) {
-        String transaction = randomString(12);
-        JanusTransaction jt = new JanusTransaction();
-        jt.tid = transaction;
+    /** Sizes the keepalive interval from the gateway's session_timeout. */
+    private void requestServerInfo() {
+        JanusTransaction jt = transactions.create(JanusTransaction.Verb.INFO);
         jt.success = new TransactionCallbackSuccess() {
             @Override
-            public void success(JSONObject jo) {
-                JanusHandle janusHandle = new JanusHandle();
-                janusHandle.handleId = new BigInteger(jo.optJSONObject("data").optString("id"));
-                janusHandle.feedId = feed;
-                janusHandle.display = display;
-                janusHandle.onRemoteJsep = new OnRemoteJsep() {
-                    @Override
-                    public void onRemoteJsep(JanusHandle jh, JSONObject jsep) {
-                        delegate.subscriberHandleRemoteJsep(jh.handleId, jsep);
-                    }
-                };
-                janusHandle.onLeaving = new OnJoined() {
-                    @Override
-                    public void onJoined(JanusHandle jh) {
-                        subscriberOnLeaving(jh);
+            public void success(JanusEvent jo) throws JSONException {
+                if (jo instanceof JanusEvent.ServerInfo) {
+                    sessionTimeout = ((JanusEvent.ServerInfo) jo).sessionTimeout();
+                    for (JanusSession session : joined) {
+                        session.setSessionTimeout(sessionTimeout);
                     }
-                };
-                handles.put(janusHandle.handleId, janusHandle);
-                feeds.put(janusHandle.feedId, janusHandle);
-                subscriberJoinRoom(janusHandle);
-            }
-        };
-        jt.error = new TransactionCallbackError() {
-            @Override
-            public void error(JSONObject jo) {
+                }
             }
         };
+        jt.error = logError;
+        transactions.register(jt);
+        send("info", 0, 0, jt, encoder.info(jt.tid));
+    }
 
-        transactions.put(transaction, jt);
-        JSONObject msg = new JSONObject();
-        try {
-            msg.putOpt("janus", "attach");
-            msg.putOpt("plugin", "janus.plugin.videoroom");
-            msg.putOpt("transaction", transaction);
-            msg.putOpt("session_id", mSessionId);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Sends a request. If the socket is down, or its session is not yet
+     * claimed on the new one, the frame stays with its transaction and is
+     * sent once the session has been claimed.
+     */
+    void send(String verb, JanusSession session, long handleId, JanusTransaction jt, String frame) {
+        session.touch();
+        send(verb, session.getSessionId(), handleId, jt, frame);
+    }
+
+    void send(String verb, long sessionId, long handleId, JanusTransaction jt, String frame) {
+        jt.frame = frame;
+        jt.sessionId = sessionId;
+        jt.handleId = handleId;
+        trace.record(SignalingTrace.OUT, verb, handleId, jt.tid, frame);
+        SignalingCapture c = capture;
+        if (c != null) {
+            c.record(SignalingTrace.OUT, sessionId, handleId, frame);
         }
+        synchronized (sendLock) {
+            // The claim may have sent it already, from another thread.
+            if (connection != 0 && jt.sentOn != connection && (sessionId == 0 || jt.verb == JanusTransaction.Verb.CLAIM
+                    || ready.containsKey(sessionId))) {
+                write(jt);
+            }
+        }
+    }
 
-        mWebSocket.send(msg.toString());
+    /** Writes a request to the open connection; call with sendLock held. */
+    private void write(JanusTransaction jt) {
+        jt.sentOn = connection;
+        transport.send(jt.sessionId, jt.handleId, jt.frame);
     }
 
-    private void subscriberJoinRoom(JanusHandle handle) {
+    static SessionDescription toSessionDescription(JanusJsep jsep) {
+        return new SessionDescription(SessionDescription.Type.fromCanonicalForm(jsep.type), jsep.sdp);
+    }
 
-        JSONObject msg = new JSONObject();
-        JSONObject body = new JSONObject();
-        try {
-            body.putOpt("request", "join");
-            body.putOpt("room", 1234);
-            body.putOpt("ptype", "listener");
-            body.putOpt("feed", handle.feedId);
-
-            msg.putOpt("janus", "message");
-            msg.putOpt("body", body);
-            msg.putOpt("transaction", randomString(12));
-            msg.putOpt("session_id", mSessionId);
-            msg.putOpt("handle_id", handle.handleId);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        mWebSocket.send(msg.toString());
+    /**
+     * Sets the thread {@link JanusRTCInterface} callbacks are delivered on.
+     * By default they run on the signaling thread of the handle they concern.
+     */
+    public void setDispatcher(SignalingDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
 
-    private void subscriberOnLeaving(final JanusHandle handle) {
-        String transaction = randomString(12);
-        JanusTransaction jt = new JanusTransaction();
-        jt.tid = transaction;
-        jt.success = new TransactionCallbackSuccess() {
-            @Override
-            public void success(JSONObject jo) {
-                delegate.onLeaving(handle.handleId);
-                handles.remove(handle.handleId);
-                feeds.remove(handle.feedId);
-            }
-        };
-        jt.error = new TransactionCallbackError() {
-            @Override
-            public void error(JSONObject jo) {
-            }
-        };
+    /** Tracks a request whose reply needs no handling beyond failure logging. */
+    JanusTransaction newTransaction(JanusTransaction.Verb verb) {
+        JanusTransaction jt = transactions.create(verb);
+        jt.error = logError;
+        transactions.register(jt);
+        return jt;
+    }
 
-        transactions.put(transaction, jt);
+    /** Sets how long a request may wait for its reply before it fails with a timeout. */
+    public void setTransactionTimeout(long timeoutMs) {
+        transactions.setTimeout(timeoutMs);
+    }
 
-        JSONObject jo = new JSONObject();
-        try {
-            jo.putOpt("janus", "detach");
-            jo.putOpt("transaction", transaction);
-            jo.putOpt("session_id", mSessionId);
-            jo.putOpt("handle_id", handle.handleId);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        mWebSocket.send(jo.toString());
+    /** Round-trip times of completed requests of the given type. */
+    public LatencyHistogram getLatency(JanusTransaction.Verb verb) {
+        return transactions.latency(verb);
     }
 
-    private void keepAlive() {
-        String transaction = randomString(12);
-        JSONObject msg = new JSONObject();
-        try {
-            msg.putOpt("janus", "keepalive");
-            msg.putOpt("session_id", mSessionId);
-            msg.putOpt("transaction", transaction);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        mWebSocket.send(msg.toString());
+    public long getTimeouts(JanusTransaction.Verb verb) {
+        return transactions.timeouts(verb);
     }
 
-    private Runnable fireKeepAlive = new Runnable() {
-        @Override
-        public void run() {
-            keepAlive();
-            mHandler.postDelayed(fireKeepAlive, 30000);
-        }
-    };
+    /** Turns the signaling trace on or off; it is on by default and keeps no payloads. */
+    public void setTraceEnabled(boolean enabled) {
+        trace.setEnabled(enabled);
+    }
+
+    /** Keeps up to {@code chars} characters of every traced frame, for debugging only. */
+    public void setTracePayloadLimit(int chars) {
+        trace.setPayloadLimit(chars);
+    }
 
-    public void setDelegate(JanusRTCInterface delegate) {
-        this.delegate = delegate;
+    /** The most recent signaling frames, oldest first. */
+    public String dumpTrace() {
+        return trace.dump();
     }
 
-    private String randomString(Integer length) {
-        final String str = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
-        final Random rnd = new Random();
-        StringBuilder sb = new StringBuilder(length);
-        for (int i = 0; i < length; i++) {
-            sb.append(str.charAt(rnd.nextInt(str.length())));
+    /**
+     * Records every frame in and out to {@code out} until {@link #stopCapture},
+     * in the {@link SignalingCapture} format. Frames are kept in full, so this
+     * is for collecting traffic samples, not for normal use.
+     */
+    public void startCapture(OutputStream out) throws IOException {
+        SignalingCapture previous = capture;
+        capture = new SignalingCapture(out);
+        if (previous != null) {
+            previous.close();
         }
-        return sb.toString();
+    }
+
+    public void stopCapture() throws IOException {
+        SignalingCapture c = capture;
+        capture = null;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    /** Time from a frame arriving until its handling on the signaling lane finished. */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
     }
 }
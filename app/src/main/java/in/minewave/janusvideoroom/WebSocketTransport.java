@@ -0,0 +1,88 @@
+package in.minewave.janusvideoroom;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/** Janus over a WebSocket speaking the {@code janus-protocol} subprotocol. */
+public class WebSocketTransport implements JanusTransport {
+    private static final String TAG = "WebSocketTransport";
+
+    private final OkHttpClient client;
+    private volatile WebSocket webSocket;
+
+    public WebSocketTransport(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void connect(String url, final Listener listener) {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Sec-WebSocket-Protocol", "janus-protocol")
+                .build();
+        webSocket = client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket ws, Response response) {
+                if (ws == webSocket) {
+                    listener.onOpen();
+                }
+            }
+
+            @Override
+            public void onMessage(WebSocket ws, String text) {
+                if (ws == webSocket) {
+                    listener.onMessage(text);
+                }
+            }
+
+            @Override
+            public void onMessage(WebSocket ws, ByteString bytes) {
+            }
+
+            @Override
+            public void onClosing(WebSocket ws, int code, String reason) {
+                Log.e(TAG, "onClosing");
+                ws.close(1000, null);
+            }
+
+            @Override
+            public void onClosed(WebSocket ws, int code, String reason) {
+                if (ws == webSocket) {
+                    listener.onFailure(new IOException("Closed: " + code + " " + reason));
+                }
+            }
+
+            @Override
+            public void onFailure(WebSocket ws, Throwable t, Response response) {
+                if (ws == webSocket) {
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void send(long sessionId, long handleId, String frame) {
+        WebSocket ws = webSocket;
+        if (ws != null) {
+            ws.send(frame);
+        }
+    }
+
+    @Override
+    public void close() {
+        WebSocket ws = webSocket;
+        webSocket = null;
+        if (ws != null) {
+            ws.close(1000, null);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+
+    @Test
+    public void growsWithinJitteredBoundsUpToTheCap() {
+        Backoff backoff = new Backoff(250, 10000, new Random(7));
+        long ceiling = 250;
+        for (int i = 0; i < 40; i++) {
+            long delay = backoff.next();
+            assertTrue(i + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            ceiling = Math.min(ceiling * 2, 10000);
+        }
+        assertEquals(40, backoff.attempts());
+
+        backoff.reset();
+        assertTrue(backoff.next() <= 250);
+    }
+}
@@ -0,0 +1,81 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitrateControllerTest {
+
+    private final BitrateController controller = new BitrateController(150, 2000);
+
+    @Test
+    public void backsOffOnLossAtMostOncePerHold() {
+        assertEquals(0, controller.onStats(0, 0, 50, 1800));
+        int cap = controller.onStats(1000, 20, 50, 1800);
+        assertEquals(Math.round(1800 * BitrateController.DECREASE), cap);
+        // Still lossy, but the last cut has not had time to work.
+        assertEquals(0, controller.onStats(1500, 20, 50, cap));
+        assertTrue(controller.onStats(2000, 20, 50, cap) < cap);
+    }
+
+    @Test
+    public void holdsBetweenThresholdsAndWaitsBeforeGrowing() {
+        int cap = controller.onStats(0, 20, 50, 1000);
+        assertTrue(cap > 0);
+        // Moderate loss: hold.
+        for (long t = 1000; t < 10000; t += 1000) {
+            assertEquals(0, controller.onStats(t, 5, 50, cap));
+        }
+        assertEquals(cap, controller.target(), 0.5);
+
+        // Clean, but too soon after the cut.
+        BitrateController fresh = new BitrateController(150, 2000);
+        int cut = fresh.onStats(0, 20, 50, 1000);
+        fresh.onStats(1000, 0, 50, cut);
+        assertEquals(cut, fresh.target(), 0.5);
+        fresh.onStats(BitrateController.INCREASE_HOLD_MS, 0, 50, cut);
+        assertTrue(fresh.target() > cut);
+    }
+
+    @Test
+    public void smallIncreasesAreNotAppliedUntilTheyAddUp() {
+        int cap = controller.onStats(0, 20, 50, 1000);
+        int applied = 0;
+        int calls = 0;
+        for (long t = BitrateController.INCREASE_HOLD_MS; applied == 0; t += 1000) {
+            applied = controller.onStats(t, 0, 50, cap);
+            calls++;
+        }
+        assertTrue("one 8% step is below the 10% apply threshold", calls >= 2);
+        assertTrue(applied > cap * 1.1);
+    }
+
+    @Test
+    public void growthFollowsWhatIsActuallySent() {
+        controller.onStats(0, 20, 50, 1000);
+        for (long t = BitrateController.INCREASE_HOLD_MS; t < 60000; t += 1000) {
+            controller.onStats(t, 0, 50, 300);
+        }
+        assertEquals(850, controller.target(), 0.5);
+    }
+
+    @Test
+    public void risingRttAndSlowLinkBackOff() {
+        controller.onStats(0, 0, 40, 1500);
+        int cap = controller.onStats(1000, 0, 40 + BitrateController.RTT_RISE_MS + 10, 1500);
+        assertEquals(Math.round(1500 * BitrateController.DECREASE), cap);
+
+        int next = controller.onSlowLink(2000, cap);
+        assertTrue(next > 0 && next < cap);
+        assertEquals(0, controller.onSlowLink(2500, next));
+    }
+
+    @Test
+    public void neverGoesBelowTheFloor() {
+        for (long t = 0; t < 60000; t += 1000) {
+            controller.onStats(t, 50, 50, 0);
+        }
+        assertEquals(150, controller.target(), 0);
+        assertEquals(150, controller.applied());
+    }
+}
@@ -0,0 +1,40 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DescriptionSetsTest {
+    private final DescriptionSets sets = new DescriptionSets();
+    private int starts;
+
+    /** What a subscriber's observer does for one offer: set it, then set the answer. */
+    private void answer() {
+        sets.settingRemote();
+        if (sets.completed()) {
+            starts++;
+        }
+        sets.settingLocal();
+        if (sets.completed()) {
+            starts++;
+        }
+    }
+
+    @Test
+    public void startsOncePerOfferOnTheSameConnection() {
+        answer();
+        assertEquals(1, starts);
+        // The second offer is set while the first answer is still the local description.
+        answer();
+        assertEquals(2, starts);
+    }
+
+    @Test
+    public void completesInTheOrderSetsWereMade() {
+        sets.settingLocal();
+        sets.settingRemote();
+        assertTrue(sets.completed());
+        assertFalse(sets.completed());
+        assertFalse(sets.completed());
+    }
+}
@@ -0,0 +1,406 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Janus gateway running the videoroom plugin.
+ * Each {@link #transport()} is one client connection; requests are handled
+ * in arrival order on a single gateway thread and replies are delivered on
+ * the connection's own reader thread, the way a socket would. Only the
+ * requests {@link WebSocketChannel} sends are understood, and SDPs are
+ * opaque placeholders.
+ *
+ * <p>Rooms can also hold virtual publishers that exist only in the gateway;
+ * {@link #startChurn} replaces one of them per room at a fixed rate so
+ * clients keep subscribing and tearing subscriptions down.
+ */
+final class FakeJanusGateway {
+    static final String OFFER_SDP = "v=0\r\no=- 1 1 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\nm=video 9 UDP/TLS/RTP/SAVPF 96\r\n";
+    static final String ANSWER_SDP = OFFER_SDP.replace("o=- 1 1", "o=- 2 1");
+    static final int SESSION_TIMEOUT_S = 60;
+
+    private static final class Session {
+        final long id;
+        Connection connection;
+
+        Session(long id, Connection connection) {
+            this.id = id;
+            this.connection = connection;
+        }
+    }
+
+    private static final class Handle {
+        final long id;
+        final Session session;
+        Room room;
+        Publisher publisher;
+
+        Handle(long id, Session session) {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    private static final class Publisher {
+        final long id;
+        final String display;
+        // Null for virtual publishers.
+        final Handle handle;
+
+        Publisher(long id, String display, Handle handle) {
+            this.id = id;
+            this.display = display;
+            this.handle = handle;
+        }
+    }
+
+    private static final class Room {
+        final long id;
+        final List<Publisher> publishers = new ArrayList<>();
+
+        Room(long id) {
+            this.id = id;
+        }
+    }
+
+    final class Connection implements JanusTransport {
+        private final ExecutorService reader = Executors.newSingleThreadExecutor(DAEMON);
+        private volatile Listener listener;
+
+        @Override
+        public void connect(String url, final Listener listener) {
+            this.listener = listener;
+            reader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onOpen();
+                }
+            });
+        }
+
+        @Override
+        public void send(long sessionId, long handleId, final String frame) {
+            framesIn.incrementAndGet();
+            lastActivityNanos = System.nanoTime();
+            core.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(Connection.this, new JSONObject(frame));
+                    } catch (JSONException e) {
+                        throw new IllegalStateException("Bad frame " + frame, e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            listener = null;
+            reader.shutdown();
+        }
+
+        void deliver(final JSONObject reply) {
+            final String frame = reply.toString();
+            framesOut.incrementAndGet();
+            lastActivityNanos = System.nanoTime();
+            reader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Listener l = listener;
+                    if (l != null) {
+                        l.onMessage(frame);
+                    }
+                }
+            });
+        }
+    }
+
+    private static final ThreadFactory DAEMON = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fake-janus");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    final AtomicLong framesIn = new AtomicLong();
+    final AtomicLong framesOut = new AtomicLong();
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    // Everything below is only touched on the core thread.
+    private final ScheduledExecutorService core = Executors.newSingleThreadScheduledExecutor(DAEMON);
+    private final Map<Long, Session> sessions = new HashMap<>();
+    private final Map<Long, Handle> handles = new HashMap<>();
+    private final Map<Long, Room> rooms = new HashMap<>();
+    private final Random random = new Random(42);
+    private long nextId = 1000;
+    private ScheduledFuture<?> churn;
+
+    JanusTransport transport() {
+        return new Connection();
+    }
+
+    /** Nanoseconds since a frame last went in or out. */
+    long idleNanos() {
+        return System.nanoTime() - lastActivityNanos;
+    }
+
+    /** Adds {@code count} virtual publishers to {@code room}, announcing them to everyone in it. */
+    void addVirtualPublishers(final long room, final int count) {
+        core.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    addVirtualPublisher(room(room));
+                }
+            }
+        });
+    }
+
+    /** Every {@code periodMs}, one virtual publisher per room leaves and a new one joins. */
+    void startChurn(long periodMs) {
+        churn = core.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (Room room : rooms.values()) {
+                    List<Publisher> virtual = new ArrayList<>();
+                    for (Publisher publisher : room.publishers) {
+                        if (publisher.handle == null) {
+                            virtual.add(publisher);
+                        }
+                    }
+                    if (!virtual.isEmpty()) {
+                        unpublish(room, virtual.get(random.nextInt(virtual.size())));
+                        addVirtualPublisher(room);
+                    }
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stopChurn() {
+        if (churn != null) {
+            churn.cancel(false);
+        }
+    }
+
+    void shutdown() {
+        core.shutdownNow();
+    }
+
+    private void addVirtualPublisher(Room room) {
+        long id = nextId++;
+        Publisher publisher = new Publisher(id, "virtual-" + id, null);
+        room.publishers.add(publisher);
+        announce(room, publisher);
+    }
+
+    private void handle(Connection connection, JSONObject request) throws JSONException {
+        String janus = request.getString("janus");
+        String tx = request.optString("transaction", null);
+        long sessionId = request.optLong("session_id");
+        long handleId = request.optLong("handle_id");
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            session.connection = connection;
+        }
+
+        if ("create".equals(janus)) {
+            long id = nextId++;
+            sessions.put(id, new Session(id, connection));
+            connection.deliver(reply("success", tx, 0, 0).put("data", new JSONObject().put("id", id)));
+        } else if ("info".equals(janus)) {
+            connection.deliver(reply("server_info", tx, 0, 0).put("session-timeout", SESSION_TIMEOUT_S));
+        } else if (session == null) {
+            connection.deliver(error(tx, sessionId, 458, "No such session " + sessionId));
+        } else if ("attach".equals(janus)) {
+            long id = nextId++;
+            handles.put(id, new Handle(id, session));
+            connection.deliver(reply("success", tx, sessionId, 0).put("data", new JSONObject().put("id", id)));
+        } else if ("keepalive".equals(janus)) {
+            connection.deliver(reply("ack", tx, sessionId, 0));
+        } else if ("claim".equals(janus)) {
+            connection.deliver(reply("success", tx, sessionId, 0));
+        } else if ("destroy".equals(janus)) {
+            for (Iterator<Handle> it = handles.values().iterator(); it.hasNext(); ) {
+                Handle handle = it.next();
+                if (handle.session == session) {
+                    leave(handle);
+                    it.remove();
+                }
+            }
+            sessions.remove(sessionId);
+            connection.deliver(reply("success", tx, sessionId, 0));
+        } else {
+            Handle handle = handles.get(handleId);
+            if (handle == null || handle.session != session) {
+                connection.deliver(error(tx, sessionId, 459, "No such handle " + handleId));
+            } else if ("detach".equals(janus)) {
+                leave(handle);
+                handles.remove(handleId);
+                connection.deliver(reply("success", tx, sessionId, handleId));
+            } else if ("trickle".equals(janus)) {
+                connection.deliver(reply("ack", tx, sessionId, handleId));
+            } else if ("message".equals(janus)) {
+                connection.deliver(reply("ack", tx, sessionId, handleId));
+                message(handle, tx, request.getJSONObject("body"));
+            } else {
+                connection.deliver(error(tx, sessionId, 453, "Unknown request " + janus));
+            }
+        }
+    }
+
+    private void message(Handle handle, String tx, JSONObject body) throws JSONException {
+        String request = body.getString("request");
+        if ("join".equals(request) && "publisher".equals(body.optString("ptype"))) {
+            Room room = room(body.getLong("room"));
+            JSONArray others = publishers(room);
+            Publisher publisher = new Publisher(nextId++, body.optString("display"), handle);
+            handle.room = room;
+            handle.publisher = publisher;
+            room.publishers.add(publisher);
+            event(handle, tx, new JSONObject().put("videoroom", "joined").put("room", room.id)
+                    .put("id", publisher.id).put("publishers", others), null);
+            announce(room, publisher);
+        } else if ("join".equals(request)) {
+            Room room = room(body.getLong("room"));
+            long feed = body.getLong("feed");
+            Publisher publisher = null;
+            for (Publisher p : room.publishers) {
+                if (p.id == feed) {
+                    publisher = p;
+                }
+            }
+            if (publisher == null) {
+                event(handle, tx, new JSONObject().put("videoroom", "event")
+                        .put("error_code", 428).put("error", "No such feed (" + feed + ")"), null);
+                return;
+            }
+            handle.room = room;
+            event(handle, tx, new JSONObject().put("videoroom", "attached").put("room", room.id)
+                    .put("id", feed).put("display", publisher.display), jsep("offer", OFFER_SDP));
+        } else if ("configure".equals(request)) {
+            event(handle, tx, new JSONObject().put("videoroom", "event").put("room", roomId(handle))
+                    .put("configured", "ok"), jsep("answer", ANSWER_SDP));
+            webrtcUp(handle);
+        } else if ("start".equals(request)) {
+            event(handle, tx, new JSONObject().put("videoroom", "event").put("room", roomId(handle))
+                    .put("started", "ok"), null);
+            webrtcUp(handle);
+        } else {
+            event(handle, tx, new JSONObject().put("videoroom", "event")
+                    .put("error_code", 423).put("error", "Unknown request " + request), null);
+        }
+    }
+
+    private void leave(Handle handle) {
+        if (handle.publisher != null && handle.room != null) {
+            unpublish(handle.room, handle.publisher);
+            handle.publisher = null;
+        }
+    }
+
+    private void unpublish(Room room, Publisher publisher) {
+        room.publishers.remove(publisher);
+        try {
+            for (Publisher other : room.publishers) {
+                if (other.handle != null) {
+                    event(other.handle, null, new JSONObject().put("videoroom", "event").put("room", room.id)
+                            .put("leaving", publisher.id), null);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void announce(Room room, Publisher publisher) {
+        try {
+            JSONArray list = new JSONArray().put(new JSONObject()
+                    .put("id", publisher.id).put("display", publisher.display));
+            for (Publisher other : room.publishers) {
+                if (other.handle != null && other != publisher) {
+                    event(other.handle, null, new JSONObject().put("videoroom", "event").put("room", room.id)
+                            .put("publishers", list), null);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JSONArray publishers(Room room) throws JSONException {
+        JSONArray list = new JSONArray();
+        for (Publisher publisher : room.publishers) {
+            list.put(new JSONObject().put("id", publisher.id).put("display", publisher.display));
+        }
+        return list;
+    }
+
+    private void webrtcUp(Handle handle) throws JSONException {
+        handle.session.connection.deliver(reply("webrtcup", null, handle.session.id, handle.id));
+    }
+
+    private void event(Handle handle, String tx, JSONObject data, JSONObject jsep) throws JSONException {
+        JSONObject event = reply("event", tx, handle.session.id, handle.id)
+                .put("plugindata", new JSONObject().put("plugin", "janus.plugin.videoroom").put("data", data));
+        if (jsep != null) {
+            event.put("jsep", jsep);
+        }
+        handle.session.connection.deliver(event);
+    }
+
+    private Room room(long id) {
+        Room room = rooms.get(id);
+        if (room == null) {
+            room = new Room(id);
+            rooms.put(id, room);
+        }
+        return room;
+    }
+
+    private static long roomId(Handle handle) {
+        return handle.room == null ? 0 : handle.room.id;
+    }
+
+    private static JSONObject jsep(String type, String sdp) throws JSONException {
+        return new JSONObject().put("type", type).put("sdp", sdp);
+    }
+
+    private static JSONObject reply(String janus, String tx, long sessionId, long sender) throws JSONException {
+        JSONObject reply = new JSONObject().put("janus", janus);
+        if (tx != null) {
+            reply.put("transaction", tx);
+        }
+        if (sessionId != 0) {
+            reply.put("session_id", sessionId);
+        }
+        if (sender != 0) {
+            reply.put("sender", sender);
+        }
+        return reply;
+    }
+
+    private static JSONObject error(String tx, long sessionId, int code, String reason) throws JSONException {
+        return reply("error", tx, sessionId, 0)
+                .put("error", new JSONObject().put("code", code).put("reason", reason));
+    }
+}
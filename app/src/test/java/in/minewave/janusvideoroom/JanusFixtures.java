@@ -0,0 +1,76 @@
+package in.minewave.janusvideoroom;
+
+/**
+ * Representative Janus frames, shaped like what a videoroom gateway sends.
+ */
+final class JanusFixtures {
+
+    private JanusFixtures() {
+    }
+
+    static final String CREATE_SUCCESS =
+            "{\"janus\":\"success\",\"transaction\":\"Zb4ZaY0aXz1p\",\"data\":{\"id\":4574061985075210}}";
+
+    static final String ACK =
+            "{\"janus\":\"ack\",\"session_id\":4574061985075210,\"transaction\":\"k3Yq8uV0LmZ1\"}";
+
+    static final String ERROR =
+            "{\"janus\":\"error\",\"transaction\":\"a1b2c3d4e5f6\",\"error\":{\"code\":458,\"reason\":\"No such session 123\"}}";
+
+    static final String WEBRTCUP =
+            "{\"janus\":\"webrtcup\",\"session_id\":4574061985075210,\"sender\":6869488563935622}";
+
+    static final String MEDIA =
+            "{\"janus\":\"media\",\"session_id\":4574061985075210,\"sender\":6869488563935622,\"type\":\"video\",\"receiving\":true}";
+
+    static final String SLOWLINK =
+            "{\"janus\":\"slowlink\",\"session_id\":4574061985075210,\"sender\":6869488563935622,\"uplink\":true,\"lost\":17}";
+
+    static final String LEAVING =
+            "{\"janus\":\"event\",\"session_id\":4574061985075210,\"sender\":6869488563935622,"
+            + "\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"event\",\"room\":1234,\"leaving\":2881395239420934}}}";
+
+    static String joined(int publishers) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"janus\":\"event\",\"session_id\":4574061985075210,\"sender\":6869488563935622,")
+                .append("\"transaction\":\"QfzR3mLx9P0c\",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",")
+                .append("\"data\":{\"videoroom\":\"joined\",\"room\":1234,\"description\":\"Demo Room\",")
+                .append("\"id\":7700352843813180,\"private_id\":3520513373,\"publishers\":[");
+        for (int i = 0; i < publishers; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(1000000000000L + i)
+                    .append(",\"display\":\"Publisher \\\"").append(i).append("\\\"\"")
+                    .append(",\"audio_codec\":\"opus\",\"video_codec\":\"vp8\",\"talking\":false}");
+        }
+        sb.append("]}}}");
+        return sb.toString();
+    }
+
+    /** An offer event with a jsep of roughly {@code sdpLines} SDP lines, JSON-escaped as Janus sends it. */
+    static String offer(int sdpLines) {
+        return "{\"janus\":\"event\",\"session_id\":4574061985075210,\"sender\":6869488563935622,"
+                + "\"transaction\":\"p9QzT1cR8sWx\",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\","
+                + "\"data\":{\"videoroom\":\"attached\",\"room\":1234,\"id\":1000000000001,\"display\":\"Android webrtc\"}},"
+                + "\"jsep\":{\"type\":\"offer\",\"sdp\":\"" + escapedSdp(sdpLines) + "\"}}";
+    }
+
+    static String sdp(int lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("v=0\r\no=- 1510318253588553 1 IN IP4 10.0.0.7\r\ns=VideoRoom 1234\r\nt=0 0\r\n")
+                .append("a=group:BUNDLE audio video\r\na=msid-semantic: WMS janus\r\n")
+                .append("m=audio 9 UDP/TLS/RTP/SAVPF 111\r\nc=IN IP4 10.0.0.7\r\n")
+                .append("a=rtpmap:111 opus/48000/2\r\na=fmtp:111 minptime=10;useinbandfec=1\r\n")
+                .append("m=video 9 UDP/TLS/RTP/SAVPF 96 97\r\n")
+                .append("a=rtpmap:96 VP8/90000\r\na=rtcp-fb:96 ccm fir\r\na=rtcp-fb:96 nack\r\n");
+        for (int i = 0; i < lines; i++) {
+            sb.append("a=ssrc:").append(3735928559L + i).append(" msid:janus janusv0\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static String escapedSdp(int lines) {
+        return sdp(lines).replace("/", "\\/").replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
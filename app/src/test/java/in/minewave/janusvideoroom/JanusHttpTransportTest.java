@@ -0,0 +1,173 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class JanusHttpTransportTest {
+
+    private static final String CREATED = "{\"janus\":\"success\",\"transaction\":\"1\",\"data\":{\"id\":11}}";
+    private static final String ACK = "{\"janus\":\"ack\",\"session_id\":11,\"transaction\":\"2\"}";
+
+    private final MockWebServer server = new MockWebServer();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> posts = new LinkedBlockingQueue<>();
+    private final AtomicInteger polls = new AtomicInteger();
+    private final List<String> pollResponses = new ArrayList<>();
+    private final CountDownLatch opened = new CountDownLatch(1);
+    private JanusHttpTransport transport;
+
+    private final JanusTransport.Listener listener = new JanusTransport.Listener() {
+        @Override
+        public void onOpen() {
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(String frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            failures.add(t);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if ("POST".equals(request.getMethod())) {
+                    posts.add(request.getPath() + " " + request.getBody().readUtf8());
+                    return new MockResponse().setBody(request.getPath().equals("/janus") ? CREATED : ACK);
+                }
+                int n = polls.getAndIncrement();
+                synchronized (pollResponses) {
+                    if (n < pollResponses.size()) {
+                        return new MockResponse().setBody(pollResponses.get(n));
+                    }
+                }
+                // Further polls hang like an idle gateway until the test ends.
+                release.await();
+                return new MockResponse().setBody("{\"janus\":\"keepalive\"}");
+            }
+        });
+        server.start();
+        transport = new JanusHttpTransport(new OkHttpClient(), 4);
+        transport.connect(server.url("/janus").toString(), listener);
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        transport.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void postsToSessionAndHandlePathsInOrder() throws Exception {
+        transport.send(0, 0, "{\"janus\":\"create\",\"transaction\":\"1\"}");
+        transport.send(11, 22, "{\"janus\":\"message\",\"transaction\":\"2\"}");
+        transport.send(11, 0, "{\"janus\":\"keepalive\",\"transaction\":\"3\"}");
+
+        assertEquals("/janus {\"janus\":\"create\",\"transaction\":\"1\"}", posts.poll(5, TimeUnit.SECONDS));
+        assertEquals("/janus/11/22 {\"janus\":\"message\",\"transaction\":\"2\"}", posts.poll(5, TimeUnit.SECONDS));
+        assertEquals("/janus/11 {\"janus\":\"keepalive\",\"transaction\":\"3\"}", posts.poll(5, TimeUnit.SECONDS));
+        assertEquals(CREATED, frames.poll(5, TimeUnit.SECONDS));
+        assertEquals(ACK, frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void drainsSeveralEventsPerPoll() throws Exception {
+        pollResponses.add("[{\"janus\":\"event\",\"sender\":22,\"n\":1},\n"
+                + " {\"janus\":\"webrtcup\",\"sender\":22},{\"janus\":\"event\",\"sender\":22,\"n\":3}]");
+        transport.send(11, 22, "{\"janus\":\"message\",\"transaction\":\"2\"}");
+
+        assertEquals(ACK, frames.poll(5, TimeUnit.SECONDS));
+        assertEquals("{\"janus\":\"event\",\"sender\":22,\"n\":1}", frames.poll(5, TimeUnit.SECONDS));
+        assertEquals("{\"janus\":\"webrtcup\",\"sender\":22}", frames.poll(5, TimeUnit.SECONDS));
+        assertEquals("{\"janus\":\"event\",\"sender\":22,\"n\":3}", frames.poll(5, TimeUnit.SECONDS));
+
+        RecordedRequest post = server.takeRequest();
+        RecordedRequest poll = server.takeRequest();
+        assertEquals("POST", post.getMethod());
+        assertTrue(poll.getPath(), poll.getPath().startsWith("/janus/11?maxev=4&rid="));
+    }
+
+    @Test
+    public void keepsOnePollPerSessionAndSkipsKeepalives() throws Exception {
+        pollResponses.add("{\"janus\":\"keepalive\"}");
+        transport.send(11, 0, "{\"janus\":\"keepalive\",\"transaction\":\"3\"}");
+        transport.send(11, 22, "{\"janus\":\"message\",\"transaction\":\"4\"}");
+        transport.send(11, 22, "{\"janus\":\"message\",\"transaction\":\"5\"}");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ACK, frames.poll(5, TimeUnit.SECONDS));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (polls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, polls.get());
+        assertNull(frames.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void stopsPollingWhenTheSessionIsGone() throws Exception {
+        String gone = "{\"janus\":\"error\",\"session_id\":11,\"error\":{\"code\":458,\"reason\":\"No such session\"}}";
+        pollResponses.add(gone);
+        transport.send(11, 0, "{\"janus\":\"keepalive\",\"transaction\":\"3\"}");
+
+        assertEquals(ACK, frames.poll(5, TimeUnit.SECONDS));
+        assertEquals(gone, frames.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    public void reportsFailureOnceAndDropsLaterWork() throws Exception {
+        release.countDown();
+        server.shutdown();
+        transport.send(0, 0, "{\"janus\":\"create\",\"transaction\":\"1\"}");
+        transport.send(0, 0, "{\"janus\":\"create\",\"transaction\":\"2\"}");
+
+        assertNotNull(failures.poll(5, TimeUnit.SECONDS));
+        assertNull(failures.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void splitsPollResponses() throws Exception {
+        List<String> out = new ArrayList<>();
+        JanusHttpTransport.split(" [ {\"a\":[1,{\"b\":\"]\"}]} , {\"c\":2} ] ", out);
+        assertEquals(2, out.size());
+        assertEquals("{\"a\":[1,{\"b\":\"]\"}]}", out.get(0));
+        assertEquals("{\"c\":2}", out.get(1));
+
+        out.clear();
+        JanusHttpTransport.split("{\"janus\":\"keepalive\"}\n", out);
+        assertEquals(1, out.size());
+    }
+}
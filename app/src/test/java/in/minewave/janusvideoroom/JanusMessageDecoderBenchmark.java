@@ -0,0 +1,113 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link JanusMessageDecoder} with the org.json DOM walk that
+ * {@code WebSocketChannel.onMessage} used to do. Both paths extract what the
+ * dispatcher needs for each frame. Run with {@code -Djanus.bench=true}.
+ */
+public class JanusMessageDecoderBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 50000;
+
+    private interface Path {
+        long run(String frame) throws Exception;
+    }
+
+    private static final Path DOM = new Path() {
+        @Override
+        public long run(String frame) throws Exception {
+            JSONObject jo = new JSONObject(frame);
+            long result = jo.optString("janus").length() + jo.optString("transaction").length()
+                    + jo.optString("sender").length();
+            JSONObject plugindata = jo.optJSONObject("plugindata");
+            if (plugindata != null) {
+                JSONObject plugin = plugindata.optJSONObject("data");
+                result += plugin.optString("videoroom").length();
+                JSONArray publishers = plugin.optJSONArray("publishers");
+                if (publishers != null) {
+                    for (int i = 0; i < publishers.length(); i++) {
+                        JSONObject publisher = publishers.optJSONObject(i);
+                        result += publisher.optString("id").length() + publisher.optString("display").length();
+                    }
+                }
+                result += plugin.optString("leaving").length();
+            }
+            JSONObject jsep = jo.optJSONObject("jsep");
+            if (jsep != null) {
+                result += jsep.optString("type").length() + jsep.optString("sdp").length();
+            }
+            return result;
+        }
+    };
+
+    private static final Path DECODER = new Path() {
+        @Override
+        public long run(String frame) throws Exception {
+            JanusEvent event = JanusMessageDecoder.decode(frame);
+            long result = event.type.ordinal() + event.sender + event.transactionId;
+            JanusPluginData plugin = event.pluginData();
+            if (plugin != null) {
+                result += plugin.leaving + (plugin.videoroom == null ? 0 : plugin.videoroom.length());
+                for (JanusPluginData.Publisher publisher : plugin.publishers) {
+                    result += publisher.id + publisher.display.length();
+                }
+            }
+            if (event instanceof JanusEvent.Event && ((JanusEvent.Event) event).hasJsep()) {
+                result += ((JanusEvent.Event) event).jsep().sdp.length();
+            }
+            return result;
+        }
+    };
+
+    @Test
+    public void compareWithDomPath() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("janus.bench"));
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+
+        String[][] frames = {
+                {"ack", JanusFixtures.ACK},
+                {"create success", JanusFixtures.CREATE_SUCCESS},
+                {"media", JanusFixtures.MEDIA},
+                {"leaving", JanusFixtures.LEAVING},
+                {"joined, 20 publishers", JanusFixtures.joined(20)},
+                {"offer, 4 KB sdp", JanusFixtures.offer(80)},
+        };
+        System.out.println(String.format("%-24s %12s %12s %12s %12s", "frame",
+                "dom ns/op", "dom B/op", "dec ns/op", "dec B/op"));
+        for (String[] frame : frames) {
+            double[] dom = measure(threads, DOM, frame[1]);
+            double[] decoder = measure(threads, DECODER, frame[1]);
+            System.out.println(String.format("%-24s %12.0f %12.0f %12.0f %12.0f", frame[0],
+                    dom[0], dom[1], decoder[0], decoder[1]));
+        }
+    }
+
+    private static double[] measure(com.sun.management.ThreadMXBean threads, Path path, String frame)
+            throws Exception {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += path.run(frame);
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += path.run(frame);
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+        assertTrue(sink != 0);
+        return new double[] {(double) elapsed / ITERATIONS, (double) bytes / ITERATIONS};
+    }
+}
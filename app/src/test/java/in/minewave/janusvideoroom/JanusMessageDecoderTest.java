@@ -0,0 +1,131 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JanusMessageDecoderTest {
+
+    @Test
+    public void decodesSuccessWithDataId() throws Exception {
+        JanusEvent event = JanusMessageDecoder.decode(JanusFixtures.CREATE_SUCCESS);
+        assertEquals(JanusEvent.Type.SUCCESS, event.type);
+        assertTrue(event instanceof JanusEvent.Success);
+        assertEquals("Zb4ZaY0aXz1p", event.transaction());
+        assertEquals(0, event.transactionId);
+        assertEquals(4574061985075210L, ((JanusEvent.Success) event).dataId());
+        assertNull(event.pluginData());
+    }
+
+    @Test
+    public void decodesAckAndError() throws Exception {
+        JanusEvent ack = JanusMessageDecoder.decode(JanusFixtures.ACK);
+        assertEquals(JanusEvent.Type.ACK, ack.type);
+        assertEquals(4574061985075210L, ack.sessionId);
+        assertEquals("k3Yq8uV0LmZ1", ack.transaction());
+
+        JanusEvent.Error error = (JanusEvent.Error) JanusMessageDecoder.decode(JanusFixtures.ERROR);
+        assertEquals(458, error.code());
+        assertEquals("No such session 123", error.reason());
+    }
+
+    @Test
+    public void decodesServerInfo() throws Exception {
+        JanusEvent event = JanusMessageDecoder.decode("{\"janus\":\"server_info\",\"transaction\":\"9\","
+                + "\"name\":\"Janus WebRTC Server\",\"version\":1102,\"session-timeout\":90,"
+                + "\"transports\":{\"janus.transport.websockets\":{\"version\":1}}}");
+        assertEquals(JanusEvent.Type.SERVER_INFO, event.type);
+        assertEquals(9, event.transactionId);
+        assertEquals(90, ((JanusEvent.ServerInfo) event).sessionTimeout());
+    }
+
+    @Test
+    public void decodesPublishersLazily() throws Exception {
+        JanusEvent.Event event = (JanusEvent.Event) JanusMessageDecoder.decode(JanusFixtures.joined(3));
+        assertEquals(6869488563935622L, event.sender);
+        assertFalse(event.hasJsep());
+        assertNull(event.jsep());
+
+        JanusPluginData data = event.pluginData();
+        assertSame(data, event.pluginData());
+        assertEquals("janus.plugin.videoroom", data.plugin);
+        assertEquals("joined", data.videoroom);
+        assertEquals(1234, data.room);
+        assertEquals(7700352843813180L, data.id);
+        assertEquals(3, data.publishers.size());
+        assertEquals(1000000000002L, data.publishers.get(2).id);
+        assertEquals("Publisher \"2\"", data.publishers.get(2).display);
+    }
+
+    @Test
+    public void decodesJsepWithEscapedSdp() throws Exception {
+        JanusEvent.Event event = (JanusEvent.Event) JanusMessageDecoder.decode(JanusFixtures.offer(40));
+        assertTrue(event.hasJsep());
+        JanusJsep jsep = event.jsep();
+        assertEquals("offer", jsep.type);
+        assertEquals(JanusFixtures.sdp(40), jsep.sdp);
+        assertEquals("attached", event.pluginData().videoroom);
+    }
+
+    @Test
+    public void decodesLeavingAndMediaEvents() throws Exception {
+        JanusEvent leaving = JanusMessageDecoder.decode(JanusFixtures.LEAVING);
+        assertEquals(2881395239420934L, leaving.pluginData().leaving);
+        assertTrue(leaving.pluginData().publishers.isEmpty());
+
+        JanusEvent.Media media = (JanusEvent.Media) JanusMessageDecoder.decode(JanusFixtures.MEDIA);
+        assertEquals("video", media.mediaType());
+        assertTrue(media.receiving());
+
+        JanusEvent.SlowLink slowLink = (JanusEvent.SlowLink) JanusMessageDecoder.decode(JanusFixtures.SLOWLINK);
+        assertTrue(slowLink.uplink());
+        assertEquals(17, slowLink.lost());
+
+        assertEquals(JanusEvent.Type.WEBRTCUP, JanusMessageDecoder.decode(JanusFixtures.WEBRTCUP).type);
+    }
+
+    @Test
+    public void decodesMultistreamStreams() throws Exception {
+        JanusPluginData data = JanusMessageDecoder.decode("{\"janus\":\"event\",\"sender\":5,"
+                + "\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"updated\","
+                + "\"streams\":[{\"type\":\"audio\",\"active\":true,\"mid\":\"0\",\"feed_id\":11},"
+                + "{\"type\":\"video\",\"active\":false,\"mid\":\"1\",\"feed_id\":12,\"feed_display\":\"b\"}]}}}")
+                .pluginData();
+        assertEquals(2, data.streams.size());
+        assertEquals("0", data.streams.get(0).mid);
+        assertEquals(11, data.streams.get(0).feedId);
+        assertEquals("audio", data.streams.get(0).type);
+        assertTrue(data.streams.get(0).active);
+        assertEquals("video", data.streams.get(1).type);
+        assertFalse(data.streams.get(1).active);
+        assertTrue(JanusMessageDecoder.decode(JanusFixtures.joined(1)).pluginData().streams.isEmpty());
+    }
+
+    @Test
+    public void toleratesWhitespaceUnknownMembersAndSelfLeave() throws Exception {
+        JanusEvent event = JanusMessageDecoder.decode(
+                "{ \"janus\" : \"event\",\n \"extra\" : [1, {\"a\": \"}]\\\"\"}, null],\n"
+                + " \"sender\" : \"42\", \"plugindata\": {\"data\": {\"leaving\": \"ok\", \"room\": 7}} }");
+        assertEquals(JanusEvent.Type.EVENT, event.type);
+        assertEquals(42, event.sender);
+        assertEquals(0, event.pluginData().leaving);
+        assertEquals(7, event.pluginData().room);
+
+        assertEquals(JanusEvent.Type.UNKNOWN, JanusMessageDecoder.decode("{\"janus\":\"trickle\"}").type);
+    }
+
+    @Test
+    public void decodesNumericTransactionIds() throws Exception {
+        JanusEvent event = JanusMessageDecoder.decode(
+                "{\"janus\":\"success\",\"transaction\":\"4096\",\"data\":{\"id\":99}}");
+        assertEquals(4096, event.transactionId);
+        assertEquals("4096", event.transaction());
+        assertEquals(99, event.dataId());
+    }
+
+    @Test(expected = JSONException.class)
+    public void rejectsTruncatedFrames() throws Exception {
+        JanusMessageDecoder.decode("{\"janus\":\"event\",\"jsep\":{\"sdp\":\"v=0");
+    }
+}
@@ -0,0 +1,179 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * The expected frames are built with org.json, with putOpt the way
+ * WebSocketChannel used to build them, and compared with the encoder's
+ * output as parsed JSON. The JVM org.json orders members differently from
+ * Android's, so the comparison is structural; escaping is checked on its own.
+ */
+public class JanusMessageEncoderTest {
+    private static final long SESSION = 4574061985075210L;
+    private static final long HANDLE = 6869488563935622L;
+
+    private final JanusMessageEncoder encoder = new JanusMessageEncoder();
+
+    private static void assertEncodes(JSONObject expected, String frame) {
+        // Parsed again so numbers compare by value, not by the boxed type they were put as.
+        JSONObject parsed = new JSONObject(expected.toString());
+        assertTrue("expected " + expected + " but was " + frame, parsed.similar(new JSONObject(frame)));
+    }
+
+    private static JSONObject request(String janus, long transaction) {
+        JSONObject msg = new JSONObject();
+        msg.putOpt("janus", janus);
+        msg.putOpt("transaction", String.valueOf(transaction));
+        return msg;
+    }
+
+    /** A request on the test handle, as the channel addressed them. */
+    private static JSONObject onHandle(JSONObject msg) {
+        msg.putOpt("session_id", SESSION);
+        msg.putOpt("handle_id", HANDLE);
+        return msg;
+    }
+
+    private static JSONObject message(long transaction, JSONObject body) {
+        return onHandle(request("message", transaction).putOpt("body", body));
+    }
+
+    private static JSONObject body(String request) {
+        return new JSONObject().putOpt("request", request);
+    }
+
+    private static JSONObject jsep(String type, String sdp) {
+        return new JSONObject().putOpt("type", type).putOpt("sdp", sdp);
+    }
+
+    private static JSONObject candidate(String sdp, String sdpMid, int sdpMLineIndex) {
+        return new JSONObject().putOpt("candidate", sdp).putOpt("sdpMid", sdpMid)
+                .putOpt("sdpMLineIndex", sdpMLineIndex);
+    }
+
+    private static JSONArray streams(long... feeds) {
+        JSONArray streams = new JSONArray();
+        for (long feed : feeds) {
+            streams.put(new JSONObject().putOpt("feed", feed));
+        }
+        return streams;
+    }
+
+    @Test
+    public void encodesSessionRequests() {
+        assertEncodes(request("create", 17), encoder.create(17L));
+        assertEncodes(request("attach", 17).putOpt("plugin", "janus.plugin.videoroom").putOpt("session_id", SESSION),
+                encoder.attach(17L, SESSION));
+        assertEncodes(request("keepalive", 18).putOpt("session_id", SESSION), encoder.keepAlive(18L, SESSION));
+        assertEncodes(onHandle(request("detach", 18)), encoder.detach(18L, SESSION, HANDLE));
+        assertEncodes(request("claim", 18).putOpt("session_id", SESSION), encoder.claim(18L, SESSION));
+        assertEncodes(request("info", 18), encoder.info(18L));
+        assertEncodes(request("destroy", 18).putOpt("session_id", SESSION), encoder.destroy(18L, SESSION));
+    }
+
+    @Test
+    public void encodesJoins() {
+        assertEncodes(message(19, body("join").putOpt("room", 1234).putOpt("ptype", "publisher")
+                        .putOpt("display", "Android webrtc")),
+                encoder.joinPublisher(19L, SESSION, HANDLE, 1234, "Android webrtc"));
+        assertEncodes(message(19, body("join").putOpt("room", 1234).putOpt("ptype", "publisher")
+                        .putOpt("display", null)),
+                encoder.joinPublisher(19L, SESSION, HANDLE, 1234, null));
+        assertEncodes(message(19, body("join").putOpt("room", 1234).putOpt("ptype", "listener")
+                        .putOpt("feed", 1000000000001L)),
+                encoder.joinSubscriber(19L, SESSION, HANDLE, 1234, 1000000000001L));
+        assertEncodes(message(19, body("join").putOpt("room", 1234).putOpt("ptype", "subscriber")
+                        .putOpt("streams", streams(1, 2))),
+                encoder.joinSubscriberStreams(19L, SESSION, HANDLE, 1234, new long[]{1, 2}));
+        assertEncodes(message(19, body("subscribe").putOpt("streams", streams(3))),
+                encoder.subscribe(19L, SESSION, HANDLE, new long[]{3}, true));
+        assertEncodes(message(19, body("unsubscribe").putOpt("streams", streams(1))),
+                encoder.subscribe(19L, SESSION, HANDLE, new long[]{1}, false));
+    }
+
+    @Test
+    public void encodesTrickle() {
+        String candidate = "candidate:842163049 1 udp 1677729535 93.184.216.34 49203 typ srflx raddr 10.0.0.7 rport 49203 generation 0 ufrag k/9x network-cost 50";
+        assertEncodes(onHandle(request("trickle", 20).putOpt("candidate", candidate(candidate, "audio", 0))),
+                encoder.trickle(20L, SESSION, HANDLE, candidate, "audio", 0));
+        assertEncodes(onHandle(request("trickle", 20).putOpt("candidate", candidate("c", null, 1))),
+                encoder.trickle(20L, SESSION, HANDLE, "c", null, 1));
+        assertEncodes(onHandle(request("trickle", 20).putOpt("candidate", new JSONObject().putOpt("completed", true))),
+                encoder.trickleCompleted(20L, SESSION, HANDLE));
+    }
+
+    @Test
+    public void encodesTrickleBatches() {
+        IceCandidate host = new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223 10.0.0.7 43000 typ host");
+        IceCandidate relay = new IceCandidate("video", 1, "candidate:2 1 udp 41885439 203.0.113.9 3478 typ relay");
+        assertEquals(encoder.trickle(21L, SESSION, HANDLE, host.sdp, host.sdpMid, host.sdpMLineIndex),
+                encoder.trickle(21L, SESSION, HANDLE, Collections.singletonList(host), false));
+        assertEquals(encoder.trickleCompleted(21L, SESSION, HANDLE),
+                encoder.trickle(21L, SESSION, HANDLE, Collections.<IceCandidate>emptyList(), true));
+        JSONArray candidates = new JSONArray()
+                .put(candidate(host.sdp, host.sdpMid, host.sdpMLineIndex))
+                .put(candidate(relay.sdp, relay.sdpMid, relay.sdpMLineIndex))
+                .put(new JSONObject().putOpt("completed", true));
+        assertEncodes(onHandle(request("trickle", 21).putOpt("candidates", candidates)),
+                encoder.trickle(21L, SESSION, HANDLE, Arrays.asList(host, relay), true));
+    }
+
+    @Test
+    public void encodesConfigureAndStart() {
+        String sdp = "v=0\r\na=rtpmap:111 opus/48000/2\r\n";
+        assertEncodes(message(19, body("configure").putOpt("audio", true).putOpt("video", true))
+                        .putOpt("jsep", jsep("offer", sdp)),
+                encoder.configure(19L, SESSION, HANDLE, true, true, "offer", sdp, false));
+        assertEncodes(message(19, body("configure").putOpt("audio", true).putOpt("video", true))
+                        .putOpt("jsep", jsep("offer", "v=0").putOpt("simulcast", true)),
+                encoder.configure(19L, SESSION, HANDLE, true, true, "offer", "v=0", true));
+        assertEncodes(message(19, body("configure").putOpt("bitrate", 512000)),
+                encoder.configureBitrate(19L, SESSION, HANDLE, 512000));
+        assertEncodes(message(19, body("configure").putOpt("substream", 0).putOpt("temporal", 1)),
+                encoder.configureLayers(19L, SESSION, HANDLE, 0, 1, false));
+        assertEncodes(message(19, body("configure").putOpt("spatial_layer", 2).putOpt("temporal_layer", 2)),
+                encoder.configureLayers(19L, SESSION, HANDLE, 2, 2, true));
+        assertEncodes(message(19, body("pause")), encoder.pause(19L, SESSION, HANDLE, true));
+        assertEncodes(message(19, body("start")), encoder.pause(19L, SESSION, HANDLE, false));
+
+        String large = JanusFixtures.sdp(200);
+        assertEncodes(message(19, body("start").putOpt("room", 1234)).putOpt("jsep", jsep("answer", large)),
+                encoder.start(19L, SESSION, HANDLE, 1234, "answer", large));
+    }
+
+    @Test
+    public void encodesIdsAsUnsigned() throws Exception {
+        String detach = encoder.detach(21L, -1L, Long.MIN_VALUE);
+        assertEquals("{\"janus\":\"detach\",\"transaction\":\"21\","
+                + "\"session_id\":18446744073709551615,\"handle_id\":9223372036854775808}", detach);
+
+        JanusEvent event = JanusMessageDecoder.decode(
+                "{\"janus\":\"webrtcup\",\"session_id\":18446744073709551615,\"sender\":9223372036854775808}");
+        assertEquals(-1L, event.sessionId);
+        assertEquals(Long.MIN_VALUE, event.sender);
+    }
+
+    @Test
+    public void escapesControlCharacters() {
+        StringBuilder sb = new StringBuilder();
+        JanusMessageEncoder.string(sb, "a\"b\\c/d\te\bf\u0001g\u001fhé");
+        assertEquals("\"a\\\"b\\\\c\\/d\\te\\bf\\u0001g\\u001fhé\"", sb.toString());
+        assertEquals("a\"b\\c/d\te\bf\u0001g\u001fhé",
+                new JSONArray("[" + sb + "]").getString(0));
+    }
+
+    @Test
+    public void reusesBufferAcrossLargeFrames() {
+        String large = encoder.start(21L, SESSION, HANDLE, 1234, "answer", JanusFixtures.sdp(2000));
+        assertTrue(large.length() > 16 * 1024);
+        assertEncodes(request("create", 21), encoder.create(21L));
+    }
+}
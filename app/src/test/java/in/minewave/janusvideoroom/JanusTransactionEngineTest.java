@@ -0,0 +1,197 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JanusTransactionEngineTest {
+    // Ticks are driven by hand; the executor never gets to run one.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final TimerWheel wheel = new TimerWheel(executor, TimeUnit.HOURS.toMillis(1), 64);
+    private final JanusTransactionEngine engine = new JanusTransactionEngine(wheel);
+    private final List<JanusEvent> successes = new ArrayList<>();
+    private final List<JanusException> errors = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private JanusTransaction send(JanusTransaction.Verb verb) {
+        JanusTransaction jt = engine.create(verb);
+        jt.success = new TransactionCallbackSuccess() {
+            @Override
+            public void success(JanusEvent jo) {
+                successes.add(jo);
+            }
+        };
+        jt.error = new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                errors.add(e);
+            }
+        };
+        engine.register(jt);
+        return jt;
+    }
+
+    private static JanusEvent reply(String janus, long transaction, String extra) throws Exception {
+        return JanusMessageDecoder.decode("{\"janus\":\"" + janus + "\",\"transaction\":\"" + transaction + "\"" + extra + "}");
+    }
+
+    @Test
+    public void allocatesMonotonicIds() {
+        JanusTransaction first = engine.create(JanusTransaction.Verb.CREATE);
+        JanusTransaction second = engine.create(JanusTransaction.Verb.CREATE);
+        assertTrue(first.tid > 0);
+        assertEquals(first.tid + 1, second.tid);
+    }
+
+    @Test
+    public void successCompletesTransactionAndFuture() throws Exception {
+        JanusTransaction jt = send(JanusTransaction.Verb.ATTACH);
+        assertEquals(1, engine.pending());
+        assertTrue(engine.onReply(reply("success", jt.tid, ",\"data\":{\"id\":77}")));
+
+        assertEquals(0, engine.pending());
+        assertEquals(0, wheel.pending());
+        assertEquals(1, successes.size());
+        assertEquals(77, jt.get(1, TimeUnit.SECONDS).dataId());
+        assertEquals(1, engine.latency(JanusTransaction.Verb.ATTACH).count());
+        assertFalse(engine.onReply(reply("success", jt.tid, "")));
+    }
+
+    @Test
+    public void messageWaitsForPluginEventAfterAck() throws Exception {
+        JanusTransaction jt = send(JanusTransaction.Verb.MESSAGE);
+        assertTrue(engine.onReply(reply("ack", jt.tid, "")));
+        assertFalse(jt.isDone());
+        assertEquals(1, engine.pending());
+
+        assertTrue(engine.onReply(reply("event", jt.tid,
+                ",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"joined\"}}")));
+        assertTrue(jt.isDone());
+        assertEquals("joined", successes.get(0).pluginData().videoroom);
+        assertEquals(1, engine.latency(JanusTransaction.Verb.MESSAGE).count());
+    }
+
+    @Test
+    public void knowsTheHandleOfAPendingRequest() throws Exception {
+        JanusTransaction jt = send(JanusTransaction.Verb.DETACH);
+        jt.handleId = 9;
+        assertEquals(9, engine.handleOf(jt.tid));
+        assertTrue(engine.onReply(reply("success", jt.tid, "")));
+        assertEquals(0, engine.handleOf(jt.tid));
+    }
+
+    @Test
+    public void ackCompletesTrickleAndKeepalive() throws Exception {
+        JanusTransaction trickle = send(JanusTransaction.Verb.TRICKLE);
+        JanusTransaction keepalive = send(JanusTransaction.Verb.KEEPALIVE);
+        engine.onReply(reply("ack", trickle.tid, ""));
+        engine.onReply(reply("ack", keepalive.tid, ""));
+        assertEquals(0, engine.pending());
+        assertEquals(2, successes.size());
+    }
+
+    @Test
+    public void gatewayAndPluginErrorsFail() throws Exception {
+        JanusTransaction jt = send(JanusTransaction.Verb.CREATE);
+        engine.onReply(reply("error", jt.tid, ",\"error\":{\"code\":403,\"reason\":\"Unauthorized request\"}"));
+        assertEquals(403, errors.get(0).code);
+        try {
+            jt.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("Unauthorized request", e.getCause().getMessage());
+        }
+
+        JanusTransaction join = send(JanusTransaction.Verb.MESSAGE);
+        engine.onReply(reply("event", join.tid,
+                ",\"plugindata\":{\"data\":{\"videoroom\":\"event\",\"error_code\":426,\"error\":\"No such room\"}}"));
+        assertEquals(426, errors.get(1).code);
+        assertTrue(successes.isEmpty());
+    }
+
+    @Test
+    public void deadlineFailsLostReplies() throws Exception {
+        JanusTransaction jt = send(JanusTransaction.Verb.DETACH);
+        wheel.advance();
+
+        assertEquals(0, engine.pending());
+        assertEquals(1, engine.timeouts(JanusTransaction.Verb.DETACH));
+        assertEquals(JanusException.TIMEOUT, errors.get(0).code);
+        assertTrue(jt.isDone());
+        assertFalse(engine.onReply(reply("success", jt.tid, "")));
+        assertTrue(successes.isEmpty());
+    }
+
+    @Test
+    public void suspendedDeadlinesStartOverOnResume() throws Exception {
+        JanusTransaction before = send(JanusTransaction.Verb.ATTACH);
+        engine.suspend();
+        JanusTransaction during = send(JanusTransaction.Verb.MESSAGE);
+        assertEquals(0, wheel.pending());
+        wheel.advance();
+        assertTrue(errors.isEmpty());
+
+        engine.resume();
+        assertEquals(2, wheel.pending());
+        wheel.advance();
+        assertEquals(2, errors.size());
+        assertTrue(before.isDone());
+        assertTrue(during.isDone());
+    }
+
+    @Test
+    public void listsUnacknowledgedRequestsForReplay() throws Exception {
+        JanusTransaction join = send(JanusTransaction.Verb.MESSAGE);
+        JanusTransaction trickle = send(JanusTransaction.Verb.TRICKLE);
+        JanusTransaction configure = send(JanusTransaction.Verb.MESSAGE);
+        engine.onReply(reply("ack", join.tid, ""));
+
+        List<JanusTransaction> replay = engine.unacknowledged();
+        assertEquals(2, replay.size());
+        assertSame(trickle, replay.get(0));
+        assertSame(configure, replay.get(1));
+    }
+
+    @Test
+    public void failAllCompletesEverythingPending() throws Exception {
+        JanusTransaction attach = send(JanusTransaction.Verb.ATTACH);
+        send(JanusTransaction.Verb.MESSAGE);
+        engine.failAll(new JanusException(JanusException.SESSION_LOST, "Session lost"));
+
+        assertEquals(0, engine.pending());
+        assertEquals(0, wheel.pending());
+        assertEquals(2, errors.size());
+        assertEquals(JanusException.SESSION_LOST, errors.get(0).code);
+        assertFalse(engine.onReply(reply("success", attach.tid, "")));
+    }
+
+    @Test
+    public void replayAndFailureAreScopedToOneSession() throws Exception {
+        JanusTransaction first = send(JanusTransaction.Verb.MESSAGE);
+        first.sessionId = 11;
+        JanusTransaction second = send(JanusTransaction.Verb.MESSAGE);
+        second.sessionId = 22;
+
+        List<JanusTransaction> replay = engine.unacknowledged(22);
+        assertEquals(1, replay.size());
+        assertSame(second, replay.get(0));
+
+        engine.failAll(11, new JanusException(JanusException.SESSION_LOST, "Session lost"));
+        assertEquals(1, engine.pending());
+        assertEquals(1, errors.size());
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+    }
+}
@@ -0,0 +1,69 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveSchedulerTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Ticks are driven by hand; the executor never gets to run one.
+    private final TimerWheel wheel = new TimerWheel(executor, TimeUnit.HOURS.toMillis(1), 64);
+    private final KeepAliveScheduler scheduler = new KeepAliveScheduler(wheel);
+    private final List<Long> sent = new ArrayList<>();
+    private final KeepAliveScheduler.Sink sink = new KeepAliveScheduler.Sink() {
+        @Override
+        public void keepAlive(long sessionId) {
+            sent.add(sessionId);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void intervalIsHalfTheSessionTimeout() {
+        assertEquals(30000, KeepAliveScheduler.intervalFor(60));
+        assertEquals(60000, KeepAliveScheduler.intervalFor(120));
+        assertEquals(KeepAliveScheduler.MIN_INTERVAL_MS, KeepAliveScheduler.intervalFor(4));
+        assertEquals(30000, KeepAliveScheduler.intervalFor(0));
+    }
+
+    @Test
+    public void recentTrafficSuppressesTheKeepalive() {
+        KeepAliveScheduler.Session session = scheduler.start(7, sink);
+        session.touch();
+        session.run();
+        assertTrue(sent.isEmpty());
+        assertEquals(1, wheel.pending());
+    }
+
+    @Test
+    public void sessionsShareTheWheelAndStopCleanly() {
+        scheduler.start(7, sink);
+        KeepAliveScheduler.Session second = scheduler.start(8, sink);
+        second.setSessionTimeout(20);
+        assertEquals(10000, second.intervalMs());
+        assertEquals(2, scheduler.size());
+        assertEquals(2, wheel.pending());
+
+        scheduler.start(8, sink);
+        assertEquals(2, wheel.pending());
+
+        scheduler.stop(7);
+        assertEquals(1, wheel.pending());
+        scheduler.stopAll();
+        assertEquals(0, scheduler.size());
+        assertEquals(0, wheel.pending());
+        second.run();
+        assertEquals(0, wheel.pending());
+    }
+}
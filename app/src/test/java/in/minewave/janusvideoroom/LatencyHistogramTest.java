@@ -0,0 +1,35 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsKeepRelativeError() {
+        for (long v = 0; v < 1L << 30; v = v * 3 / 2 + 1) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.index(v));
+            assertTrue(v + " -> " + upper, upper >= v);
+            assertTrue(v + " -> " + upper, upper - v <= Math.max(1, v / 8));
+        }
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1000000, histogram.max());
+        assertEquals(500500, histogram.mean(), 0.001);
+        assertEquals(500000, histogram.percentile(50), 500000 / 8);
+        assertEquals(990000, histogram.percentile(99), 990000 / 8);
+        assertEquals(1000000, histogram.percentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+    }
+}
@@ -0,0 +1,131 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LayerSelectorTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // One tick per debounce, moved by hand.
+    private final TimerWheel wheel = new TimerWheel(executor, TimeUnit.HOURS.toMillis(1), 64);
+    private final List<String> sent = new ArrayList<>();
+    private final LayerSelector selector = new LayerSelector(wheel, new LayerSelector.Sink() {
+        @Override
+        public void configure(long handleId, int substream, int temporal) {
+            sent.add(handleId + ":" + substream + "/" + temporal);
+        }
+
+        @Override
+        public void setPaused(long handleId, boolean paused) {
+            sent.add(handleId + ":" + (paused ? "pause" : "start"));
+        }
+    });
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void picksLayersFromRenderedSize() {
+        assertEquals(0, LayerSelector.substreamFor(0));
+        assertEquals(0, LayerSelector.substreamFor(160));
+        assertEquals(1, LayerSelector.substreamFor(480));
+        assertEquals(2, LayerSelector.substreamFor(1280));
+        assertEquals(0, LayerSelector.temporalFor(0));
+        assertEquals(1, LayerSelector.temporalFor(160));
+        assertEquals(2, LayerSelector.temporalFor(480));
+    }
+
+    @Test
+    public void sendsOnlyTheSettledViewport() {
+        selector.setDebounce(TimeUnit.HOURS.toMillis(1));
+        selector.setViewport(1, 1280, 720, true);
+        selector.setViewport(1, 640, 360, true);
+        selector.setViewport(1, 120, 90, true);
+        selector.setViewport(2, 1920, 1080, false);
+        assertTrue(sent.isEmpty());
+
+        wheel.advance();
+        assertEquals(2, sent.size());
+        assertTrue(sent.contains("1:0/1"));
+        assertTrue(sent.contains("2:pause"));
+    }
+
+    @Test
+    public void slowLinkDropsALayerAtOnceAndRecoversOverTime() {
+        selector.setDebounce(TimeUnit.HOURS.toMillis(1));
+        selector.setViewport(1, 1280, 720, true);
+        wheel.advance();
+        assertEquals("1:2/2", sent.get(0));
+
+        selector.onSlowLink(1);
+        assertEquals("1:1/2", sent.get(1));
+        selector.onSlowLink(1);
+        assertEquals("1:0/2", sent.get(2));
+        // A new size does not lift the cap.
+        selector.setViewport(1, 1920, 1080, true);
+        wheel.advance();
+        assertEquals("1:1/2", sent.get(3));
+        wheel.advance();
+        assertEquals("1:2/2", sent.get(4));
+        wheel.advance();
+        assertEquals(5, sent.size());
+        selector.onSlowLink(2);
+        assertEquals(5, sent.size());
+    }
+
+    @Test
+    public void dropsHiddenFeedsToBaseLayersWhenNotPausing() {
+        selector.setDebounce(TimeUnit.HOURS.toMillis(1));
+        selector.setPauseHidden(false);
+        selector.setViewport(2, 1920, 1080, false);
+        wheel.advance();
+
+        assertEquals(1, sent.size());
+        assertEquals("2:0/0", sent.get(0));
+    }
+
+    @Test
+    public void resumesHiddenFeedAtOnceWithItsNewLayers() {
+        selector.setDebounce(TimeUnit.HOURS.toMillis(1));
+        selector.setViewport(1, 1280, 720, true);
+        wheel.advance();
+        selector.setViewport(1, 1280, 720, false);
+        wheel.advance();
+        assertEquals("1:pause", sent.get(1));
+
+        selector.setViewport(1, 480, 360, true);
+        assertEquals(4, sent.size());
+        assertEquals("1:1/2", sent.get(2));
+        assertEquals("1:start", sent.get(3));
+
+        // Scrolled away and straight back: nothing is paused.
+        selector.setViewport(1, 480, 360, false);
+        selector.setViewport(1, 480, 360, true);
+        wheel.advance();
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void skipsUnchangedLayersAndForgottenHandles() {
+        selector.setDebounce(TimeUnit.HOURS.toMillis(1));
+        selector.setViewport(1, 1280, 720, true);
+        wheel.advance();
+        selector.setViewport(1, 1000, 700, true);
+        selector.setViewport(2, 100, 100, true);
+        selector.remove(2);
+        wheel.advance();
+
+        assertEquals(1, sent.size());
+        assertEquals("1:2/2", sent.get(0));
+        assertEquals(0, wheel.pending());
+    }
+}
@@ -0,0 +1,58 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertNull(map.put(4574061985075210L, "a"));
+        assertEquals("a", map.put(4574061985075210L, "b"));
+        assertNull(map.put(-1L, "c"));
+        assertNull(map.put(0L, "d"));
+        assertEquals(3, map.size());
+        assertEquals("b", map.get(4574061985075210L));
+        assertEquals("c", map.remove(-1L));
+        assertNull(map.get(-1L));
+        assertNull(map.remove(-1L));
+        assertEquals("d", map.get(0L));
+        assertEquals(2, map.size());
+
+        List<String> values = new ArrayList<>();
+        map.values(values);
+        assertEquals(2, values.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0L));
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomChurn() {
+        Random random = new Random(42);
+        LongHashMap<Long> map = new LongHashMap<>();
+        Map<Long, Long> reference = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            // A small key space forces long probe chains and wrap-around deletions.
+            long key = random.nextInt(512) * 1024L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                Long value = random.nextLong();
+                assertEquals(reference.put(key, value), map.put(key, value));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MultistreamSubscriptionTest {
+    private final List<String> sent = new ArrayList<>();
+    private final MultistreamSubscription subscription = new MultistreamSubscription(
+            new MultistreamSubscription.Requests() {
+                @Override
+                public void attach() {
+                    sent.add("attach");
+                }
+
+                @Override
+                public void join(long[] feeds) {
+                    sent.add("join " + Arrays.toString(feeds));
+                }
+
+                @Override
+                public void subscribe(long[] feeds) {
+                    sent.add("subscribe " + Arrays.toString(feeds));
+                }
+
+                @Override
+                public void unsubscribe(long[] feeds) {
+                    sent.add("unsubscribe " + Arrays.toString(feeds));
+                }
+            });
+
+    @Test
+    public void attachesOnceAndJoinsWithEveryFeedKnownByThen() {
+        subscription.add(1);
+        subscription.add(2);
+        assertEquals(Arrays.asList("attach"), sent);
+        assertEquals(0, subscription.handleId());
+
+        subscription.add(3);
+        subscription.onAttached(77);
+        assertEquals(77, subscription.handleId());
+        assertEquals(Arrays.asList("attach", "join [1, 2, 3]"), sent);
+    }
+
+    @Test
+    public void batchesChangesUntilTheOfferIsAnswered() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.add(2);
+        subscription.add(3);
+        subscription.remove(3);
+        assertEquals(Arrays.asList("attach", "join [1]"), sent);
+
+        subscription.onNegotiated();
+        assertEquals("subscribe [2]", sent.get(2));
+        subscription.onNegotiated();
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void unsubscribesBeforeSubscribing() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.add(2);
+        subscription.remove(1);
+        subscription.onNegotiated();
+        assertEquals("unsubscribe [1]", sent.get(2));
+        subscription.onNegotiated();
+        assertEquals("subscribe [2]", sent.get(3));
+    }
+
+    @Test
+    public void feedsThatLeaveAreNotUnsubscribed() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.onNegotiated();
+        subscription.gone(1);
+        subscription.remove(1);
+        assertEquals(2, sent.size());
+
+        subscription.add(1);
+        assertEquals("subscribe [1]", sent.get(2));
+    }
+
+    @Test
+    public void failedJoinIsRetriedWithTheNextFeed() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.onFailed();
+        assertEquals(2, sent.size());
+
+        subscription.add(2);
+        assertEquals("join [2]", sent.get(2));
+    }
+
+    @Test
+    public void failedAttachWaitsForTheNextFeed() {
+        subscription.add(1);
+        subscription.onFailed();
+        assertEquals(Arrays.asList("attach"), sent);
+
+        subscription.add(2);
+        subscription.onAttached(77);
+        assertEquals(Arrays.asList("attach", "attach", "join [2]"), sent);
+    }
+
+    @Test
+    public void failedSubscribeLeavesItsFeedsOut() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.onNegotiated();
+        subscription.add(2);
+        assertEquals("subscribe [2]", sent.get(2));
+        subscription.remove(2);
+        subscription.onFailed();
+        // Feed 2 was never added, so there is nothing to unsubscribe.
+        assertEquals(3, sent.size());
+
+        subscription.add(2);
+        assertEquals("subscribe [2]", sent.get(3));
+    }
+
+    @Test
+    public void failedUnsubscribeKeepsItsFeeds() {
+        subscription.add(1);
+        subscription.onAttached(77);
+        subscription.onNegotiated();
+        subscription.remove(1);
+        assertEquals("unsubscribe [1]", sent.get(2));
+        subscription.add(1);
+        subscription.onFailed();
+        // Feed 1 is still flowing, so it is not subscribed again.
+        assertEquals(3, sent.size());
+
+        subscription.remove(1);
+        assertEquals("unsubscribe [1]", sent.get(3));
+    }
+
+    @Test
+    public void mapsMidsOfActiveStreamsToFeeds() {
+        subscription.onStreams(Arrays.asList(
+                new JanusPluginData.Stream("0", 11, "audio", true),
+                new JanusPluginData.Stream("1", 11, "video", true),
+                new JanusPluginData.Stream("2", 12, "video", false)));
+        assertEquals(11, subscription.feedForMid("1"));
+        assertEquals(0, subscription.feedForMid("2"));
+
+        subscription.reset();
+        assertEquals(0, subscription.feedForMid("1"));
+    }
+}
@@ -0,0 +1,177 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SdpRewriterTest {
+
+    private static final String OFFER = "v=0\r\n"
+            + "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+            + "s=-\r\n"
+            + "t=0 0\r\n"
+            + "a=group:BUNDLE audio video\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0 8 126\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:%s\r\n"
+            + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+            + "a=extmap:9 urn:ietf:params:rtp-hdrext:sdes:mid\r\n"
+            + "a=sendrecv\r\n"
+            + "a=mid:audio\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "a=rtcp-fb:111 transport-cc\r\n"
+            + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+            + "a=rtpmap:103 ISAC/16000\r\n"
+            + "a=rtpmap:9 G722/8000\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n"
+            + "a=rtpmap:8 PCMA/8000\r\n"
+            + "a=rtpmap:126 telephone-event/8000\r\n"
+            + "a=ssrc:1001 cname:abc\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+            + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+            + "a=extmap:6 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n"
+            + "a=sendrecv\r\n"
+            + "a=mid:video\r\n"
+            + "a=rtpmap:96 VP8/90000\r\n"
+            + "a=rtcp-fb:96 nack\r\n"
+            + "a=rtcp-fb:96 nack pli\r\n"
+            + "a=rtpmap:97 rtx/90000\r\n"
+            + "a=fmtp:97 apt=96\r\n"
+            + "a=rtpmap:98 VP9/90000\r\n"
+            + "a=rtpmap:99 rtx/90000\r\n"
+            + "a=fmtp:99 apt=98\r\n"
+            + "a=rtpmap:100 red/90000\r\n"
+            + "a=rtpmap:101 rtx/90000\r\n"
+            + "a=fmtp:101 apt=100\r\n"
+            + "a=rtpmap:127 ulpfec/90000\r\n"
+            + "a=ssrc-group:FID 2001 2002\r\n"
+            + "a=ssrc:2001 cname:abc\r\n"
+            + "a=ssrc:2002 cname:abc\r\n";
+
+    private static String offer(String ufrag) {
+        return String.format(OFFER, ufrag);
+    }
+
+    @Test
+    public void noRulesLeavesDescriptionUnchanged() {
+        assertEquals(offer("u1"), new SdpRewriter().rewrite(offer("u1")));
+    }
+
+    @Test
+    public void keepsOnlyPreferredCodecsAndKnownExtensions() {
+        String sdp = SdpRewriter.forCodecs("VP8", "opus", 0).rewrite(offer("u1"));
+
+        assertTrue(sdp.contains("m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n"));
+        assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 96\r\n"));
+        assertTrue(sdp.contains("a=rtcp-fb:96 nack pli\r\n"));
+        assertTrue(sdp.contains("a=fmtp:111 minptime=10;useinbandfec=1\r\n"));
+        assertFalse(sdp.contains("ISAC"));
+        assertFalse(sdp.contains("rtx"));
+        assertFalse(sdp.contains("ulpfec"));
+        assertFalse(sdp.contains("toffset"));
+        assertFalse(sdp.contains("playout-delay"));
+        assertTrue(sdp.contains("abs-send-time"));
+        assertFalse(sdp.contains("a=ssrc-group:FID"));
+        assertFalse(sdp.contains("a=ssrc:2002"));
+        assertTrue(sdp.contains("a=ssrc:2001 cname:abc\r\n"));
+        assertTrue(sdp.contains("a=ice-ufrag:u1\r\n"));
+        assertTrue(sdp.length() < offer("u1").length() * 3 / 4);
+    }
+
+    @Test
+    public void keepsRtxOfKeptCodecsUnlessStripped() {
+        String sdp = new SdpRewriter().setVideoCodecs("VP8").rewrite(offer("u1"));
+
+        assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 96 97\r\n"));
+        assertTrue(sdp.contains("a=fmtp:97 apt=96\r\n"));
+        assertFalse(sdp.contains("apt=98"));
+        assertTrue(sdp.contains("a=ssrc-group:FID 2001 2002\r\n"));
+    }
+
+    @Test
+    public void addsBitrateAttributes() {
+        String sdp = new SdpRewriter()
+                .setVideoCodecs("VP8")
+                .setVideoBitrate(300, 1500)
+                .setAudioBitrate(32)
+                .rewrite(offer("u1"));
+
+        assertTrue(sdp.contains("a=rtpmap:96 VP8/90000\r\na=fmtp:96 x-google-start-bitrate=300;x-google-max-bitrate=1500\r\n"));
+        assertTrue(sdp.contains("a=fmtp:111 minptime=10;useinbandfec=1;maxaveragebitrate=32000\r\n"));
+        assertFalse(sdp.contains("a=fmtp:97 apt=96;"));
+    }
+
+    @Test
+    public void leavesSectionAloneWhenNoPreferredCodecIsOffered() {
+        String sdp = new SdpRewriter().setVideoCodecs("H264").rewrite(offer("u1"));
+
+        assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127\r\n"));
+    }
+
+    @Test
+    public void reusesPlansAcrossNearlyIdenticalDescriptions() {
+        SdpRewriter rewriter = SdpRewriter.forCodecs("VP8", "opus", 0);
+        String first = rewriter.rewrite(offer("u1"));
+        String second = rewriter.rewrite(offer("u2"));
+
+        assertEquals(2, rewriter.planHits());
+        assertEquals(first.replace("u1", "u2"), second);
+
+        rewriter.setVideoCodecs("VP9");
+        assertTrue(rewriter.rewrite(offer("u3")).contains("m=video 9 UDP/TLS/RTP/SAVPF 98\r\n"));
+        assertEquals(2, rewriter.planHits());
+    }
+
+    @Test
+    public void addsSimulcastSsrcsToVp8LowestLayerFirst() {
+        String sdp = new SdpRewriter().setVideoCodecs("VP8").setSimulcast(3).rewrite(offer("u1"));
+
+        String group = sdp.substring(sdp.indexOf("a=ssrc-group:SIM "), sdp.indexOf("\r\n", sdp.indexOf("a=ssrc-group:SIM ")));
+        String[] layers = group.substring("a=ssrc-group:SIM ".length()).split(" ");
+        assertEquals(3, layers.length);
+        assertEquals("2001", layers[0]);
+        for (String ssrc : layers) {
+            assertTrue(sdp.contains("a=ssrc:" + ssrc + " cname:abc\r\n"));
+            assertTrue(sdp.contains("a=ssrc-group:FID " + ssrc + " "));
+        }
+        assertTrue(sdp.contains("a=ssrc-group:FID 2001 2002\r\n"));
+        assertEquals(6, sdp.split("a=ssrc:\\d+ cname:abc", -1).length - 2);
+    }
+
+    @Test
+    public void simulcastWithoutRtxHasNoFidGroups() {
+        String sdp = SdpRewriter.forCodecs("VP8", "opus", 0).setSimulcast(2).rewrite(offer("u1"));
+
+        assertTrue(sdp.contains("a=ssrc-group:SIM 2001 "));
+        assertFalse(sdp.contains("a=ssrc-group:FID"));
+        assertEquals(3, sdp.split("a=ssrc:\\d+ cname:abc", -1).length - 1);
+        assertEquals(sdp, SdpRewriter.forCodecs("VP8", "opus", 0).setSimulcast(2).rewrite(sdp));
+    }
+
+    @Test
+    public void sendsOneLayerForOtherCodecs() {
+        String sdp = SdpRewriter.forCodecs("VP9", "opus", 0).setSimulcast(3).rewrite(offer("u1"));
+
+        assertFalse(sdp.contains("a=ssrc-group:SIM"));
+        assertTrue(sdp.contains("a=ssrc:2001 cname:abc\r\n"));
+    }
+
+    @Test
+    public void mapsTracksToTheMidsOfTheirSections() {
+        String sdp = "v=0\r\n"
+                + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=mid:a0\r\na=ssrc:1 msid:s0 t0\r\n"
+                + "m=video 9 UDP/TLS/RTP/SAVPF 96\r\na=mid:v1\r\na=msid:s1 t1\r\na=ssrc:2 msid:s1 t1\r\n"
+                + "m=video 9 UDP/TLS/RTP/SAVPF 96\r\na=ssrc:3 cname:x\r\na=ssrc:3 msid:s2 t2\r\na=mid:v2\r\n"
+                + "m=application 9 DTLS/SCTP 5000\r\na=ssrc:4 msid:s3 t3\r\n";
+        Map<String, String> mids = SdpRewriter.trackMids(sdp);
+        assertEquals(3, mids.size());
+        assertEquals("a0", mids.get("t0"));
+        assertEquals("v1", mids.get("t1"));
+        assertEquals("v2", mids.get("t2"));
+    }
+}
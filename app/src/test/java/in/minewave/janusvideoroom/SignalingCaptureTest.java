@@ -0,0 +1,66 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SignalingCaptureTest {
+
+    @Test
+    public void roundTripsFramesInOrder() throws Exception {
+        StringBuilder big = new StringBuilder("{\"jsep\":\"");
+        while (big.length() < 100000) {
+            big.append("a=candidate:1 1 udp 2122260223 192.168.1.2 50000 typ host\\r\\n");
+        }
+        String large = big.append("\"}").toString();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SignalingCapture capture = new SignalingCapture(bytes);
+        capture.record(SignalingTrace.OUT, 11, 22, "{\"janus\":\"message\"}");
+        capture.record(SignalingTrace.IN, 11, 22, large);
+        capture.record(SignalingTrace.IN, 11, 0, "{\"display\":\"Zoë ✓\"}");
+        capture.close();
+        assertTrue(capture.isComplete());
+
+        SignalingCapture.Reader reader = new SignalingCapture.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(reader.startMillis > 0);
+        assertTrue(reader.next());
+        assertEquals(SignalingTrace.OUT, reader.direction);
+        assertEquals(11, reader.sessionId);
+        assertEquals(22, reader.handleId);
+        assertEquals("{\"janus\":\"message\"}", reader.frame);
+        long offset = reader.offsetNanos;
+        assertTrue(reader.next());
+        assertEquals(SignalingTrace.IN, reader.direction);
+        assertEquals(large, reader.frame);
+        assertTrue(reader.offsetNanos >= offset);
+        assertTrue(reader.next());
+        assertEquals(0, reader.handleId);
+        assertEquals("{\"display\":\"Zoë ✓\"}", reader.frame);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void truncatedCaptureEndsAtTheLastWholeRecord() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SignalingCapture capture = new SignalingCapture(bytes);
+        capture.record(SignalingTrace.IN, 1, 0, "{\"janus\":\"ack\"}");
+        capture.record(SignalingTrace.IN, 1, 0, "{\"janus\":\"event\"}");
+        capture.close();
+        byte[] cut = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 5);
+
+        SignalingCapture.Reader reader = new SignalingCapture.Reader(new ByteArrayInputStream(cut));
+        assertTrue(reader.next());
+        assertEquals("{\"janus\":\"ack\"}", reader.frame);
+        assertFalse(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        new SignalingCapture.Reader(new ByteArrayInputStream("{\"janus\":\"ack\"}".getBytes("UTF-8")));
+    }
+}
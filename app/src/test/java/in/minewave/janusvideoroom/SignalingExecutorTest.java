@@ -0,0 +1,111 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SignalingExecutorTest {
+    private final ExecutorService pool = SignalingExecutor.newPool(4);
+    private final SignalingExecutor executor = new SignalingExecutor(pool);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void runsEachKeyInOrder() throws Exception {
+        final int keys = 8;
+        final int perKey = 500;
+        final List<List<Integer>> seen = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        final CountDownLatch done = new CountDownLatch(keys * perKey);
+        for (int i = 0; i < perKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                final int value = i;
+                executor.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.get(key).add(value);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> values : seen) {
+            for (int i = 0; i < perKey; i++) {
+                assertEquals(i, (int) values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void slowKeyDoesNotBlockOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch other = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add("slow");
+            }
+        });
+        executor.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                order.add("after slow");
+            }
+        });
+        executor.execute(2, new Runnable() {
+            @Override
+            public void run() {
+                order.add("other");
+                other.countDown();
+            }
+        });
+
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("other"), order);
+        release.countDown();
+        for (int i = 0; i < 100 && executor.activeLanes() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.activeLanes());
+        assertEquals("after slow", order.get(2));
+    }
+
+    @Test
+    public void failingTaskDoesNotStallItsKey() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(3, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        });
+        executor.execute(3, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
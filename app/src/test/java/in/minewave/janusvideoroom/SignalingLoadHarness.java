@@ -0,0 +1,234 @@
+package in.minewave.janusvideoroom;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives simulated clients through the real signaling stack against a
+ * {@link FakeJanusGateway}: every session joins a room as a publisher,
+ * negotiates, and subscribes to everyone else in the room, with fake SDPs
+ * and candidates standing in for the peer connections. Nothing but the
+ * JVM is needed, so it runs on any CI box.
+ */
+final class SignalingLoadHarness {
+
+    static final class Config {
+        int channels = 1;
+        int sessionsPerChannel = 10;
+        int rooms = 1;
+        int virtualPublishersPerRoom;
+        long churnPeriodMs;
+        long churnDurationMs;
+        int subscribeWindow = SubscriptionScheduler.DEFAULT_WINDOW;
+        long settleTimeoutMs = 30000;
+        /** Where the first channel's traffic is captured, if anywhere. */
+        OutputStream capture;
+    }
+
+    static final class Report {
+        final LatencyHistogram joinLatency = new LatencyHistogram();
+        final LatencyHistogram subscribeLatency = new LatencyHistogram();
+        int sessions;
+        long framesIn;
+        long framesOut;
+        long elapsedMs;
+        long allocatedBytes;
+        long leakedTransactions;
+        long timedOutTransactions;
+        boolean settled;
+
+        double messagesPerSecond() {
+            return (framesIn + framesOut) * 1000.0 / Math.max(1, elapsedMs);
+        }
+
+        double allocationMbPerSecond() {
+            return allocatedBytes / (1024.0 * 1024.0) / Math.max(1, elapsedMs) * 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "sessions=%d settled=%b elapsed=%dms%n"
+                            + "  join      %s%n"
+                            + "  subscribe %s%n"
+                            + "  frames in=%d out=%d (%.0f msg/s)%n"
+                            + "  allocation %.1f MB/s%n"
+                            + "  transactions leaked=%d timed out=%d",
+                    sessions, settled, elapsedMs, joinLatency, subscribeLatency,
+                    framesIn, framesOut, messagesPerSecond(), allocationMbPerSecond(),
+                    leakedTransactions, timedOutTransactions);
+        }
+    }
+
+    /** One simulated client session, playing the part of MainActivity and PeerConnectionClient. */
+    private static final class SimulatedPeer implements JanusRTCInterface {
+        private final WebSocketChannel channel;
+        private final LatencyHistogram joinLatency;
+        private final long startNanos = System.nanoTime();
+
+        SimulatedPeer(WebSocketChannel channel, LatencyHistogram joinLatency) {
+            this.channel = channel;
+            this.joinLatency = joinLatency;
+        }
+
+        @Override
+        public void onPublisherJoined(long handleId) {
+            channel.publisherCreateOffer(handleId,
+                    new SessionDescription(SessionDescription.Type.OFFER, FakeJanusGateway.OFFER_SDP));
+            trickle(handleId);
+        }
+
+        @Override
+        public void onPublisherRemoteJsep(long handleId, SessionDescription jsep) {
+            joinLatency.record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        @Override
+        public void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep) {
+            channel.subscriberCreateAnswer(handleId,
+                    new SessionDescription(SessionDescription.Type.ANSWER, FakeJanusGateway.ANSWER_SDP));
+            trickle(handleId);
+        }
+
+        @Override
+        public void onLeaving(long handleId) {
+        }
+
+        @Override
+        public void onSlowLink(long handleId, boolean uplink, int lost) {
+        }
+
+        private void trickle(long handleId) {
+            channel.trickleCandidate(handleId, new IceCandidate("video", 0,
+                    "candidate:1 1 udp 2122260223 192.168.1.2 50000 typ host"));
+            channel.trickleCandidate(handleId, new IceCandidate("video", 0,
+                    "candidate:2 1 udp 1686052607 203.0.113.7 50000 typ srflx raddr 192.168.1.2 rport 50000"));
+            channel.trickleCandidateComplete(handleId);
+        }
+    }
+
+    private SignalingLoadHarness() {
+    }
+
+    static Report run(Config config) throws InterruptedException, IOException {
+        Report report = new Report();
+        report.sessions = config.channels * config.sessionsPerChannel;
+        FakeJanusGateway gateway = new FakeJanusGateway();
+        List<WebSocketChannel> channels = new ArrayList<>();
+        List<JanusSession> sessions = new ArrayList<>();
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int r = 0; r < config.rooms; r++) {
+            gateway.addVirtualPublishers(room(r), config.virtualPublishersPerRoom);
+        }
+        for (int c = 0; c < config.channels; c++) {
+            WebSocketChannel channel = new WebSocketChannel(gateway.transport());
+            channels.add(channel);
+            if (c == 0 && config.capture != null) {
+                channel.startCapture(config.capture);
+            }
+            channel.initConnection("fake://janus");
+            for (int s = 0; s < config.sessionsPerChannel; s++) {
+                int n = c * config.sessionsPerChannel + s;
+                JanusSession session = channel.joinRoom(room(n % config.rooms), "load-" + n,
+                        new SimulatedPeer(channel, report.joinLatency));
+                session.setSubscribeWindow(config.subscribeWindow);
+                sessions.add(session);
+            }
+        }
+        if (config.churnPeriodMs > 0) {
+            gateway.startChurn(config.churnPeriodMs);
+            Thread.sleep(config.churnDurationMs);
+            gateway.stopChurn();
+        }
+
+        int perRoom = (report.sessions + config.rooms - 1) / config.rooms;
+        long expectedLive = (long) report.sessions * (perRoom - 1 + config.virtualPublishersPerRoom);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.settleTimeoutMs);
+        while (System.nanoTime() < deadline) {
+            if (report.joinLatency.count() >= report.sessions
+                    && live(sessions) >= expectedLive
+                    && gateway.idleNanos() > TimeUnit.MILLISECONDS.toNanos(200)
+                    && pending(channels) == 0) {
+                report.settled = true;
+                break;
+            }
+            Thread.sleep(20);
+        }
+        report.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        report.allocatedBytes = allocatedBytes() - allocatedBefore;
+        report.framesIn = gateway.framesIn.get();
+        report.framesOut = gateway.framesOut.get();
+        report.leakedTransactions = pending(channels);
+        for (WebSocketChannel channel : channels) {
+            for (JanusTransaction.Verb verb : JanusTransaction.Verb.values()) {
+                report.timedOutTransactions += channel.getTimeouts(verb);
+            }
+        }
+        for (JanusSession session : sessions) {
+            merge(session.getSubscribeLatency(), report.subscribeLatency);
+        }
+
+        if (config.capture != null) {
+            channels.get(0).stopCapture();
+        }
+        for (WebSocketChannel channel : channels) {
+            channel.close();
+        }
+        gateway.shutdown();
+        return report;
+    }
+
+    private static long room(int index) {
+        return 1234 + index;
+    }
+
+    private static long live(List<JanusSession> sessions) {
+        long live = 0;
+        for (JanusSession session : sessions) {
+            live += session.getSubscribeLatency().count();
+        }
+        return live;
+    }
+
+    private static long pending(List<WebSocketChannel> channels) {
+        long pending = 0;
+        for (WebSocketChannel channel : channels) {
+            pending += channel.transactions.pending();
+        }
+        return pending;
+    }
+
+    /** Adds one histogram's samples to another, each at the bucket bound it was counted in. */
+    private static void merge(LatencyHistogram from, LatencyHistogram into) {
+        long n = from.count();
+        for (long i = 1; i <= n; i++) {
+            into.record(from.percentile(100.0 * i / n));
+        }
+    }
+
+    /** Bytes allocated so far by all live threads, or 0 where the JVM cannot tell. */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
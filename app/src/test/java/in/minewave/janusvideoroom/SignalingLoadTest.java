@@ -0,0 +1,67 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link SignalingLoadHarness}. The small room runs with every build;
+ * the load runs need {@code -Djanus.bench=true} and print their reports.
+ */
+public class SignalingLoadTest {
+
+    @Test
+    public void smallRoomSettlesWithoutLeaks() throws Exception {
+        SignalingLoadHarness.Config config = new SignalingLoadHarness.Config();
+        config.channels = 2;
+        config.sessionsPerChannel = 3;
+        config.virtualPublishersPerRoom = 2;
+        SignalingLoadHarness.Report report = SignalingLoadHarness.run(config);
+
+        assertTrue(report.toString(), report.settled);
+        assertEquals(6, report.joinLatency.count());
+        assertEquals(6 * (5 + 2), report.subscribeLatency.count());
+        assertEquals(0, report.leakedTransactions);
+        assertEquals(0, report.timedOutTransactions);
+    }
+
+    @Test
+    public void churnLeavesNothingBehind() throws Exception {
+        SignalingLoadHarness.Config config = new SignalingLoadHarness.Config();
+        config.sessionsPerChannel = 3;
+        config.virtualPublishersPerRoom = 3;
+        config.churnPeriodMs = 20;
+        config.churnDurationMs = 300;
+        SignalingLoadHarness.Report report = SignalingLoadHarness.run(config);
+
+        assertTrue(report.toString(), report.settled);
+        assertTrue(report.subscribeLatency.count() > 3 * (2 + 3));
+        assertEquals(0, report.leakedTransactions);
+        assertEquals(0, report.timedOutTransactions);
+    }
+
+    @Test
+    public void fiftyPublishersInOneRoom() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("janus.bench"));
+        SignalingLoadHarness.Config config = new SignalingLoadHarness.Config();
+        config.channels = 50;
+        config.sessionsPerChannel = 1;
+        config.settleTimeoutMs = 120000;
+        System.out.println("50 publishers, 1 room\n" + SignalingLoadHarness.run(config));
+    }
+
+    @Test
+    public void thousandSessionsWithChurn() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("janus.bench"));
+        SignalingLoadHarness.Config config = new SignalingLoadHarness.Config();
+        config.channels = 10;
+        config.sessionsPerChannel = 100;
+        config.rooms = 200;
+        config.virtualPublishersPerRoom = 2;
+        config.churnPeriodMs = 1000;
+        config.churnDurationMs = 10000;
+        config.settleTimeoutMs = 120000;
+        System.out.println("1000 sessions, 200 rooms, churn\n" + SignalingLoadHarness.run(config));
+    }
+}
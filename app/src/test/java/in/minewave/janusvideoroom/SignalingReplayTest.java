@@ -0,0 +1,51 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays captured signaling through {@link SignalingReplayer}. The
+ * benchmark needs {@code -Djanus.bench=true} and replays the capture named
+ * by {@code -Djanus.capture}, or a freshly recorded load run without one.
+ */
+public class SignalingReplayTest {
+
+    @Test
+    public void replaysEveryInboundFrameOfALoadRun() throws Exception {
+        SignalingReplayer replayer = new SignalingReplayer(new ByteArrayInputStream(record(3, 2)));
+        assertTrue(replayer.frames() > 0);
+
+        SignalingReplayer.Report report = replayer.replay(false);
+        assertEquals(replayer.frames(), report.frames);
+        assertEquals(report.frames, report.dispatchLatency.count());
+    }
+
+    @Test
+    public void replayBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("janus.bench"));
+        String path = System.getProperty("janus.capture");
+        InputStream in = path != null ? new FileInputStream(path) : new ByteArrayInputStream(record(50, 20));
+        SignalingReplayer replayer = new SignalingReplayer(in);
+        for (int i = 0; i < 5; i++) {
+            System.out.println("replay " + i + "\n" + replayer.replay(false));
+        }
+        System.out.println("replay at recorded pace\n" + replayer.replay(true));
+    }
+
+    private static byte[] record(int sessions, int virtualPublishers) throws Exception {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        SignalingLoadHarness.Config config = new SignalingLoadHarness.Config();
+        config.sessionsPerChannel = sessions;
+        config.virtualPublishersPerRoom = virtualPublishers;
+        config.capture = capture;
+        assertTrue(SignalingLoadHarness.run(config).settled);
+        return capture.toByteArray();
+    }
+}
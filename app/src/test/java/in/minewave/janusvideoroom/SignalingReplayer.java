@@ -0,0 +1,176 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the inbound frames of a {@link SignalingCapture} back through
+ * {@link WebSocketChannel#onMessage}, either as fast as the channel takes
+ * them or at the pace they were recorded. The sessions and handles the
+ * capture talks about are adopted up front with stub delegates, so events
+ * take the same path through the decoder, the signaling lanes and the
+ * session state as they did live. Nothing reaches a gateway: the channel
+ * never connects, and replies to requests it makes during the replay are
+ * simply not there.
+ */
+final class SignalingReplayer {
+
+    static final class Report {
+        LatencyHistogram dispatchLatency;
+        long frames;
+        long bytes;
+        long elapsedMs;
+
+        double framesPerSecond() {
+            return frames * 1000.0 / Math.max(1, elapsedMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "frames=%d (%.1f MB) elapsed=%dms (%.0f frames/s)%n"
+                            + "  dispatch  %s",
+                    frames, bytes / (1024.0 * 1024.0), elapsedMs, framesPerSecond(), dispatchLatency);
+        }
+    }
+
+    private static final class Frame {
+        final long offsetNanos;
+        final String text;
+
+        Frame(long offsetNanos, String text) {
+            this.offsetNanos = offsetNanos;
+            this.text = text;
+        }
+    }
+
+    private static final JanusTransport OFFLINE = new JanusTransport() {
+        @Override
+        public void connect(String url, Listener listener) {
+        }
+
+        @Override
+        public void send(long sessionId, long handleId, String frame) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final JanusRTCInterface STUB = new JanusRTCInterface() {
+        @Override
+        public void onPublisherJoined(long handleId) {
+        }
+
+        @Override
+        public void onPublisherRemoteJsep(long handleId, SessionDescription jsep) {
+        }
+
+        @Override
+        public void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep) {
+        }
+
+        @Override
+        public void onLeaving(long handleId) {
+        }
+
+        @Override
+        public void onSlowLink(long handleId, boolean uplink, int lost) {
+        }
+    };
+
+    private final List<Frame> inbound = new ArrayList<>();
+    // Session id to its handles, each mapped to the feed it subscribes to, or 0 for a publisher.
+    private final Map<Long, Map<Long, Long>> sessions = new LinkedHashMap<>();
+
+    /** Reads a whole capture into memory, so disk speed does not show in the numbers. */
+    SignalingReplayer(InputStream capture) throws IOException {
+        SignalingCapture.Reader reader = new SignalingCapture.Reader(capture);
+        try {
+            while (reader.next()) {
+                if (reader.direction == SignalingTrace.IN) {
+                    inbound.add(new Frame(reader.offsetNanos, reader.frame));
+                }
+                if (reader.sessionId == 0) {
+                    continue;
+                }
+                Map<Long, Long> handles = sessions.get(reader.sessionId);
+                if (handles == null) {
+                    handles = new LinkedHashMap<>();
+                    sessions.put(reader.sessionId, handles);
+                }
+                if (reader.handleId != 0) {
+                    long feed = reader.direction == SignalingTrace.OUT ? subscribedFeed(reader.frame) : 0;
+                    Long known = handles.get(reader.handleId);
+                    if (known == null || known == 0) {
+                        handles.put(reader.handleId, feed);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    int frames() {
+        return inbound.size();
+    }
+
+    /** Replays every inbound frame once and waits until the last one is handled. */
+    Report replay(boolean recordedPace) throws InterruptedException {
+        WebSocketChannel channel = new WebSocketChannel(OFFLINE);
+        for (Map.Entry<Long, Map<Long, Long>> session : sessions.entrySet()) {
+            JanusSession adopted = channel.adoptSession(session.getKey(), 0, STUB);
+            for (Map.Entry<Long, Long> handle : session.getValue().entrySet()) {
+                adopted.adoptHandle(handle.getKey(), handle.getValue());
+            }
+        }
+
+        Report report = new Report();
+        long start = System.nanoTime();
+        long first = inbound.isEmpty() ? 0 : inbound.get(0).offsetNanos;
+        for (Frame frame : inbound) {
+            if (recordedPace) {
+                long wait = frame.offsetNanos - first - (System.nanoTime() - start);
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            channel.onMessage(frame.text);
+            report.frames++;
+            report.bytes += frame.text.length();
+        }
+        while (!channel.isIdle()) {
+            Thread.sleep(1);
+        }
+        report.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        report.dispatchLatency = channel.getDispatchLatency();
+        channel.close();
+        return report;
+    }
+
+    /** The feed a subscriber join asks for, or 0 for any other request. */
+    private static long subscribedFeed(String frame) {
+        try {
+            JSONObject body = new JSONObject(frame).optJSONObject("body");
+            if (body != null && "join".equals(body.optString("request"))
+                    && !"publisher".equals(body.optString("ptype"))) {
+                return body.optLong("feed");
+            }
+        } catch (JSONException e) {
+            // Not ours to judge; the frame is replayed as it is.
+        }
+        return 0;
+    }
+}
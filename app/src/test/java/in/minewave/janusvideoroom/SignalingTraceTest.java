@@ -0,0 +1,46 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SignalingTraceTest {
+
+    @Test
+    public void keepsTheMostRecentRecordsOldestFirst() {
+        SignalingTrace trace = new SignalingTrace(4);
+        for (int i = 1; i <= 6; i++) {
+            trace.record(i % 2 == 0 ? SignalingTrace.IN : SignalingTrace.OUT, "ack", 100 + i, i, "{\"janus\":\"ack\"}");
+        }
+        assertEquals(4, trace.size());
+        String[] lines = trace.dump().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" > ack handle=103 tx=3 len=15"));
+        assertTrue(lines[3], lines[3].endsWith(" < ack handle=106 tx=6 len=15"));
+    }
+
+    @Test
+    public void truncatesPayloadsOnlyWhenAsked() {
+        SignalingTrace trace = new SignalingTrace(8);
+        trace.record(SignalingTrace.OUT, "create", 0, 1, "{\"janus\":\"create\",\"transaction\":\"1\"}");
+        trace.setPayloadLimit(10);
+        trace.record(SignalingTrace.OUT, "create", 0, 2, "{\"janus\":\"create\",\"transaction\":\"2\"}");
+        String[] lines = trace.dump().split("\n");
+        assertTrue(lines[0], lines[0].endsWith("len=36"));
+        assertTrue(lines[1], lines[1].endsWith("len=36 {\"janus\":\""));
+    }
+
+    @Test
+    public void recordsNothingWhenDisabled() {
+        SignalingTrace trace = new SignalingTrace(8);
+        trace.setEnabled(false);
+        trace.record(SignalingTrace.IN, "event", 1, 1, "{}");
+        assertEquals(0, trace.size());
+        assertEquals("", trace.dump());
+
+        trace.setEnabled(true);
+        trace.record(SignalingTrace.IN, "event", 1, 1, "{}");
+        trace.clear();
+        assertEquals(0, trace.size());
+    }
+}
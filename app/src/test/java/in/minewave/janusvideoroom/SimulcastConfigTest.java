@@ -0,0 +1,28 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulcastConfigTest {
+
+    @Test
+    public void splitsCapLowestLayerFirst() {
+        SimulcastConfig config = SimulcastConfig.threeLayers();
+
+        assertEquals(2150, config.totalBitrate());
+        assertArrayEquals(new int[]{150, 500, 1500}, config.split(5000));
+        assertArrayEquals(new int[]{150, 500, 300}, config.split(950));
+        assertArrayEquals(new int[]{150, 250, 0}, config.split(400));
+        assertArrayEquals(new int[]{100, 0, 0}, config.split(100));
+    }
+
+    @Test
+    public void layerBitratesCanBeChanged() {
+        SimulcastConfig config = SimulcastConfig.twoLayers().setLayerBitrate(1, 1000);
+
+        assertEquals(2, config.layerCount());
+        assertEquals(1300, config.totalBitrate());
+        assertArrayEquals(new int[]{300, 700}, config.split(1000));
+    }
+}
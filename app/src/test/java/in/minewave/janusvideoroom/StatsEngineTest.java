@@ -0,0 +1,108 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+import org.webrtc.StatsReport;
+
+import static org.junit.Assert.*;
+
+public class StatsEngineTest {
+
+    private static StatsReport report(String id, String type, long timestampMs, String... pairs) {
+        StatsReport.Value[] values = new StatsReport.Value[pairs.length / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new StatsReport.Value(pairs[2 * i], pairs[2 * i + 1]);
+        }
+        return new StatsReport(id, type, timestampMs, values);
+    }
+
+    private static StatsReport videoSend(long timestampMs, long bytes, long packets, long lost,
+            long frames, long qpSum, String fpsIn, String fps) {
+        return report("ssrc_1111_send", "ssrc", timestampMs,
+                "ssrc", "1111", "mediaType", "video",
+                "bytesSent", Long.toString(bytes), "packetsSent", Long.toString(packets),
+                "packetsLost", Long.toString(lost), "googRtt", "42",
+                "framesEncoded", Long.toString(frames), "qpSum", Long.toString(qpSum),
+                "googFrameRateInput", fpsIn, "googFrameRateSent", fps,
+                "googFrameWidthSent", "640", "googFrameHeightSent", "480",
+                "googCpuLimitedResolution", "true", "googBandwidthLimitedResolution", "false");
+    }
+
+    @Test
+    public void computesRatesAgainstThePreviousSample() {
+        StatsEngine engine = new StatsEngine(4);
+        engine.update(7, 1000, new StatsReport[] {videoSend(1000, 0, 0, 0, 0, 0, "30", "30")});
+        TrackStats track = engine.connection(7).outbound(1111);
+        assertFalse(track.hasRates());
+
+        engine.update(7, 2000, new StatsReport[] {videoSend(2000, 125000, 90, 10, 30, 900, "30", "25")});
+        assertTrue(track.hasRates());
+        assertEquals(1000, track.bitrateKbps, 0.001);
+        assertEquals(10, track.packetLossPercent, 0.001);
+        assertEquals(30, track.qp, 0.001);
+        assertEquals(5, track.framesDroppedPerSecond, 0.001);
+        assertEquals(42, track.rttMs, 0.001);
+        assertEquals(25, track.framesPerSecond, 0.001);
+        assertEquals(640, track.frameWidth);
+        assertTrue(track.video);
+        assertTrue(track.outbound);
+        assertTrue(track.cpuLimited);
+        assertFalse(track.bandwidthLimited);
+        assertEquals(1, track.history(TrackStats.BITRATE_KBPS).size());
+    }
+
+    @Test
+    public void countersGoingBackwardsRestartTheDeltas() {
+        StatsEngine engine = new StatsEngine(4);
+        engine.update(7, 1000, new StatsReport[] {videoSend(1000, 50000, 50, 0, 10, 100, "30", "30")});
+        engine.update(7, 2000, new StatsReport[] {videoSend(2000, 1000, 1, 0, 1, 10, "30", "30")});
+        TrackStats track = engine.connection(7).outbound(1111);
+        assertFalse(track.hasRates());
+        assertEquals(0, track.history(TrackStats.BITRATE_KBPS).size());
+    }
+
+    @Test
+    public void readsBandwidthAndActivePairAndDropsVanishedStreams() {
+        StatsEngine engine = new StatsEngine(4);
+        StatsReport recv = report("ssrc_2222_recv", "ssrc", 1000, "ssrc", "2222", "mediaType", "audio",
+                "bytesReceived", "100", "packetsReceived", "10", "googJitterReceived", "12");
+        engine.update(7, 1000, new StatsReport[] {
+                videoSend(1000, 0, 0, 0, 0, 0, "30", "30"), recv,
+                report("bweforvideo", "VideoBwe", 1000, "googAvailableSendBandwidth", "1500000",
+                        "googTargetEncBitrate", "1200000"),
+                report("Conn-0-1", "googCandidatePair", 1000, "googActiveConnection", "false", "googRtt", "300"),
+                report("Conn-0-0", "googCandidatePair", 1000, "googActiveConnection", "true", "googRtt", "80"),
+        });
+        ConnectionStats connection = engine.connection(7);
+        assertEquals(1500, connection.availableSendKbps, 0.001);
+        assertEquals(1200, connection.targetEncodeKbps, 0.001);
+        assertEquals(80, connection.rttMs, 0.001);
+        assertEquals(12, connection.inbound(2222).jitterMs, 0.001);
+        assertFalse(connection.inbound(2222).outbound);
+        assertEquals(2, connection.tracks().size());
+        assertSame(connection.outbound(1111), connection.video(true));
+
+        engine.update(7, 2000, new StatsReport[] {videoSend(2000, 0, 0, 0, 0, 0, "30", "30")});
+        assertNull(connection.inbound(2222));
+        assertEquals(1, connection.tracks().size());
+        assertEquals(2, connection.history(ConnectionStats.RTT_MS).size());
+
+        engine.remove(7);
+        assertNull(engine.connection(7));
+    }
+
+    @Test
+    public void ringKeepsTheLatestValues() {
+        MetricRing ring = new MetricRing(3);
+        assertEquals(0, ring.latest(), 0);
+        for (int i = 1; i <= 5; i++) {
+            ring.add(i);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(5, ring.get(0), 0);
+        assertEquals(3, ring.get(2), 0);
+        assertEquals(4, ring.mean(), 0.001);
+        assertEquals(4.5, ring.mean(2), 0.001);
+        assertEquals(5, ring.max(), 0);
+        assertEquals(3, ring.min(), 0);
+    }
+}
@@ -0,0 +1,111 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.StatsReport;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StatsSchedulerTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<StatsBatch> batches = new LinkedBlockingQueue<>();
+    private final BlockingQueue<StatsScheduler.Sample> held = new LinkedBlockingQueue<>();
+    private volatile long[] handles = {1, 2};
+    private volatile long slowHandle = -1;
+
+    private final StatsScheduler scheduler = new StatsScheduler(executor, new StatsScheduler.Source() {
+        @Override
+        public long[] handles() {
+            return handles;
+        }
+
+        @Override
+        public boolean sample(long handleId, StatsScheduler.Sample sample) {
+            if (handleId == slowHandle) {
+                held.add(sample);
+            } else {
+                sample.complete(new StatsReport[] {new StatsReport("s" + handleId, "ssrc", 0, null)});
+            }
+            return true;
+        }
+    }, new StatsScheduler.Listener() {
+        @Override
+        public void onStats(StatsBatch batch) {
+            batches.add(batch);
+        }
+    });
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void samplesEveryConnectionInOneBatch() throws Exception {
+        scheduler.start(400);
+        StatsBatch batch = batches.poll(2, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        assertArrayEquals(new long[] {1, 2}, batch.handleIds);
+        assertEquals("s1", batch.reports[0][0].id);
+        assertEquals("s2", batch.reports[1][0].id);
+    }
+
+    @Test
+    public void newConnectionsAreSampledEveryTickThenEveryPeriod() throws Exception {
+        scheduler.warmupMs = 0;
+        scheduler.start(400);
+        // Past warm-up, connections are only due on every fourth tick: about 400ms apart.
+        StatsBatch first = batches.poll(2, TimeUnit.SECONDS);
+        StatsBatch second = batches.poll(2, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertTrue(second.timestampMs - first.timestampMs >= 300);
+
+        scheduler.boost(2);
+        StatsBatch boosted = batches.poll(2, TimeUnit.SECONDS);
+        assertArrayEquals(new long[] {2}, boosted.handleIds);
+        assertTrue(boosted.timestampMs - second.timestampMs < 200);
+    }
+
+    @Test
+    public void picksUpAndDropsConnections() throws Exception {
+        scheduler.start(400);
+        assertEquals(2, batches.poll(2, TimeUnit.SECONDS).size());
+        handles = new long[] {2, 3};
+        StatsBatch batch = batches.poll(2, TimeUnit.SECONDS);
+        assertArrayEquals(new long[] {2, 3}, batch.handleIds);
+    }
+
+    @Test
+    public void slowSampleIsLeftOutAtTheNextTick() throws Exception {
+        slowHandle = 2;
+        scheduler.start(400);
+        StatsBatch batch = batches.poll(2, TimeUnit.SECONDS);
+        assertArrayEquals(new long[] {1}, batch.handleIds);
+        // Completing it after its tick was delivered adds nothing.
+        held.take().complete(new StatsReport[0]);
+        assertArrayEquals(new long[] {1}, batches.poll(2, TimeUnit.SECONDS).handleIds);
+    }
+
+    @Test
+    public void canBeEnabledAgainAfterStopping() throws Exception {
+        scheduler.start(400);
+        assertNotNull(batches.poll(2, TimeUnit.SECONDS));
+        scheduler.stop();
+        assertFalse(scheduler.isRunning());
+        Thread.sleep(200);
+        batches.clear();
+        assertNull(batches.poll(300, TimeUnit.MILLISECONDS));
+
+        scheduler.start(400);
+        assertTrue(scheduler.isRunning());
+        assertNotNull(batches.poll(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,110 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionSchedulerTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Ticks are driven by hand; the executor never gets to run one.
+    private final TimerWheel wheel = new TimerWheel(executor, TimeUnit.HOURS.toMillis(1), 64);
+    private final List<Long> started = new ArrayList<>();
+    private final List<String> progress = new ArrayList<>();
+    private SubscriptionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new SubscriptionScheduler(wheel, new SubscriptionScheduler.Starter() {
+            @Override
+            public void subscribe(long feedId, String display) {
+                started.add(feedId);
+            }
+        });
+        scheduler.setWindow(2);
+        scheduler.setListener(new SubscriptionScheduler.Listener() {
+            @Override
+            public void onSubscriptionProgress(int live, int total, long elapsedMs) {
+                progress.add(live + "/" + total);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void offer(long... feeds) {
+        for (long feed : feeds) {
+            scheduler.offer(feed, "feed " + feed);
+        }
+    }
+
+    @Test
+    public void startsFeedsInDisplayOrderWithinTheWindow() {
+        offer(11, 12, 13, 14, 15);
+        assertEquals(Arrays.asList(11L, 12L), started);
+        assertEquals(2, scheduler.inFlight());
+        assertEquals(3, scheduler.queued());
+
+        scheduler.onLive(12);
+        assertEquals(Arrays.asList(11L, 12L, 13L), started);
+        scheduler.onFailed(11);
+        scheduler.onLive(13);
+        assertEquals(Arrays.asList(11L, 12L, 13L, 14L, 15L), started);
+
+        scheduler.onLive(14);
+        scheduler.onLive(15);
+        assertEquals(Arrays.asList("1/5", "2/4", "3/4", "4/4"), progress);
+        assertEquals(0, scheduler.inFlight());
+        assertEquals(4, scheduler.latency().count());
+    }
+
+    @Test
+    public void ignoresFeedsItAlreadyKnows() {
+        offer(21, 22, 23);
+        scheduler.onLive(21);
+        offer(21, 22, 23, 24);
+        assertEquals(Arrays.asList(21L, 22L, 23L), started);
+        assertEquals(1, scheduler.queued());
+        scheduler.onLive(21);
+        assertEquals(1, progress.size());
+    }
+
+    @Test
+    public void leavingFeedsFreeTheirSlotOrLeaveTheQueue() {
+        offer(31, 32, 33, 34);
+        scheduler.remove(33);
+        scheduler.remove(31);
+        assertEquals(Arrays.asList(31L, 32L, 34L), started);
+        assertEquals(0, scheduler.queued());
+
+        // A failed feed can be offered again by a later publishers list.
+        scheduler.onFailed(34);
+        offer(34);
+        assertEquals(Arrays.asList(31L, 32L, 34L, 34L), started);
+    }
+
+    @Test
+    public void stalledFeedsGiveUpTheirSlotButStayKnown() {
+        offer(41, 42, 43);
+        wheel.advance();
+        assertEquals(Arrays.asList(41L, 42L, 43L), started);
+        assertEquals(1, scheduler.inFlight());
+
+        offer(41);
+        assertEquals(3, started.size());
+        scheduler.onLive(41);
+        assertEquals(Arrays.asList("1/3"), progress);
+        assertEquals(1, scheduler.inFlight());
+    }
+}
@@ -0,0 +1,163 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void firesOnTheClockInDeadlineOrder() throws Exception {
+        // Taken before the wheel exists, since its ticks count from its creation.
+        long start = System.nanoTime();
+        TimerWheel wheel = new TimerWheel(executor, 10, 8);
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(3);
+        // 250ms spans several rounds of an 8-slot, 10ms wheel.
+        for (final int delay : new int[] {250, 30, 120}) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.add(delay);
+                    done.countDown();
+                }
+            }, delay);
+        }
+        TimerWheel.Timeout cancelled = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(-1);
+            }
+        }, 60);
+        assertTrue(cancelled.cancel());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        assertEquals(Arrays.asList(30, 120, 250), fired);
+        assertEquals(0, wheel.pending());
+        assertFalse(cancelled.cancel());
+    }
+
+    private static Runnable record(final List<Integer> fired, final int id) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                fired.add(id);
+            }
+        };
+    }
+
+    @Test
+    public void advanceRunsOnlyWhatIsDueAcrossTurns() {
+        // An hour per tick, so only advance moves the wheel.
+        TimerWheel wheel = new TimerWheel(executor, TimeUnit.HOURS.toMillis(1), 8);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        List<Integer> fired = new ArrayList<>();
+        wheel.schedule(record(fired, 1), hour);
+        // Ten ticks out shares a slot with two ticks out on an 8-slot wheel.
+        wheel.schedule(record(fired, 10), 10 * hour);
+        wheel.schedule(record(fired, 2), 2 * hour);
+
+        wheel.advance();
+        assertEquals(Arrays.asList(1), fired);
+        wheel.advance();
+        assertEquals(Arrays.asList(1, 2), fired);
+        for (int i = 2; i < 9; i++) {
+            wheel.advance();
+        }
+        assertEquals(Arrays.asList(1, 2), fired);
+        assertEquals(1, wheel.pending());
+        wheel.advance();
+        assertEquals(Arrays.asList(1, 2, 10), fired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void cancelAfterRescheduleKeepsTheOthers() throws Exception {
+        TimerWheel wheel = new TimerWheel(executor, 10, 8);
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        TimerWheel.Timeout first = wheel.schedule(record(fired, 1), 40);
+        // Rescheduled the way keepalives are: the old timeout goes, a new one takes its place.
+        assertTrue(first.cancel());
+        TimerWheel.Timeout second = wheel.schedule(record(fired, 2), 40);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(3);
+                done.countDown();
+            }
+        }, 120);
+        assertTrue(second.cancel());
+        assertFalse(first.cancel());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(3), fired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void earlierTimeoutMovesTheWakeForward() throws Exception {
+        long start = System.nanoTime();
+        // 100 slots span two bitmap words; 600ms is more than one 500ms turn.
+        TimerWheel wheel = new TimerWheel(executor, 5, 100);
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch early = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        for (final int delay : new int[] {600, 350, 30}) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.add(delay);
+                    early.countDown();
+                    done.countDown();
+                }
+            }, delay);
+        }
+
+        assertTrue(early.await(1, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 350);
+        assertEquals(Arrays.asList(30), fired);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 600);
+        assertEquals(Arrays.asList(30, 350, 600), fired);
+    }
+
+    @Test
+    public void clearDropsEverythingAndTheWheelStaysUsable() throws Exception {
+        TimerWheel wheel = new TimerWheel(executor, 10, 8);
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        TimerWheel.Timeout cleared = wheel.schedule(record(fired, 1), 20);
+        wheel.schedule(record(fired, 2), 90);
+        wheel.clear();
+        assertEquals(0, wheel.pending());
+        assertFalse(cleared.cancel());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(3);
+                done.countDown();
+            }
+        }, 150);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(3), fired);
+    }
+}
@@ -0,0 +1,160 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TrickleCoalescerTest {
+
+    private static final class Flush {
+        final long handleId;
+        final List<IceCandidate> candidates;
+        final boolean completed;
+
+        Flush(long handleId, List<IceCandidate> candidates, boolean completed) {
+            this.handleId = handleId;
+            this.candidates = new ArrayList<>(candidates);
+            this.completed = completed;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Flush> flushes = new ArrayList<>();
+    private final CountDownLatch flushed = new CountDownLatch(1);
+    private final TimerWheel wheel = new TimerWheel(scheduler, 10, 8);
+    private volatile CountDownLatch blockFirst;
+    private final TrickleCoalescer coalescer = new TrickleCoalescer(wheel, new TrickleCoalescer.Sink() {
+        @Override
+        public void trickle(long handleId, List<IceCandidate> candidates, boolean completed) {
+            CountDownLatch block = blockFirst;
+            if (block != null) {
+                blockFirst = null;
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (flushes) {
+                flushes.add(new Flush(handleId, candidates, completed));
+            }
+            flushed.countDown();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static IceCandidate candidate(int i) {
+        return new IceCandidate("audio", 0, "candidate:" + i + " 1 udp 2122260223 10.0.0.7 4300" + i + " typ host");
+    }
+
+    @Test
+    public void batchesCandidatesPerHandleWithinWindow() throws Exception {
+        coalescer.setWindow(20);
+        coalescer.add(1, candidate(1));
+        coalescer.add(2, candidate(2));
+        coalescer.add(1, candidate(3));
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        synchronized (flushes) {
+            assertEquals(2, flushes.size());
+            for (Flush flush : flushes) {
+                assertFalse(flush.completed);
+                assertEquals(flush.handleId == 1 ? 2 : 1, flush.candidates.size());
+            }
+        }
+    }
+
+    @Test
+    public void completeFlushesPendingCandidatesWithMarker() {
+        coalescer.setWindow(TimeUnit.MINUTES.toMillis(1));
+        coalescer.add(7, candidate(1));
+        coalescer.add(7, candidate(2));
+        coalescer.complete(7);
+        coalescer.complete(8);
+
+        assertEquals(2, flushes.size());
+        assertEquals(7, flushes.get(0).handleId);
+        assertEquals(2, flushes.get(0).candidates.size());
+        assertTrue(flushes.get(0).completed);
+        assertEquals(8, flushes.get(1).handleId);
+        assertTrue(flushes.get(1).candidates.isEmpty());
+        assertTrue(flushes.get(1).completed);
+    }
+
+    @Test
+    public void fullBatchIsSentImmediately() {
+        coalescer.setWindow(TimeUnit.MINUTES.toMillis(1));
+        for (int i = 0; i < TrickleCoalescer.MAX_BATCH + 1; i++) {
+            coalescer.add(3, candidate(i));
+        }
+        assertEquals(1, flushes.size());
+        assertEquals(TrickleCoalescer.MAX_BATCH, flushes.get(0).candidates.size());
+    }
+
+    @Test
+    public void zeroWindowSendsEachCandidateAndDiscardDropsPending() {
+        coalescer.setWindow(0);
+        coalescer.add(4, candidate(1));
+        assertEquals(1, flushes.size());
+
+        coalescer.setWindow(TimeUnit.MINUTES.toMillis(1));
+        coalescer.add(5, candidate(2));
+        coalescer.discard(5);
+        coalescer.complete(5);
+        assertEquals(2, flushes.size());
+        assertTrue(flushes.get(1).candidates.isEmpty());
+    }
+
+    @Test
+    public void sinkRunsOutsideTheLockAndKeepsEachHandleInOrder() throws Exception {
+        coalescer.setWindow(TimeUnit.MINUTES.toMillis(1));
+        final CountDownLatch release = new CountDownLatch(1);
+        blockFirst = release;
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TrickleCoalescer.MAX_BATCH; i++) {
+                    coalescer.add(3, candidate(i));
+                }
+            }
+        });
+        first.start();
+        while (blockFirst != null) {
+            Thread.sleep(1);
+        }
+
+        // The full batch of handle 3 is in the sink; nothing here waits for it.
+        coalescer.add(4, candidate(1));
+        coalescer.complete(4);
+        coalescer.complete(3);
+        synchronized (flushes) {
+            assertEquals(1, flushes.size());
+            assertEquals(4, flushes.get(0).handleId);
+        }
+
+        release.countDown();
+        first.join(5000);
+        synchronized (flushes) {
+            assertEquals(3, flushes.size());
+            assertEquals(3, flushes.get(1).handleId);
+            assertEquals(TrickleCoalescer.MAX_BATCH, flushes.get(1).candidates.size());
+            assertFalse(flushes.get(1).completed);
+            assertEquals(3, flushes.get(2).handleId);
+            assertTrue(flushes.get(2).completed);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package in.minewave.janusvideoroom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class WarmPoolTest {
+    private final List<Runnable> queued = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+    };
+    private final List<Integer> disposed = new ArrayList<>();
+    private boolean available = true;
+    private int created;
+    private final WarmPool<Integer> pool = new WarmPool<>(executor, new WarmPool.Factory<Integer>() {
+        @Override
+        public Integer create() {
+            return available ? ++created : null;
+        }
+
+        @Override
+        public void dispose(Integer item) {
+            disposed.add(item);
+        }
+    });
+
+    private void runQueued() {
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+    }
+
+    @Test
+    public void fillsToSizeAndRefillsAfterTake() {
+        pool.setSize(2);
+        assertEquals(1, queued.size());
+        pool.fill();
+        assertEquals(1, queued.size());
+        runQueued();
+        assertEquals(2, pool.warm());
+
+        assertEquals(Integer.valueOf(1), pool.take());
+        assertEquals(1, pool.warm());
+        runQueued();
+        assertEquals(2, pool.warm());
+        assertEquals(3, created);
+        assertEquals(1, pool.hits());
+    }
+
+    @Test
+    public void missesWhileEmptyAndRetriesLater() {
+        available = false;
+        pool.setSize(1);
+        runQueued();
+        assertNull(pool.take());
+        assertEquals(1, pool.misses());
+
+        available = true;
+        runQueued();
+        assertEquals(1, pool.warm());
+    }
+
+    @Test
+    public void shrinkingAndClearingDisposeWarmItems() {
+        pool.setSize(3);
+        runQueued();
+        pool.setSize(1);
+        assertEquals(1, pool.warm());
+        assertEquals(2, disposed.size());
+
+        pool.clear();
+        assertEquals(0, pool.warm());
+        assertEquals(3, disposed.size());
+        pool.setSize(0);
+        runQueued();
+        assertEquals(0, pool.warm());
+    }
+}
@@ -0,0 +1,291 @@
+package in.minewave.janusvideoroom;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WebSocketChannelTest {
+    private static final long SESSION = 5;
+
+    private final List<JSONObject> sent = new ArrayList<>();
+    private final AtomicInteger leaving = new AtomicInteger();
+    private volatile JanusTransport.Listener listener;
+    private final JanusTransport transport = new JanusTransport() {
+        @Override
+        public void connect(String url, Listener listener) {
+            WebSocketChannelTest.this.listener = listener;
+        }
+
+        @Override
+        public void send(long sessionId, long handleId, String frame) {
+            synchronized (sent) {
+                sent.add(new JSONObject(frame));
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private final JanusRTCInterface delegate = new JanusRTCInterface() {
+        @Override
+        public void onPublisherJoined(long handleId) {
+        }
+
+        @Override
+        public void onPublisherRemoteJsep(long handleId, SessionDescription jsep) {
+        }
+
+        @Override
+        public void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep) {
+        }
+
+        @Override
+        public void onLeaving(long handleId) {
+            leaving.incrementAndGet();
+        }
+
+        @Override
+        public void onSlowLink(long handleId, boolean uplink, int lost) {
+        }
+    };
+    private final WebSocketChannel channel = new WebSocketChannel(transport);
+
+    @After
+    public void tearDown() {
+        channel.close();
+    }
+
+    private JSONObject awaitFrame(String janus) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (sent) {
+                for (JSONObject frame : sent) {
+                    if (janus.equals(frame.getString("janus"))) {
+                        return frame;
+                    }
+                }
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("No " + janus + " in " + sent);
+    }
+
+    private List<JSONObject> awaitFrames(String janus, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<JSONObject> out = new ArrayList<>();
+        while (System.currentTimeMillis() < deadline) {
+            out.clear();
+            synchronized (sent) {
+                for (JSONObject frame : sent) {
+                    if (janus.equals(frame.getString("janus"))) {
+                        out.add(frame);
+                    }
+                }
+            }
+            if (out.size() >= count) {
+                return out;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError(count + " " + janus + " expected in " + sent);
+    }
+
+    private List<String> sentSince(int from) {
+        List<String> out = new ArrayList<>();
+        synchronized (sent) {
+            for (JSONObject frame : sent.subList(from, sent.size())) {
+                out.add(frame.getString("janus") + " " + frame.getString("transaction"));
+            }
+        }
+        return out;
+    }
+
+    private int sentCount() {
+        synchronized (sent) {
+            return sent.size();
+        }
+    }
+
+    private String keepAlive() {
+        JanusTransaction jt = channel.newTransaction(JanusTransaction.Verb.KEEPALIVE);
+        channel.send("keepalive", SESSION, 0, jt, channel.encoder.keepAlive(jt.tid, SESSION));
+        return "keepalive " + jt.tid;
+    }
+
+    /** Joins {@code delegate} and returns the publisher handle's id. */
+    private long joinPublisher(JanusRTCInterface delegate) throws Exception {
+        channel.joinRoom(1234, "me", delegate);
+        channel.initConnection("fake://janus");
+        listener.onOpen();
+        channel.onMessage("{\"janus\":\"server_info\",\"transaction\":\"" + awaitFrame("info").getString("transaction")
+                + "\",\"session-timeout\":60}");
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + awaitFrame("create").getString("transaction")
+                + "\",\"data\":{\"id\":" + SESSION + "}}");
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + awaitFrame("attach").getString("transaction")
+                + "\",\"session_id\":" + SESSION + ",\"data\":{\"id\":7}}");
+        awaitFrame("message");
+        return 7;
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!channel.isIdle() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(channel.isIdle());
+    }
+
+    @Test
+    public void failedEventHandlingStaysOnTheLane() throws Exception {
+        final AtomicInteger joined = new AtomicInteger();
+        final List<Throwable> uncaught = new ArrayList<>();
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                synchronized (uncaught) {
+                    uncaught.add(e);
+                }
+            }
+        });
+        try {
+            long publisher = joinPublisher(new JanusRTCInterface() {
+                @Override
+                public void onPublisherJoined(long handleId) {
+                    joined.incrementAndGet();
+                    throw new IllegalStateException("delegate failed");
+                }
+
+                @Override
+                public void onPublisherRemoteJsep(long handleId, SessionDescription jsep) {
+                }
+
+                @Override
+                public void subscriberHandleRemoteJsep(long handleId, SessionDescription jsep) {
+                }
+
+                @Override
+                public void onLeaving(long handleId) {
+                }
+
+                @Override
+                public void onSlowLink(long handleId, boolean uplink, int lost) {
+                }
+            });
+            String joinedEvent = "{\"janus\":\"event\",\"session_id\":" + SESSION + ",\"sender\":" + publisher
+                    + ",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"joined\",\"id\":1}}}";
+            channel.onMessage(joinedEvent);
+            // The publisher handle has nothing to run when it is detached.
+            channel.onMessage("{\"janus\":\"detached\",\"session_id\":" + SESSION + ",\"sender\":" + publisher + "}");
+            channel.onMessage(joinedEvent);
+            awaitIdle();
+
+            assertEquals(2, joined.get());
+            synchronized (uncaught) {
+                assertTrue(uncaught.toString(), uncaught.isEmpty());
+            }
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+
+    @Test
+    public void subscriberLeavesOnceWhenDetachedMeetsLeaving() throws Exception {
+        long publisher = joinPublisher(delegate);
+        channel.onMessage("{\"janus\":\"event\",\"session_id\":" + SESSION + ",\"sender\":" + publisher
+                + ",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"event\","
+                + "\"publishers\":[{\"id\":1000,\"display\":\"them\"}]}}}");
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + awaitFrames("attach", 2).get(1).getString("transaction")
+                + "\",\"session_id\":" + SESSION + ",\"data\":{\"id\":9}}");
+        awaitFrames("message", 2);
+
+        channel.onMessage("{\"janus\":\"event\",\"session_id\":" + SESSION + ",\"sender\":" + publisher
+                + ",\"plugindata\":{\"plugin\":\"janus.plugin.videoroom\",\"data\":{\"videoroom\":\"event\","
+                + "\"leaving\":1000}}}");
+        String detach = awaitFrame("detach").getString("transaction");
+        // The gateway reports the handle detached before the detach's success, which has no sender.
+        channel.onMessage("{\"janus\":\"detached\",\"session_id\":" + SESSION + ",\"sender\":9}");
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + detach + "\",\"session_id\":" + SESSION + "}");
+        awaitIdle();
+
+        assertEquals(1, awaitFrames("detach", 1).size());
+        assertEquals(1, leaving.get());
+    }
+
+    @Test
+    public void closeFailsPendingRequestsAndDropsTimers() throws Exception {
+        channel.initConnection("fake://janus");
+        listener.onOpen();
+        final List<JanusException> errors = new ArrayList<>();
+        JanusTransaction jt = channel.transactions.create(JanusTransaction.Verb.KEEPALIVE);
+        jt.error = new TransactionCallbackError() {
+            @Override
+            public void error(JanusException e) {
+                errors.add(e);
+            }
+        };
+        channel.transactions.register(jt);
+        channel.send("keepalive", 0, 0, jt, channel.encoder.keepAlive(jt.tid, SESSION));
+
+        channel.close();
+        assertEquals(1, errors.size());
+        assertEquals(JanusException.CLOSED, errors.get(0).code);
+        assertEquals(0, channel.transactions.pending());
+        assertEquals(0, channel.timerWheel.pending());
+
+        // Nothing is handled or sent any more.
+        int count = sentCount();
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + jt.tid + "\"}");
+        keepAlive();
+        listener.onFailure(new IOException("late"));
+        assertEquals(count, sentCount());
+        assertTrue(channel.isIdle());
+    }
+
+    @Test
+    public void holdsSessionRequestsUntilTheClaimAndSendsThemOnce() throws Exception {
+        channel.joinRoom(1234, "me", delegate);
+        channel.initConnection("fake://janus");
+        listener.onOpen();
+        channel.onMessage("{\"janus\":\"server_info\",\"transaction\":\"" + awaitFrame("info").getString("transaction")
+                + "\",\"session-timeout\":60}");
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + awaitFrame("create").getString("transaction")
+                + "\",\"data\":{\"id\":" + SESSION + "}}");
+        String lostAttach = "attach " + awaitFrame("attach").getString("transaction");
+
+        listener.onFailure(new IOException("dropped"));
+        int dropped = sentCount();
+        String queued = keepAlive();
+        assertEquals(dropped, sentCount());
+
+        listener.onOpen();
+        String claim = "claim " + awaitFrame("claim").getString("transaction");
+        String held = keepAlive();
+        assertEquals(dropped + 1, sentCount());
+
+        channel.onMessage("{\"janus\":\"success\",\"transaction\":\"" + claim.substring(6)
+                + "\",\"session_id\":" + SESSION + "}");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sentCount() < dropped + 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        List<String> after = sentSince(dropped);
+        assertEquals(after.toString(), 4, after.size());
+        assertEquals(claim, after.get(0));
+        assertTrue(after.contains(queued));
+        assertTrue(after.contains(held));
+        // The attach that went out on the dropped connection is made again, not replayed.
+        assertFalse(after.contains(lostAttach));
+        assertTrue(after.get(3).startsWith("attach "));
+    }
+}